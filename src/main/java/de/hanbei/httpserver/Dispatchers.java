@@ -0,0 +1,117 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory methods for the {@link Executor}s the {@link MockHttpServer} can dispatch requests on. All threads created
+ * here are daemon threads and idle threads die after a while, so a forgotten server does not keep the JVM alive.
+ */
+public final class Dispatchers {
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private Dispatchers() {
+        // no construction
+    }
+
+    /**
+     * Run every request on its own thread. On a runtime that supports virtual threads (Java 21 and later) these are
+     * virtual threads, otherwise an unbounded pool of platform threads is used.
+     *
+     * @return An executor that starts one thread per request.
+     */
+    public static ExecutorService threadPerRequest() {
+        ExecutorService virtualThreads = newVirtualThreadPerTaskExecutor();
+        if (virtualThreads != null) {
+            return virtualThreads;
+        }
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new DaemonThreadFactory());
+    }
+
+    /**
+     * Run requests on a fixed number of threads. Requests that arrive while all threads are busy are queued.
+     *
+     * @param threads The number of threads handling requests.
+     * @return An executor with a fixed number of threads.
+     */
+    public static ExecutorService fixedThreadPool(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Run requests on a fixed number of threads with a bounded queue. If the queue is full the request is handled on
+     * the thread that accepted it, which slows down accepting new requests instead of dropping them.
+     *
+     * @param threads   The number of threads handling requests.
+     * @param queueSize The number of requests that may wait for a free thread.
+     * @return An executor with a fixed number of threads and a bounded queue.
+     */
+    public static ExecutorService boundedThreadPool(int threads, int queueSize) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new DaemonThreadFactory(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Get a factory of daemon threads named like the threads of the other executors.
+     */
+    static ThreadFactory daemonThreads() {
+        return new DaemonThreadFactory();
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            java.lang.reflect.Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (Exception e) {
+            // no virtual threads on this runtime
+            return null;
+        }
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+        private final AtomicInteger threadNumber = new AtomicInteger();
+        private final String prefix;
+
+        DaemonThreadFactory() {
+            prefix = "mock-httpserver-" + POOL_NUMBER.incrementAndGet() + "-";
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver;
+
+import de.hanbei.httpserver.common.Hang;
+import de.hanbei.httpserver.transport.Exchange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The registry of the exchanges a server hangs on. A hanging exchange is only an entry here and, unless it hangs
+ * forever, a task of the scheduler that ends the hang. No thread waits for it, so a single scheduler thread can hold
+ * any number of connections open. The scheduler only times the end of a hang, the connection is closed on an
+ * executor, so a connection that is slow to close does not hold up the others.
+ */
+final class HungExchanges {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HungExchanges.class);
+
+    private final Set<Exchange> exchanges =
+            Collections.newSetFromMap(new ConcurrentHashMap<Exchange, Boolean>());
+    private final Executor releasers;
+    private volatile boolean closed;
+
+    /**
+     * Create an empty registry.
+     *
+     * @param releasers The executor hangs are ended on once their time is up.
+     */
+    HungExchanges(Executor releasers) {
+        this.releasers = releasers;
+    }
+
+    /**
+     * Keep an exchange open without answering it. Once the registry is closed the exchange is released at once.
+     *
+     * @param exchange  The exchange to hang on.
+     * @param hang      How long to hang and how to end it.
+     * @param scheduler The scheduler that ends the hang, not used for hangs without end. Without a scheduler a hang
+     *                  with an end is ended at once.
+     */
+    void park(final Exchange exchange, final Hang hang, ScheduledExecutorService scheduler) {
+        exchanges.add(exchange);
+        if (closed) {
+            // close() may have released the others before this one was added
+            release(exchange, hang.isReset());
+            return;
+        }
+        if (hang.isForever()) {
+            return;
+        }
+        if (scheduler == null) {
+            release(exchange, hang.isReset());
+            return;
+        }
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    MockHttpHandler.execute(releasers, new Runnable() {
+                        @Override
+                        public void run() {
+                            release(exchange, hang.isReset());
+                        }
+                    });
+                }
+            }, hang.getDuration().nanos(), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            release(exchange, hang.isReset());
+        }
+    }
+
+    /**
+     * Get the number of exchanges currently hanging.
+     *
+     * @return The number of open connections without an answer.
+     */
+    int size() {
+        return exchanges.size();
+    }
+
+    /**
+     * Accept hangs again after {@link #close()}.
+     */
+    void open() {
+        closed = false;
+    }
+
+    /**
+     * End all hangs now and release every exchange parked later at once, until the registry is opened again.
+     */
+    void close() {
+        closed = true;
+        releaseAll();
+    }
+
+    /**
+     * End all hangs now by closing their connections.
+     */
+    void releaseAll() {
+        for (Exchange exchange : new ArrayList<Exchange>(exchanges)) {
+            release(exchange, false);
+        }
+    }
+
+    private void release(Exchange exchange, boolean reset) {
+        if (!exchanges.remove(exchange)) {
+            return;
+        }
+        try {
+            if (reset) {
+                exchange.abort(null);
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Could not reset a hanging connection", e);
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -13,37 +13,405 @@ See the License for the specific language governing permissions and
 limitations under the License. */
 package de.hanbei.httpserver;
 
+import org.apache.commons.io.Charsets;
+
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
- * Maps a predefined Response or RequestProcessor to a uri relative to the server root.
+ * Maps a predefined Response or RequestProcessor to a uri relative to the server root. The uris are kept in a trie of
+ * path segments, so the time to find a value only depends on the number of segments of the request path and not on
+ * the number of mapped uris.
+ * <p/>
+ * A segment of a mapped uri may be
+ * <ul>
+ * <li>a literal like <code>users</code> that only matches itself,</li>
+ * <li>a variable like <code>{id}</code> that matches any segment and captures it under the name <code>id</code>,</li>
+ * <li><code>*</code> that matches any single segment or</li>
+ * <li><code>**</code> that matches any number of segments, including none.</li>
+ * </ul>
+ * If several uris match a request, literals win over variables, variables over <code>*</code> and <code>*</code> over
+ * <code>**</code>, segment by segment from left to right. Leading and trailing slashes are ignored. A mapped uri with a
+ * query only matches requests with exactly this query and wins over the same uri without query.
+ * <p/>
+ * Mapped uris are normalized once when they are added. Request paths are matched by scanning the bounds of their
+ * segments, so {@link #lookup(String, String, Match)} does not allocate any memory. Captured variables are only
+ * percent-decoded when they are read from the {@link Match}.
+ * <p/>
+ * The nodes of the trie are never changed once they are linked into it. {@link #with(String, Object)} copies only the
+ * nodes on the path of the added uri and shares all others, so adding a uri costs the same however many uris are
+ * mapped, and the mapping it started from can still be read by other threads. {@link #add(String, Object)} works the
+ * same way but replaces the trie of this mapping, so it is not thread safe.
  */
 class Mapping<V> {
 
-    protected Map<String, V> responses;
+    private static final String WILDCARD = "*";
+    private static final String GLOBSTAR = "**";
+
+    private Node<V> root;
 
     public Mapping() {
-        responses = new HashMap<String, V>();
+        root = new Node<V>();
+    }
+
+    private Mapping(Node<V> root) {
+        this.root = root;
     }
 
     /**
      * Get the predefined response for a uri.
      *
-     * @param requestUri An uri that should map to a predefined response.
-     * @return A predefined response for the requestUri or <code>null</code> if no predefined response exists.
+     * @param path  The raw path of the request uri.
+     * @param query The raw query of the request uri or <code>null</code>.
+     * @return The match for the requestUri or <code>null</code> if no predefined response exists.
      */
-    public V get(String requestUri) {
-        return responses.get(requestUri);
+    public Match<V> get(String path, String query) {
+        Match<V> match = new Match<V>();
+        if (lookup(path, query, match)) {
+            return match;
+        }
+        return null;
+    }
+
+    /**
+     * Find the predefined response for a uri without allocating memory.
+     *
+     * @param path  The raw path of the request uri.
+     * @param query The raw query of the request uri or <code>null</code>.
+     * @param match A match that is reset and filled with the result. May be reused for further lookups.
+     * @return true if a predefined response exists.
+     */
+    public boolean lookup(String path, String query, Match<V> match) {
+        match.reset(path);
+        int start = 0;
+        int end = path.length();
+        while (start < end && path.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        // a position behind the end marks that all segments are consumed
+        int first = start == end ? end + 1 : start;
+        Route<V> route = find(root, path, first, end, query, match);
+        if (route == null) {
+            match.reset(null);
+            return false;
+        }
+        match.route = route;
+        return true;
     }
 
     /**
      * Add a predefined response that should be returned on a specific request uri.
      *
-     * @param uri      The uri the predefined response should be map to.
+     * @param uri      The uri the predefined response should be map to. May contain variables and wildcards.
      * @param response The predefined response.
      */
     public void add(String uri, V response) {
-        responses.put(uri, response);
+        root = insert(uri, response);
+    }
+
+    /**
+     * Get a mapping with a predefined response added for a specific request uri. This mapping is not changed.
+     *
+     * @param uri      The uri the predefined response should be map to. May contain variables and wildcards.
+     * @param response The predefined response.
+     * @return The new mapping, sharing all nodes not on the path of the uri with this one.
+     */
+    public Mapping<V> with(String uri, V response) {
+        return new Mapping<V>(insert(uri, response));
+    }
+
+    /**
+     * Get the predefined response added for exactly this uri, not matching it against the mapped patterns.
+     *
+     * @param uri The uri as it was given to {@link #add(String, Object)}.
+     * @return The predefined response or <code>null</code> if none was added for the uri.
+     */
+    public V getMapped(String uri) {
+        Node<V> node = root;
+        for (String segment : segments(path(uri))) {
+            node = node.existingChild(segment);
+            if (node == null) {
+                return null;
+            }
+        }
+        String query = query(uri);
+        Route<V> route = query == null ? node.route : node.queryRoutes == null ? null : node.queryRoutes.get(query);
+        return route == null ? null : route.value;
+    }
+
+    private Node<V> insert(String uri, V response) {
+        String[] segments = segments(path(uri));
+        String[] variableNames = new String[segments.length];
+        int variables = 0;
+        for (String segment : segments) {
+            if (isVariable(segment)) {
+                variableNames[variables++] = segment.substring(1, segment.length() - 1);
+            }
+        }
+        Route<V> route = new Route<V>(response, Arrays.copyOf(variableNames, variables));
+        return insert(root, segments, 0, route, query(uri));
+    }
+
+    private static <V> Node<V> insert(Node<V> node, String[] segments, int index, Route<V> route, String query) {
+        Node<V> copy = node == null ? new Node<V>() : node.copy();
+        if (index == segments.length) {
+            if (query == null) {
+                copy.route = route;
+            } else {
+                copy.queryRoutes = copy.queryRoutes == null
+                        ? new HashMap<String, Route<V>>() : new HashMap<String, Route<V>>(copy.queryRoutes);
+                copy.queryRoutes.put(query, route);
+            }
+            return copy;
+        }
+        String segment = segments[index];
+        Node<V> child = node == null ? null : node.existingChild(segment);
+        copy.setChild(segment, insert(child, segments, index + 1, route, query));
+        return copy;
+    }
+
+    private Route<V> find(Node<V> node, String path, int start, int end, String query, Match<V> match) {
+        if (start > end) {
+            Route<V> route = node.getRoute(query);
+            if (route != null) {
+                return route;
+            }
+        } else {
+            int segmentEnd = segmentEnd(path, start, end);
+            Node<V> literal = node.literals == null ? null : node.literals.get(path, start, segmentEnd);
+            if (literal != null) {
+                Route<V> route = find(literal, path, segmentEnd + 1, end, query, match);
+                if (route != null) {
+                    return route;
+                }
+            }
+            if (node.variable != null) {
+                int mark = match.captured;
+                match.capture(start, segmentEnd);
+                Route<V> route = find(node.variable, path, segmentEnd + 1, end, query, match);
+                if (route != null) {
+                    return route;
+                }
+                match.captured = mark;
+            }
+            if (node.wildcard != null) {
+                Route<V> route = find(node.wildcard, path, segmentEnd + 1, end, query, match);
+                if (route != null) {
+                    return route;
+                }
+            }
+        }
+        if (node.globStar != null) {
+            int next = start;
+            while (true) {
+                Route<V> route = find(node.globStar, path, next, end, query, match);
+                if (route != null) {
+                    return route;
+                }
+                if (next > end) {
+                    break;
+                }
+                next = segmentEnd(path, next, end) + 1;
+            }
+        }
+        return null;
+    }
+
+    private static int segmentEnd(String path, int start, int end) {
+        int slash = path.indexOf('/', start);
+        return slash < 0 || slash > end ? end : slash;
+    }
+
+    private static String path(String uri) {
+        int queryStart = uri.indexOf('?');
+        return queryStart < 0 ? uri : uri.substring(0, queryStart);
+    }
+
+    private static String query(String uri) {
+        int queryStart = uri.indexOf('?');
+        return queryStart < 0 ? null : uri.substring(queryStart + 1);
+    }
+
+    private static String[] segments(String path) {
+        int start = 0;
+        int end = path.length();
+        while (start < end && path.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        if (start == end) {
+            return new String[0];
+        }
+        return path.substring(start, end).split("/", -1);
+    }
+
+    private static boolean isVariable(String segment) {
+        return segment.length() > 2 && segment.startsWith("{") && segment.endsWith("}");
+    }
+
+    /**
+     * The result of a successful lookup: the mapped value and the variables captured from the request path. The
+     * variables are kept as bounds in the request path until they are asked for.
+     */
+    static final class Match<V> {
+
+        private static final int INITIAL_CAPTURES = 8;
+
+        private String path;
+        private Route<V> route;
+        private int[] bounds = new int[INITIAL_CAPTURES * 2];
+        private int captured;
+
+        void reset(String requestPath) {
+            path = requestPath;
+            route = null;
+            captured = 0;
+        }
+
+        void capture(int start, int end) {
+            if (captured * 2 == bounds.length) {
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            }
+            bounds[captured * 2] = start;
+            bounds[captured * 2 + 1] = end;
+            captured++;
+        }
+
+        public V getValue() {
+            return route.value;
+        }
+
+        public boolean hasVariables() {
+            return route.variableNames.length > 0;
+        }
+
+        public String getVariable(String name) {
+            String[] names = route.variableNames;
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) {
+                    return decode(bounds[i * 2], bounds[i * 2 + 1]);
+                }
+            }
+            return null;
+        }
+
+        public Map<String, String> getVariables() {
+            String[] names = route.variableNames;
+            if (names.length == 0) {
+                return Collections.emptyMap();
+            }
+            Map<String, String> variables = new HashMap<String, String>();
+            for (int i = 0; i < names.length; i++) {
+                variables.put(names[i], decode(bounds[i * 2], bounds[i * 2 + 1]));
+            }
+            return variables;
+        }
+
+        /**
+         * Percent-decode a captured segment of the raw request path as UTF-8. Unlike a query a path keeps a
+         * <code>+</code> as it is. A segment with a malformed escape is returned undecoded.
+         */
+        private String decode(int start, int end) {
+            int escape = path.indexOf('%', start);
+            if (escape < 0 || escape >= end) {
+                return path.substring(start, end);
+            }
+            StringBuilder decoded = new StringBuilder(end - start);
+            decoded.append(path, start, escape);
+            byte[] bytes = new byte[(end - escape) / 3];
+            int i = escape;
+            while (i < end) {
+                if (path.charAt(i) != '%') {
+                    decoded.append(path.charAt(i++));
+                    continue;
+                }
+                int length = 0;
+                while (i < end && path.charAt(i) == '%') {
+                    int high = i + 2 < end ? Character.digit(path.charAt(i + 1), 16) : -1;
+                    int low = high < 0 ? -1 : Character.digit(path.charAt(i + 2), 16);
+                    if (low < 0) {
+                        return path.substring(start, end);
+                    }
+                    bytes[length++] = (byte) ((high << 4) + low);
+                    i += 3;
+                }
+                decoded.append(new String(bytes, 0, length, Charsets.UTF_8));
+            }
+            return decoded.toString();
+        }
+    }
+
+    private static final class Route<V> {
+
+        private final V value;
+        private final String[] variableNames;
+
+        Route(V value, String[] variableNames) {
+            this.value = value;
+            this.variableNames = variableNames;
+        }
+    }
+
+    private static final class Node<V> {
+
+        private SegmentTable<Node<V>> literals;
+        private Node<V> variable;
+        private Node<V> wildcard;
+        private Node<V> globStar;
+        private Route<V> route;
+        private Map<String, Route<V>> queryRoutes;
+
+        Node<V> copy() {
+            Node<V> copy = new Node<V>();
+            copy.literals = literals;
+            copy.variable = variable;
+            copy.wildcard = wildcard;
+            copy.globStar = globStar;
+            copy.route = route;
+            copy.queryRoutes = queryRoutes;
+            return copy;
+        }
+
+        void setChild(String segment, Node<V> child) {
+            if (GLOBSTAR.equals(segment)) {
+                globStar = child;
+            } else if (WILDCARD.equals(segment)) {
+                wildcard = child;
+            } else if (isVariable(segment)) {
+                variable = child;
+            } else {
+                literals = (literals == null ? SegmentTable.<Node<V>>empty() : literals).with(segment, child);
+            }
+        }
+
+        Node<V> existingChild(String segment) {
+            if (GLOBSTAR.equals(segment)) {
+                return globStar;
+            }
+            if (WILDCARD.equals(segment)) {
+                return wildcard;
+            }
+            if (isVariable(segment)) {
+                return variable;
+            }
+            return literals == null ? null : literals.get(segment);
+        }
+
+        Route<V> getRoute(String query) {
+            if (query != null && queryRoutes != null) {
+                Route<V> queryRoute = queryRoutes.get(query);
+                if (queryRoute != null) {
+                    return queryRoute;
+                }
+            }
+            return route;
+        }
     }
 }
@@ -0,0 +1,238 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver;
+
+import de.hanbei.httpserver.request.Request;
+import de.hanbei.httpserver.request.RequestMatcher;
+import de.hanbei.httpserver.response.Response;
+
+import java.util.Locale;
+
+/**
+ * Index over the guarded candidates of a stub. Each candidate is filed under one of its equality conditions, the one
+ * on the attribute with the most distinct values among the candidates added before it, as that attribute splits the
+ * candidates best. Choosing a candidate for a request then only looks at the candidates filed under the values the
+ * request actually has, instead of testing every matcher. Candidates without an equality condition are tested one
+ * after the other.
+ * <p/>
+ * The index is immutable. {@link #with(RequestMatcher, Response, RequestProcessor)} copies only the attribute and the
+ * value the candidate is filed under and shares everything else, so stubs with many matchers can be built one matcher
+ * at a time.
+ */
+final class MatcherIndex {
+
+    static final MatcherIndex EMPTY = new MatcherIndex(new Attribute[0], null, 0);
+
+    private final Attribute[] attributes;
+    private final Filed unindexed;
+    private final int size;
+
+    private MatcherIndex(Attribute[] attributes, Filed unindexed, int size) {
+        this.attributes = attributes;
+        this.unindexed = unindexed;
+        this.size = size;
+    }
+
+    /**
+     * Get an index with a candidate added. If a candidate with an equal matcher is in the index already it is
+     * replaced, keeping its response or processor if the new one is <code>null</code>. This index is not changed.
+     *
+     * @param matcher   The matcher of the candidate.
+     * @param response  The response of the candidate or <code>null</code>.
+     * @param processor The processor of the candidate or <code>null</code>.
+     * @return The new index.
+     */
+    MatcherIndex with(RequestMatcher matcher, Response response, RequestProcessor processor) {
+        boolean indexed = false;
+        for (RequestMatcher.Condition condition : matcher.getConditions()) {
+            if (condition.isEquality()) {
+                indexed = true;
+                int index = indexOf(key(condition));
+                if (index >= 0) {
+                    Attribute attribute = attributes[index];
+                    Filed filed = attribute.byValue.get(condition.getValue());
+                    Stub.Candidate existing = find(filed, matcher);
+                    if (existing != null) {
+                        Filed replaced = replace(filed, existing, merge(existing, response, processor));
+                        return new MatcherIndex(with(index, attribute.with(condition.getValue(), replaced, 0)),
+                                unindexed, size);
+                    }
+                }
+            }
+        }
+        Stub.Candidate existing = indexed ? null : find(unindexed, matcher);
+        if (existing != null) {
+            return new MatcherIndex(attributes, replace(unindexed, existing, merge(existing, response, processor)),
+                    size);
+        }
+
+        Stub.Candidate candidate = new Stub.Candidate(matcher, response, processor, size);
+        RequestMatcher.Condition selective = null;
+        int selectivity = -1;
+        for (RequestMatcher.Condition condition : matcher.getConditions()) {
+            if (condition.isEquality()) {
+                int index = indexOf(key(condition));
+                int distinct = index < 0 ? 0 : attributes[index].distinct;
+                if (distinct > selectivity) {
+                    selective = condition;
+                    selectivity = distinct;
+                }
+            }
+        }
+        if (selective == null) {
+            return new MatcherIndex(attributes, new Filed(candidate, unindexed), size + 1);
+        }
+        return new MatcherIndex(file(selective, candidate), unindexed, size + 1);
+    }
+
+    private Attribute[] file(RequestMatcher.Condition condition, Stub.Candidate candidate) {
+        String key = key(condition);
+        int index = indexOf(key);
+        if (index < 0) {
+            Attribute[] added = new Attribute[attributes.length + 1];
+            System.arraycopy(attributes, 0, added, 0, attributes.length);
+            added[attributes.length] = new Attribute(condition, key, SegmentTable.<Filed>empty(), 0)
+                    .with(condition.getValue(), new Filed(candidate, null), 1);
+            return added;
+        }
+        Attribute attribute = attributes[index];
+        Filed filed = attribute.byValue.get(condition.getValue());
+        return with(index, attribute.with(condition.getValue(), new Filed(candidate, filed), filed == null ? 1 : 0));
+    }
+
+    private Attribute[] with(int index, Attribute attribute) {
+        Attribute[] replaced = attributes.clone();
+        replaced[index] = attribute;
+        return replaced;
+    }
+
+    private int indexOf(String key) {
+        for (int i = 0; i < attributes.length; i++) {
+            if (attributes[i].key.equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Choose the most specific candidate whose matcher matches a request.
+     *
+     * @param request The request.
+     * @return The candidate or <code>null</code> if no matcher matches.
+     */
+    Stub.Candidate select(Request request) {
+        Stub.Candidate best = null;
+        for (Attribute attribute : attributes) {
+            for (String value : attribute.condition.values(request)) {
+                Filed filed = attribute.byValue.get(value);
+                if (filed != null) {
+                    best = select(filed, request, best);
+                }
+            }
+        }
+        return select(unindexed, request, best);
+    }
+
+    private static Stub.Candidate select(Filed filed, Request request, Stub.Candidate best) {
+        for (; filed != null; filed = filed.next) {
+            Stub.Candidate candidate = filed.candidate;
+            if ((best == null || candidate.isMoreSpecificThan(best)) && candidate.getMatcher().matches(request)) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private static Stub.Candidate find(Filed filed, RequestMatcher matcher) {
+        for (; filed != null; filed = filed.next) {
+            if (filed.candidate.getMatcher().equals(matcher)) {
+                return filed.candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copy the candidates in front of a replaced one and share the ones behind it.
+     */
+    private static Filed replace(Filed filed, Stub.Candidate existing, Stub.Candidate replacement) {
+        int before = 0;
+        Filed current = filed;
+        while (current.candidate != existing) {
+            before++;
+            current = current.next;
+        }
+        Stub.Candidate[] front = new Stub.Candidate[before];
+        current = filed;
+        for (int i = 0; i < before; i++) {
+            front[i] = current.candidate;
+            current = current.next;
+        }
+        Filed replaced = new Filed(replacement, current.next);
+        for (int i = before - 1; i >= 0; i--) {
+            replaced = new Filed(front[i], replaced);
+        }
+        return replaced;
+    }
+
+    private static Stub.Candidate merge(Stub.Candidate existing, Response response, RequestProcessor processor) {
+        return new Stub.Candidate(existing.getMatcher(), response == null ? existing.getResponse() : response,
+                processor == null ? existing.getProcessor() : processor, existing.getOrder());
+    }
+
+    private static String key(RequestMatcher.Condition condition) {
+        String name = condition.getName();
+        if (condition.getAttribute() == RequestMatcher.Attribute.HEADER) {
+            name = name.toLowerCase(Locale.ENGLISH);
+        }
+        return condition.getAttribute() + ":" + name;
+    }
+
+    /**
+     * The candidates filed under the values of one attribute, e.g. one header field.
+     */
+    private static final class Attribute {
+
+        private final RequestMatcher.Condition condition;
+        private final String key;
+        private final SegmentTable<Filed> byValue;
+        private final int distinct;
+
+        Attribute(RequestMatcher.Condition condition, String key, SegmentTable<Filed> byValue, int distinct) {
+            this.condition = condition;
+            this.key = key;
+            this.byValue = byValue;
+            this.distinct = distinct;
+        }
+
+        Attribute with(String value, Filed filed, int addedValues) {
+            return new Attribute(condition, key, byValue.with(value, filed), distinct + addedValues);
+        }
+    }
+
+    /**
+     * The candidates filed under one value, linked to the ones filed before.
+     */
+    private static final class Filed {
+
+        private final Stub.Candidate candidate;
+        private final Filed next;
+
+        Filed(Stub.Candidate candidate, Filed next) {
+            this.candidate = candidate;
+            this.next = next;
+        }
+    }
+}
@@ -1,152 +1,305 @@
 package de.hanbei.httpserver;
 
-import com.sun.net.httpserver.Headers;
-import com.sun.net.httpserver.HttpExchange;
-import com.sun.net.httpserver.HttpHandler;
+import de.hanbei.httpserver.common.Delay;
+import de.hanbei.httpserver.common.Fault;
+import de.hanbei.httpserver.common.FaultPolicy;
+import de.hanbei.httpserver.common.Hang;
 import de.hanbei.httpserver.common.Header;
 import de.hanbei.httpserver.common.Method;
+import de.hanbei.httpserver.common.Status;
+import de.hanbei.httpserver.common.Throttle;
+import de.hanbei.httpserver.exceptions.ContentException;
 import de.hanbei.httpserver.exceptions.ServerErrorException;
+import de.hanbei.httpserver.request.QueryParameter;
 import de.hanbei.httpserver.request.Request;
+import de.hanbei.httpserver.request.RequestMatcher;
 import de.hanbei.httpserver.response.Response;
-import org.apache.commons.io.IOUtils;
+import de.hanbei.httpserver.response.ResponseTemplate;
+import de.hanbei.httpserver.response.WireFormat;
+import de.hanbei.httpserver.transport.Exchange;
+import de.hanbei.httpserver.transport.ExchangeHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
-import static java.lang.Math.max;
+class MockHttpHandler implements ExchangeHandler {
 
-class MockHttpHandler implements HttpHandler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MockHttpHandler.class);
 
-    private Map<Method, Mapping<Response>> predefinedResponses;
-    private Map<Method, Mapping<RequestProcessor>> requestProcessorMapping;
-
-    private Response defaultResponse;
-    private boolean timeout;
+    private final AtomicReference<Routes> routes;
+    private final AtomicReference<ScheduledExecutorService> delays = new AtomicReference<ScheduledExecutorService>();
+    private final Executor senders = Dispatchers.threadPerRequest();
+    private final HungExchanges hung = new HungExchanges(senders);
+    private volatile boolean stopped;
+    private final ConcurrentMap<Status, Response> serverErrors = new ConcurrentHashMap<Status, Response>();
+    private final ThreadLocal<Mapping.Match<Stub>> matches = new ThreadLocal<Mapping.Match<Stub>>() {
+        @Override
+        protected Mapping.Match<Stub> initialValue() {
+            return new Mapping.Match<Stub>();
+        }
+    };
 
     public MockHttpHandler() {
-        requestProcessorMapping = new HashMap<Method, Mapping<RequestProcessor>>();
-        predefinedResponses = new HashMap<Method, Mapping<Response>>();
-        defaultResponse = Response.notFound().build();
+        routes = new AtomicReference<Routes>(Routes.build(Response.notFound().build(), false));
     }
 
     @Override
-    public void handle(HttpExchange httpExchange) throws IOException {
-        Method method = Method.valueOf(httpExchange.getRequestMethod());
-        URI requestURI = httpExchange.getRequestURI();
-
-        Response response = getResponse(requestURI, method);
+    public void handle(Exchange exchange) throws IOException {
+        Method method = Method.valueOf(exchange.getRequestMethod());
+        URI requestURI = exchange.getRequestURI();
 
-        RequestProcessor processor = getProcessor(method, requestURI);
-
-        if (processor != null) {
-            try {
-                Request request = portRequest(httpExchange);
-                response = processor.process(request);
-            } catch (Exception e) {
-                throw new ServerErrorException("Error in porting requests", e);
+        Routes current = routes.get();
+        Response response = current.getDefaultResponse();
+        Mapping.Match<Stub> match = matches.get();
+        boolean found = current.find(method, requestURI, match);
+        if (found) {
+            Stub stub = match.getValue();
+            ExchangeSource source = new ExchangeSource(exchange);
+            Request request = null;
+            RequestProcessor processor = stub.getProcessor();
+            Response predefined = stub.getResponse();
+            if (stub.hasCandidates()) {
+                request = portRequest(source, method, requestURI, match);
+                Stub.Candidate candidate = stub.select(request);
+                if (candidate != null) {
+                    processor = candidate.getProcessor();
+                    predefined = candidate.getResponse();
+                }
+            }
+            if (processor != null) {
+                try {
+                    if (request == null) {
+                        request = portRequest(source, method, requestURI, match);
+                    }
+                    response = processor.process(request);
+                } catch (Exception e) {
+                    throw new ServerErrorException("Error in porting requests", e);
+                }
+                // the processor may keep the request and read its body after the exchange is closed
+                source.retainBody();
+            } else if (predefined != null) {
+                response = predefined;
             }
         }
 
+        boolean scheduled = false;
         try {
-            if (!timeout) {
-                sendHeaders(httpExchange, response);
-                sendContent(httpExchange, response);
+            Hang hang = response.getHang() == null ? current.getHang() : response.getHang();
+            if (hang != null) {
+                hung.park(exchange, hang, scheduler());
+                scheduled = true;
+            } else if (!current.isTimeoutSet()) {
+                FaultPolicy faults = response.getFaults() == null ? current.getFaults() : response.getFaults();
+                Fault fault = faults == null ? null : faults.next();
+                if (fault != null) {
+                    switch (fault.getKind()) {
+                        case RESET:
+                        case GARBAGE_STATUS:
+                            exchange.abort(fault.getGarbage());
+                            return;
+                        case SERVER_ERROR:
+                            response = serverError(fault.getStatus());
+                            break;
+                        default:
+                            break;
+                    }
+                }
+                String acceptEncoding = exchange.getRequestHeader(Header.Fields.ACCEPT_ENCODING);
+                WireFormat wireFormat = response.getWireFormat();
+                if (response.getTemplate() != null) {
+                    wireFormat = wireFormat.render(new TemplateValues(exchange, requestURI, found ? match : null));
+                }
+                wireFormat = wireFormat.negotiate(acceptEncoding);
+                if (method == Method.GET) {
+                    wireFormat = wireFormat.conditional(exchange.getRequestHeader(Header.Fields.IF_NONE_MATCH),
+                            exchange.getRequestHeader(Header.Fields.IF_MODIFIED_SINCE));
+                    wireFormat = wireFormat.range(exchange.getRequestHeader(Header.Fields.RANGE),
+                            exchange.getRequestHeader(Header.Fields.IF_RANGE));
+                }
+                if (fault != null) {
+                    wireFormat = misframe(wireFormat, fault);
+                }
+                wireFormat = wireFormat.throttle(
+                        response.getThrottle() == null ? current.getThrottle() : response.getThrottle());
+                Delay delay = response.getDelay() == null ? current.getDelay() : response.getDelay();
+                long nanos = delay.nanos();
+                if (nanos > 0) {
+                    scheduled = schedule(exchange, wireFormat, nanos);
+                }
+                if (!scheduled) {
+                    exchange.sendResponse(wireFormat);
+                }
             }
         } catch (Exception e) {
             throw new ServerErrorException("Error sending the response", e);
         } finally {
-            httpExchange.close();
+            if (!scheduled) {
+                exchange.close();
+            }
         }
     }
 
-    private Request portRequest(HttpExchange httpExchange) throws IOException {
-        Request request = new Request();
-
-        Headers requestHeaders = httpExchange.getRequestHeaders();
-        Header header = request.getHeader();
-        for (String key : requestHeaders.keySet()) {
-            for (String value : requestHeaders.get(key)) {
-                header.addParameter(key, value);
-            }
+    /**
+     * Get the response a server error is injected with. There are only a few of them, so each is encoded once.
+     */
+    private Response serverError(Status status) {
+        Response error = serverErrors.get(status);
+        if (error == null) {
+            error = Response.status(status).build();
+            serverErrors.putIfAbsent(status, error);
         }
+        return error;
+    }
 
-        String encoding = requestHeaders.getFirst(Header.Fields.CONTENT_ENCODING);
-        if (encoding != null) {
-            request.getContent().setEncoding(encoding);
+    /**
+     * Break the framing of an answer for the faults that send a body of another length than declared.
+     */
+    private static WireFormat misframe(WireFormat wireFormat, Fault fault) {
+        switch (fault.getKind()) {
+            case TRUNCATE:
+                return wireFormat.truncate(fault.getBytes());
+            case WRONG_CONTENT_LENGTH:
+                return wireFormat.misstateLength(fault.getBytes());
+            default:
+                return wireFormat;
         }
-        request.getContent().setLanguage(requestHeaders.getFirst(Header.Fields.CONTENT_LANGUAGE));
-        request.getContent().setMd5(requestHeaders.getFirst(Header.Fields.CONTENT_MD5));
-        String contentType = requestHeaders.getFirst(Header.Fields.CONTENT_TYPE);
-        if (contentType != null) {
-            if (encoding != null) {
-                request.getContent().setMimetype(contentType + ";" + encoding);
-            } else {
-                request.getContent().setMimetype(contentType);
-            }
+    }
+
+    /**
+     * Send a response after a delay. The exchange is kept open without blocking the thread that handles it.
+     *
+     * @return false if the response cannot be scheduled because the server has been stopped.
+     */
+    private boolean schedule(final Exchange exchange, final WireFormat wireFormat, long nanos) {
+        ScheduledExecutorService scheduler = scheduler();
+        if (scheduler == null) {
+            return false;
         }
-        String contentRange = requestHeaders.getFirst(Header.Fields.CONTENT_RANGE);
-        if (contentRange != null) {
-            request.getContent().setRange(contentRange);
+        try {
+            final Runnable send = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        exchange.sendResponse(wireFormat);
+                    } catch (Exception e) {
+                        // the connection may have been closed while the response was waiting
+                        LOGGER.debug("Error sending a delayed response", e);
+                    } finally {
+                        exchange.close();
+                    }
+                }
+            };
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    // sending may block on a slow client, so the scheduler thread only hands it over
+                    execute(senders, send);
+                }
+            }, nanos, TimeUnit.NANOSECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
         }
-
-        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-        IOUtils.copy(httpExchange.getRequestBody(), bytes);
-        request.getContent().setContent(bytes.toByteArray());
-
-        return request;
     }
 
-    private void sendContent(HttpExchange httpExchange, Response defaultResponse) throws IOException {
-        httpExchange.getResponseBody().write(defaultResponse.getContent().getContent());
+    /**
+     * Run a task on an executor, or on the calling thread if the executor does not take it.
+     */
+    static void execute(Executor executor, Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
     }
 
-    private void sendHeaders(HttpExchange httpExchange, Response response) throws IOException {
-        int length = response.getContent().getLength();
-        int statusCode = response.getStatus().getStatusCode();
-
-        Headers responseHeaders = httpExchange.getResponseHeaders();
-        Header headers = response.getHeader();
-        for (String headerField : headers.getHeaderFields()) {
-            for (Header.Parameter value : headers.getHeaderParameter(headerField)) {
-                responseHeaders.add(headerField, value.toString());
+    /**
+     * Get the thread that times delayed responses and the end of hangs, starting it on first use.
+     *
+     * @return The scheduler or <code>null</code> if the handler is stopped, so no thread is started that nothing shuts
+     * down.
+     */
+    private ScheduledExecutorService scheduler() {
+        while (true) {
+            ScheduledExecutorService scheduler = delays.get();
+            if (scheduler != null) {
+                return scheduler;
+            }
+            if (stopped) {
+                return null;
+            }
+            ScheduledThreadPoolExecutor created = new ScheduledThreadPoolExecutor(1, Dispatchers.daemonThreads());
+            if (!delays.compareAndSet(null, created)) {
+                created.shutdown();
+            } else if (stopped && delays.compareAndSet(created, null)) {
+                // stop() ran before the thread was published and did not see it
+                created.shutdown();
             }
         }
-        addHeaderIfSet(responseHeaders, Header.Fields.CONTENT_ENCODING, response.getContent().getEncoding());
-        addHeaderIfSet(responseHeaders, Header.Fields.CONTENT_LANGUAGE, response.getContent().getLanguage());
-        addHeaderIfSet(responseHeaders, Header.Fields.CONTENT_MD5, response.getContent().getMd5());
-        addHeaderIfSet(responseHeaders, Header.Fields.CONTENT_TYPE, response.getContent().getComposedContentType());
-        addHeaderIfSet(responseHeaders, Header.Fields.CONTENT_RANGE, response.getContent().getRange());
-        httpExchange.sendResponseHeaders(statusCode, max(0, length));
     }
 
-    private void addHeaderIfSet(Headers responseHeaders, String name, String value) {
-        if(value != null) {
-            responseHeaders.add(name, value);
+    /**
+     * Accept delayed responses and hangs again after {@link #stop()}, for transports that can be started again.
+     */
+    void start() {
+        stopped = false;
+        hung.open();
+    }
+
+    /**
+     * Close all hanging connections and release the thread that sends delayed responses once the responses still
+     * waiting for their delay are sent. Until the handler is started again, responses are sent without delay.
+     */
+    void stop() {
+        stopped = true;
+        hung.close();
+        ScheduledExecutorService scheduler = delays.getAndSet(null);
+        if (scheduler != null) {
+            scheduler.shutdown();
         }
     }
 
-    private Response getResponse(URI requestUri1, Method method) {
-        String requestUri = trimSlashes(requestUri1);
-        Mapping<Response> mapping = predefinedResponses.get(method);
-        if (mapping == null) {
-            return defaultResponse;
+    private Request portRequest(ExchangeSource source, Method method, URI requestURI, Mapping.Match<Stub> match) {
+        Request request = new Request(method, requestURI, source);
+        request.setPathVariables(match.getVariables());
+        return request;
+    }
+
+    private static Routes register(Routes current, Method method, String pattern, RequestMatcher matcher,
+                                   Response response, RequestProcessor processor) {
+        Stub stub = current.getStub(method, pattern);
+        if (stub == null) {
+            stub = new Stub(null, null);
         }
-        Response response = mapping.get(requestUri);
-        if (response == null) {
-            return defaultResponse;
+        if (matcher != null) {
+            stub = stub.withCandidate(matcher, response, processor);
+        } else if (processor != null) {
+            stub = stub.withProcessor(processor);
+        } else {
+            stub = stub.withResponse(response);
         }
-        return response;
+        return current.withStub(method, pattern, stub);
     }
 
     public Response getDefaultResponse() {
-        return defaultResponse;
+        return routes.get().getDefaultResponse();
     }
 
-    public void setDefaultResponse(Response defaultResponse) {
-        this.defaultResponse = defaultResponse;
+    public synchronized void setDefaultResponse(Response defaultResponse) {
+        routes.set(routes.get().withDefaultResponse(defaultResponse));
     }
 
     /**
@@ -157,27 +310,46 @@ class MockHttpHandler implements HttpHandler {
      * @param response The response that should be sent on a request on the specified uri with the specified method.
      */
     public void addResponse(Method method, URI uri, Response response) {
-        Mapping<Response> mapping = predefinedResponses.get(method);
-        if (mapping == null) {
-            mapping = new Mapping<Response>();
-            predefinedResponses.put(method, mapping);
-        }
-        mapping.add(trimSlashes(uri), response);
+        addResponse(method, uri.toString(), response);
     }
 
-    private RequestProcessor getProcessor(Method method, URI requestUriP) {
-        String requestUri = trimSlashes(requestUriP);
-        Mapping<RequestProcessor> mapping = requestProcessorMapping.get(method);
-        RequestProcessor processor = null;
-        if (mapping != null) {
-            processor = mapping.get(requestUri);
-        }
-        return processor;
+    /**
+     * Add a specified response for a certain path pattern and method. The pattern has to be relative to the server
+     * url and may contain variables like <code>{id}</code> and the wildcards <code>*</code> and <code>**</code>.
+     *
+     * @param method   The method the response should be sent on.
+     * @param pattern  The path pattern of the requests to answer.
+     * @param response The response that should be sent on a request matching the pattern with the specified method.
+     */
+    public synchronized void addResponse(Method method, String pattern, Response response) {
+        routes.set(register(routes.get(), method, pattern, null, response, null));
     }
 
-    private String trimSlashes(URI uri) {
-        String uriString = uri.toString();
-        return uriString.replaceAll("^/|/$", "");
+    /**
+     * Add a specified response for a certain path pattern and method that is only sent on requests matching a
+     * {@link RequestMatcher}. Requests not matching any matcher get the response added without matcher.
+     *
+     * @param method   The method the response should be sent on.
+     * @param pattern  The path pattern of the requests to answer.
+     * @param matcher  The matcher the request has to fulfill.
+     * @param response The response that should be sent on a matching request.
+     */
+    public synchronized void addResponse(Method method, String pattern, RequestMatcher matcher, Response response) {
+        routes.set(register(routes.get(), method, pattern, matcher, response, null));
+    }
+
+    /**
+     * Add specified responses for several path patterns at once. Requests see either none or all of them.
+     *
+     * @param method    The method the responses should be sent on.
+     * @param responses The responses by the path pattern of the requests to answer.
+     */
+    public synchronized void addResponses(Method method, Map<String, Response> responses) {
+        Routes next = routes.get();
+        for (Map.Entry<String, Response> response : responses.entrySet()) {
+            next = register(next, method, response.getKey(), null, response.getValue(), null);
+        }
+        routes.set(next);
     }
 
     /**
@@ -185,8 +357,102 @@ class MockHttpHandler implements HttpHandler {
      *
      * @param shouldTimeout true if the server should timeout, false otherwise.
      */
-    public void setTimeout(boolean shouldTimeout) {
-        timeout = shouldTimeout;
+    public synchronized void setTimeout(boolean shouldTimeout) {
+        routes.set(routes.get().withTimeout(shouldTimeout));
+    }
+
+    /**
+     * Get the delay of all responses that do not have a delay of their own.
+     *
+     * @return The delay of the server.
+     */
+    public Delay getDelay() {
+        return routes.get().getDelay();
+    }
+
+    /**
+     * Delay all responses that do not have a delay of their own, see
+     * {@link de.hanbei.httpserver.response.ResponseBuilder#delay(Delay)}.
+     *
+     * @param delay The distribution the delay of each request is drawn from.
+     */
+    public synchronized void setDelay(Delay delay) {
+        if (delay == null) {
+            throw new IllegalArgumentException("The delay must not be null, use Delay.none()");
+        }
+        routes.set(routes.get().withDelay(delay));
+    }
+
+    /**
+     * Get the bandwidth limit of all responses that do not have a limit of their own.
+     *
+     * @return The throttle of the server or <code>null</code> if responses are sent at full speed.
+     */
+    public Throttle getThrottle() {
+        return routes.get().getThrottle();
+    }
+
+    /**
+     * Limit the bandwidth of each connection for all responses that do not have a limit of their own.
+     *
+     * @param throttle The bandwidth limit or <code>null</code> to send at full speed.
+     */
+    public synchronized void setThrottle(Throttle throttle) {
+        routes.set(routes.get().withThrottle(throttle));
+    }
+
+    /**
+     * Get the faults injected into all responses that do not have faults of their own.
+     *
+     * @return The fault policy of the server or <code>null</code> if no faults are injected.
+     */
+    public FaultPolicy getFaults() {
+        return routes.get().getFaults();
+    }
+
+    /**
+     * Inject faults into all responses that do not have faults of their own, see
+     * {@link de.hanbei.httpserver.response.ResponseBuilder#faults(FaultPolicy)}.
+     *
+     * @param faults The fault policy or <code>null</code> to inject no faults.
+     */
+    public synchronized void setFaults(FaultPolicy faults) {
+        routes.set(routes.get().withFaults(faults));
+    }
+
+    /**
+     * Get how the server hangs on all responses that do not have a hang of their own.
+     *
+     * @return The hang of the server or <code>null</code> if it answers.
+     */
+    public Hang getHang() {
+        return routes.get().getHang();
+    }
+
+    /**
+     * Hang on all requests whose response does not have a hang of its own, see
+     * {@link de.hanbei.httpserver.response.ResponseBuilder#hang(Hang)}.
+     *
+     * @param hang The hang or <code>null</code> to answer.
+     */
+    public synchronized void setHang(Hang hang) {
+        routes.set(routes.get().withHang(hang));
+    }
+
+    /**
+     * Get the number of connections the server currently hangs on.
+     *
+     * @return The number of open connections without an answer.
+     */
+    public int getHangingCount() {
+        return hung.size();
+    }
+
+    /**
+     * End all current hangs now by closing their connections.
+     */
+    public void releaseHanging() {
+        hung.releaseAll();
     }
 
     /**
@@ -195,7 +461,7 @@ class MockHttpHandler implements HttpHandler {
      * @return True if the server is set to timeout.
      */
     public boolean isTimeoutSet() {
-        return timeout;
+        return routes.get().isTimeoutSet();
     }
 
     /**
@@ -207,11 +473,117 @@ class MockHttpHandler implements HttpHandler {
      * @param processor The {@link RequestProcessor} that processes the request body.
      */
     public void addRequestProcessor(Method method, URI uri, RequestProcessor processor) {
-        Mapping<RequestProcessor> mapping = requestProcessorMapping.get(method);
-        if (mapping == null) {
-            mapping = new Mapping<RequestProcessor>();
-            requestProcessorMapping.put(method, mapping);
+        addRequestProcessor(method, uri.toString(), processor);
+    }
+
+    /**
+     * Add a {@link de.hanbei.httpserver.RequestProcessor} for a certain path pattern and a method. The variables
+     * captured by the pattern are available with {@link Request#getPathVariable(String)}.
+     *
+     * @param method    The method the response should be sent on.
+     * @param pattern   The path pattern of the requests to process, see {@link #addResponse(Method, String, Response)}.
+     * @param processor The {@link RequestProcessor} that processes the request body.
+     */
+    public synchronized void addRequestProcessor(Method method, String pattern, RequestProcessor processor) {
+        routes.set(register(routes.get(), method, pattern, null, null, processor));
+    }
+
+    /**
+     * Add a {@link de.hanbei.httpserver.RequestProcessor} for a certain path pattern and a method that only processes
+     * requests matching a {@link RequestMatcher}.
+     *
+     * @param method    The method the response should be sent on.
+     * @param pattern   The path pattern of the requests to process.
+     * @param matcher   The matcher the request has to fulfill.
+     * @param processor The {@link RequestProcessor} that processes the request body.
+     */
+    public synchronized void addRequestProcessor(Method method, String pattern, RequestMatcher matcher,
+                                                 RequestProcessor processor) {
+        routes.set(register(routes.get(), method, pattern, matcher, null, processor));
+    }
+
+    /**
+     * The exchange a ported {@link Request} reads its fields from when they are first asked for.
+     */
+    private static final class ExchangeSource implements Request.Source {
+
+        private final Exchange exchange;
+        private boolean bodyRead;
+
+        ExchangeSource(Exchange exchange) {
+            this.exchange = exchange;
+        }
+
+        @Override
+        public String getProtocol() {
+            return exchange.getProtocol();
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaders() {
+            return exchange.getRequestHeaders();
+        }
+
+        @Override
+        public ByteBuffer getBody() throws IOException {
+            bodyRead = true;
+            return exchange.getRequestBuffer();
+        }
+
+        /**
+         * Keep the body of the exchange available after it is closed, unless the request has read it already. Only
+         * transports that do not hold the body in memory read it here.
+         */
+        void retainBody() {
+            if (bodyRead) {
+                return;
+            }
+            try {
+                exchange.getRequestBuffer();
+            } catch (IOException e) {
+                // the response is still valid, only a later read of the body fails
+                LOGGER.debug("Could not read the body of a request", e);
+            } catch (ContentException e) {
+                LOGGER.debug("Could not read the body of a request", e);
+            }
+        }
+    }
+
+    /**
+     * The values of a request a {@link ResponseTemplate} is rendered with, looked up directly in the exchange without
+     * porting the request.
+     */
+    private static final class TemplateValues implements ResponseTemplate.Values {
+
+        private final Exchange exchange;
+        private final URI requestURI;
+        private final Mapping.Match<Stub> match;
+
+        TemplateValues(Exchange exchange, URI requestURI, Mapping.Match<Stub> match) {
+            this.exchange = exchange;
+            this.requestURI = requestURI;
+            this.match = match;
+        }
+
+        @Override
+        public String get(ResponseTemplate.Source source, String name) {
+            switch (source) {
+                case PATH:
+                    return match == null ? null : match.getVariable(name);
+                case QUERY:
+                    return queryParameter(name);
+                default:
+                    return exchange.getRequestHeader(name);
+            }
+        }
+
+        private String queryParameter(String name) {
+            for (QueryParameter parameter : Request.parseQuery(requestURI.getRawQuery())) {
+                if (parameter.getName().equals(name)) {
+                    return parameter.getValue();
+                }
+            }
+            return null;
         }
-        mapping.add(trimSlashes(uri), processor);
     }
 }
@@ -13,25 +13,32 @@ See the License for the specific language governing permissions and
 limitations under the License. */
 package de.hanbei.httpserver;
 
-import com.sun.net.httpserver.HttpServer;
+import de.hanbei.httpserver.common.Delay;
+import de.hanbei.httpserver.common.FaultPolicy;
+import de.hanbei.httpserver.common.Hang;
 import de.hanbei.httpserver.common.Method;
 import de.hanbei.httpserver.common.Status;
+import de.hanbei.httpserver.common.Throttle;
 import de.hanbei.httpserver.exceptions.ServerErrorException;
 import de.hanbei.httpserver.request.Request;
+import de.hanbei.httpserver.request.RequestMatcher;
 import de.hanbei.httpserver.response.Response;
+import de.hanbei.httpserver.transport.SunHttpTransport;
+import de.hanbei.httpserver.transport.Transport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.Executor;
 
 public class MockHttpServer {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MockHttpServer.class);
-    private final int port;
     private MockHttpHandler httpHandler;
-    private HttpServer server;
+    private Transport transport;
     private boolean running;
 
     public MockHttpServer() {
@@ -39,18 +46,42 @@ public class MockHttpServer {
     }
 
     /**
-     * Create a new MockHttpServer running on a specific port.
+     * Create a new MockHttpServer running on a specific port. All requests are handled one after the other on a single
+     * dispatcher thread.
      *
      * @param port The port the server should run on.
      */
     public MockHttpServer(int port) {
-        this.port = port;
+        this(port, new SunHttpTransport());
+    }
+
+    /**
+     * Create a new MockHttpServer running on a specific port that handles requests on an executor. Use this if
+     * clients send requests in parallel and a slow {@link RequestProcessor} should not stall the other clients. See
+     * {@link Dispatchers} for predefined executors.
+     *
+     * @param port     The port the server should run on.
+     * @param executor The executor requests are handled on or <code>null</code> to handle them on a single
+     *                 dispatcher thread.
+     */
+    public MockHttpServer(int port, Executor executor) {
+        this(port, new SunHttpTransport(executor));
+    }
+
+    /**
+     * Create a new MockHttpServer running on a specific port that receives requests with a specific transport, e.g.
+     * the {@link de.hanbei.httpserver.transport.NioTransport}.
+     *
+     * @param port      The port the server should run on. Use 0 to run on any free port.
+     * @param transport The transport that receives the requests.
+     */
+    public MockHttpServer(int port, Transport transport) {
         running = false;
 
         try {
             httpHandler = new MockHttpHandler();
-            server = HttpServer.create(new InetSocketAddress(this.port), 100);
-            server.createContext("/", httpHandler);
+            this.transport = transport;
+            transport.bind(new InetSocketAddress(port), httpHandler);
         } catch (IOException e) {
             throw new ServerErrorException("Could not start the server.", e);
         }
@@ -75,10 +106,14 @@ public class MockHttpServer {
     }
 
     /**
-     * Start the server.
+     * Start the server. A stopped server can only be started again if its transport allows it, the JDK transport and
+     * the {@link de.hanbei.httpserver.transport.NioTransport} do not.
+     *
+     * @throws IllegalStateException If the transport can not be started again.
      */
     public void start() {
-        server.start();
+        httpHandler.start();
+        transport.start();
         running = true;
     }
 
@@ -86,10 +121,51 @@ public class MockHttpServer {
      * Stop the server.
      */
     public void stop() {
-        server.stop(1);
+        // hanging connections are closed first, so the transport does not wait for them
+        httpHandler.stop();
+        transport.stop();
         running = false;
     }
 
+    /**
+     * Get how the server hangs on all responses that do not have a hang of their own.
+     *
+     * @return The hang of the server or <code>null</code> if it answers.
+     */
+    public Hang getHang() {
+        return httpHandler.getHang();
+    }
+
+    /**
+     * Hang on all requests whose response does not have a hang of its own: the connection is kept open without an
+     * answer and then closed or reset, as a stuck upstream does. Hanging connections are held by a registry, not by
+     * threads, so tens of thousands of them can be open to test client timeouts and pool exhaustion. Unlike
+     * {@link #setTimeout(boolean)}, which closes the connection at once, this leaves the client waiting.
+     *
+     * @param hang The hang, e.g. <code>Hang.of(30, TimeUnit.SECONDS)</code> or <code>Hang.forever()</code>, or
+     *             <code>null</code> to answer.
+     */
+    public void setHang(Hang hang) {
+        httpHandler.setHang(hang);
+    }
+
+    /**
+     * Get the number of connections the server currently hangs on.
+     *
+     * @return The number of open connections without an answer.
+     */
+    public int getHangingCount() {
+        return httpHandler.getHangingCount();
+    }
+
+    /**
+     * End all current hangs now by closing their connections, e.g. once a test lets the stuck upstream recover.
+     * Connections that hang forever are only closed this way or by stopping the server.
+     */
+    public void releaseHanging() {
+        httpHandler.releaseHanging();
+    }
+
     public boolean isTimeoutSet() {
         return httpHandler.isTimeoutSet();
     }
@@ -98,13 +174,74 @@ public class MockHttpServer {
         httpHandler.setTimeout(shouldTimeout);
     }
 
+    /**
+     * Get the delay of all responses that do not have a delay of their own.
+     *
+     * @return The delay of the server, {@link Delay#none()} unless set.
+     */
+    public Delay getDelay() {
+        return httpHandler.getDelay();
+    }
+
+    /**
+     * Delay all responses that do not have a delay of their own. The server waits without blocking any thread, so
+     * thousands of delayed responses can be pending at the same time.
+     *
+     * @param delay The distribution the delay of each request is drawn from, e.g.
+     *              <code>Delay.logNormal(50, 0.5, TimeUnit.MILLISECONDS)</code>.
+     */
+    public void setDelay(Delay delay) {
+        httpHandler.setDelay(delay);
+    }
+
+    /**
+     * Get the bandwidth limit of all responses that do not have a limit of their own.
+     *
+     * @return The throttle of the server or <code>null</code> if responses are sent at full speed.
+     */
+    public Throttle getThrottle() {
+        return httpHandler.getThrottle();
+    }
+
+    /**
+     * Limit the bandwidth each connection gets for all responses that do not have a limit of their own. Bodies are
+     * paced by a shared scheduler, so hundreds of throttled downloads can run at the same time.
+     *
+     * @param throttle The bandwidth limit, e.g. <code>Throttle.kilobitsPerSecond(64)</code>, or <code>null</code> to
+     *                 send at full speed.
+     */
+    public void setThrottle(Throttle throttle) {
+        httpHandler.setThrottle(throttle);
+    }
+
+    /**
+     * Get the faults injected into all responses that do not have faults of their own.
+     *
+     * @return The fault policy of the server or <code>null</code> if no faults are injected.
+     */
+    public FaultPolicy getFaults() {
+        return httpHandler.getFaults();
+    }
+
+    /**
+     * Inject faults into the answers of all responses that do not have faults of their own: connection resets,
+     * truncated bodies, wrong lengths, garbage and server errors. Set a seed on the policy to get the same faults in
+     * every run.
+     *
+     * @param faults The faults, e.g. <code>FaultPolicy.none().reset(1).truncate(2, 100)</code>, or <code>null</code>
+     *               to answer every request as stubbed.
+     */
+    public void setFaults(FaultPolicy faults) {
+        httpHandler.setFaults(faults);
+    }
+
     /**
      * Get the port the server is running on.
      *
      * @return The port the server is running on.
      */
     public int getPort() {
-        return this.port;
+        return transport.getPort();
     }
 
     /**
@@ -150,7 +287,71 @@ public class MockHttpServer {
         httpHandler.addResponse(method, uri, response);
     }
 
+    /**
+     * Add a specified response for all requests matching a path pattern and a method. The pattern has to be relative
+     * to the server url. Its segments may be variables like <code>{id}</code>, <code>*</code> to match any single
+     * segment or <code>**</code> to match any number of segments. Literal segments win over variables and wildcards.
+     *
+     * @param method   The method the response should be sent on.
+     * @param pattern  The path pattern, e.g. <code>/users/{id}/orders/*</code>.
+     * @param response The response that should be sent on a request matching the pattern with the specified method.
+     */
+    public void addResponse(Method method, String pattern, Response response) {
+        httpHandler.addResponse(method, pattern, response);
+    }
+
+    /**
+     * Add a specified response for all requests matching a path pattern, a method and a {@link RequestMatcher}, e.g.
+     * <code>RequestMatcher.header("X-Tenant", "acme").query("page", "2").build()</code>. If several matchers match a
+     * request the one with the most conditions wins. Requests matching none of them get the response added without
+     * matcher.
+     *
+     * @param method   The method the response should be sent on.
+     * @param pattern  The path pattern, see {@link #addResponse(Method, String, Response)}.
+     * @param matcher  The matcher the request has to fulfill.
+     * @param response The response that should be sent on a matching request.
+     */
+    public void addResponse(Method method, String pattern, RequestMatcher matcher, Response response) {
+        httpHandler.addResponse(method, pattern, matcher, response);
+    }
+
+    /**
+     * Add specified responses for several path patterns and a method at once. Prefer this over single calls to
+     * {@link #addResponse(Method, String, Response)} when stubbing many uris, as the routing is rebuilt only once.
+     *
+     * @param method    The method the responses should be sent on.
+     * @param responses The responses by path pattern, see {@link #addResponse(Method, String, Response)}.
+     */
+    public void addResponses(Method method, Map<String, Response> responses) {
+        httpHandler.addResponses(method, responses);
+    }
+
     public void addRequestProcessor(Method method, URI uri, RequestProcessor processor) {
         httpHandler.addRequestProcessor(method, uri, processor);
     }
+
+    /**
+     * Add a {@link RequestProcessor} for all requests matching a path pattern and a method. The variables captured by
+     * the pattern are available with {@link Request#getPathVariable(String)}.
+     *
+     * @param method    The method the request should be processed on.
+     * @param pattern   The path pattern, see {@link #addResponse(Method, String, Response)}.
+     * @param processor The processor creating the response.
+     */
+    public void addRequestProcessor(Method method, String pattern, RequestProcessor processor) {
+        httpHandler.addRequestProcessor(method, pattern, processor);
+    }
+
+    /**
+     * Add a {@link RequestProcessor} for all requests matching a path pattern, a method and a {@link RequestMatcher}.
+     *
+     * @param method    The method the request should be processed on.
+     * @param pattern   The path pattern, see {@link #addResponse(Method, String, Response)}.
+     * @param matcher   The matcher the request has to fulfill.
+     * @param processor The processor creating the response.
+     */
+    public void addRequestProcessor(Method method, String pattern, RequestMatcher matcher,
+                                    RequestProcessor processor) {
+        httpHandler.addRequestProcessor(method, pattern, matcher, processor);
+    }
 }
@@ -0,0 +1,153 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver;
+
+import de.hanbei.httpserver.common.Delay;
+import de.hanbei.httpserver.common.FaultPolicy;
+import de.hanbei.httpserver.common.Hang;
+import de.hanbei.httpserver.common.Method;
+import de.hanbei.httpserver.common.Throttle;
+import de.hanbei.httpserver.response.Response;
+
+import java.net.URI;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of everything that decides how a request is answered: the stubs of each method, the default
+ * response, the timeout flag, the hang, the delay, the throttle and the faults. A request reads one snapshot and is
+ * answered from it, even if the server is reconfigured while the request is handled. Changes create a new snapshot.
+ */
+final class Routes {
+
+    private final Map<Method, Mapping<Stub>> stubs;
+    private final Response defaultResponse;
+    private final boolean timeout;
+    private final Delay delay;
+    private final Throttle throttle;
+    private final FaultPolicy faults;
+    private final Hang hang;
+
+    private Routes(Map<Method, Mapping<Stub>> stubs, Response defaultResponse, boolean timeout, Delay delay,
+                   Throttle throttle, FaultPolicy faults, Hang hang) {
+        this.stubs = stubs;
+        this.defaultResponse = defaultResponse;
+        this.timeout = timeout;
+        this.delay = delay;
+        this.throttle = throttle;
+        this.faults = faults;
+        this.hang = hang;
+    }
+
+    /**
+     * Build the routing without any stubs.
+     *
+     * @param defaultResponse The response on requests no stub is mapped to.
+     * @param timeout         true if no request should be answered.
+     * @return The new snapshot.
+     */
+    static Routes build(Response defaultResponse, boolean timeout) {
+        return new Routes(new EnumMap<Method, Mapping<Stub>>(Method.class), defaultResponse, timeout, Delay.none(),
+                null, null, null);
+    }
+
+    /**
+     * Get the stub registered for exactly this pattern.
+     *
+     * @param method  The method of the stub.
+     * @param pattern The path pattern of the stub.
+     * @return The stub or <code>null</code> if none is registered for the pattern.
+     */
+    Stub getStub(Method method, String pattern) {
+        Mapping<Stub> mapping = stubs.get(method);
+        return mapping == null ? null : mapping.getMapped(pattern);
+    }
+
+    /**
+     * Register a stub, keeping everything else. Only the nodes on the path of the pattern are copied, the routing of
+     * the other patterns and methods is shared with this snapshot.
+     *
+     * @param method  The method of the stub.
+     * @param pattern The path pattern of the stub.
+     * @param stub    The stub, replacing the one registered for the pattern.
+     * @return The new snapshot.
+     */
+    Routes withStub(Method method, String pattern, Stub stub) {
+        Map<Method, Mapping<Stub>> changed = new EnumMap<Method, Mapping<Stub>>(stubs);
+        Mapping<Stub> mapping = stubs.get(method);
+        changed.put(method, (mapping == null ? new Mapping<Stub>() : mapping).with(pattern, stub));
+        return new Routes(changed, defaultResponse, timeout, delay, throttle, faults, hang);
+    }
+
+    /**
+     * Find the stub for a request.
+     *
+     * @param method     The method of the request.
+     * @param requestUri The uri of the request.
+     * @param match      A match that is filled with the result.
+     * @return true if a stub is mapped to the request.
+     */
+    boolean find(Method method, URI requestUri, Mapping.Match<Stub> match) {
+        Mapping<Stub> mapping = stubs.get(method);
+        return mapping != null && mapping.lookup(requestUri.getRawPath(), requestUri.getRawQuery(), match);
+    }
+
+    Response getDefaultResponse() {
+        return defaultResponse;
+    }
+
+    boolean isTimeoutSet() {
+        return timeout;
+    }
+
+    Delay getDelay() {
+        return delay;
+    }
+
+    Routes withDefaultResponse(Response response) {
+        return new Routes(stubs, response, timeout, delay, throttle, faults, hang);
+    }
+
+    Routes withTimeout(boolean shouldTimeout) {
+        return new Routes(stubs, defaultResponse, shouldTimeout, delay, throttle, faults, hang);
+    }
+
+    Throttle getThrottle() {
+        return throttle;
+    }
+
+    Routes withThrottle(Throttle newThrottle) {
+        return new Routes(stubs, defaultResponse, timeout, delay, newThrottle, faults, hang);
+    }
+
+    Routes withDelay(Delay newDelay) {
+        return new Routes(stubs, defaultResponse, timeout, newDelay, throttle, faults, hang);
+    }
+
+    FaultPolicy getFaults() {
+        return faults;
+    }
+
+    Routes withFaults(FaultPolicy newFaults) {
+        return new Routes(stubs, defaultResponse, timeout, delay, throttle, newFaults, hang);
+    }
+
+    Hang getHang() {
+        return hang;
+    }
+
+    Routes withHang(Hang newHang) {
+        return new Routes(stubs, defaultResponse, timeout, delay, throttle, faults, newHang);
+    }
+}
@@ -0,0 +1,187 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver;
+
+/**
+ * Immutable hash table from path segments to values. Lookups take the bounds of a segment inside a longer string, so a
+ * request path can be looked up segment by segment without creating a string per segment.
+ * <p/>
+ * The table is a hash array mapped trie: each level consumes five bits of the hash and only holds slots for the bits
+ * in use. {@link #with(String, Object)} copies the few levels on the way to the changed entry and shares everything
+ * else, so adding a segment to a table of any size costs about the same and the old table stays valid.
+ */
+final class SegmentTable<T> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final SegmentTable<Object> EMPTY = new SegmentTable<Object>(new Branch(0, new Object[0]));
+
+    private final Branch root;
+
+    private SegmentTable(Branch root) {
+        this.root = root;
+    }
+
+    /**
+     * Get the empty table.
+     *
+     * @return A table without segments.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> SegmentTable<T> empty() {
+        return (SegmentTable<T>) EMPTY;
+    }
+
+    /**
+     * Get the value for a segment.
+     *
+     * @param path  The string containing the segment.
+     * @param start The index of the first character of the segment.
+     * @param end   The index after the last character of the segment.
+     * @return The value or <code>null</code> if the segment is not in the table.
+     */
+    @SuppressWarnings("unchecked")
+    T get(String path, int start, int end) {
+        int hash = hash(path, start, end);
+        int length = end - start;
+        Branch branch = root;
+        for (int shift = 0; ; shift += BITS) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((branch.bitmap & bit) == 0) {
+                return null;
+            }
+            Object slot = branch.slots[Integer.bitCount(branch.bitmap & (bit - 1))];
+            if (slot instanceof Branch) {
+                branch = (Branch) slot;
+                continue;
+            }
+            for (Entry entry = (Entry) slot; entry != null; entry = entry.next) {
+                if (entry.hash == hash && entry.key.length() == length
+                        && entry.key.regionMatches(0, path, start, length)) {
+                    return (T) entry.value;
+                }
+            }
+            return null;
+        }
+    }
+
+    T get(String segment) {
+        return get(segment, 0, segment.length());
+    }
+
+    /**
+     * Get a table with a segment added or its value replaced. This table is not changed.
+     *
+     * @param segment The segment.
+     * @param value   The value of the segment.
+     * @return The new table.
+     */
+    SegmentTable<T> with(String segment, T value) {
+        return new SegmentTable<T>(put(root, 0, new Entry(segment, segment.hashCode(), value, null)));
+    }
+
+    private static Branch put(Branch branch, int shift, Entry added) {
+        int bit = 1 << ((added.hash >>> shift) & MASK);
+        int index = Integer.bitCount(branch.bitmap & (bit - 1));
+        if ((branch.bitmap & bit) == 0) {
+            Object[] slots = new Object[branch.slots.length + 1];
+            System.arraycopy(branch.slots, 0, slots, 0, index);
+            slots[index] = added;
+            System.arraycopy(branch.slots, index, slots, index + 1, branch.slots.length - index);
+            return new Branch(branch.bitmap | bit, slots);
+        }
+        Object slot = branch.slots[index];
+        Object replaced;
+        if (slot instanceof Branch) {
+            replaced = put((Branch) slot, shift + BITS, added);
+        } else if (((Entry) slot).hash == added.hash) {
+            replaced = replace((Entry) slot, added);
+        } else {
+            replaced = split((Entry) slot, added, shift + BITS);
+        }
+        Object[] slots = branch.slots.clone();
+        slots[index] = replaced;
+        return new Branch(branch.bitmap, slots);
+    }
+
+    /**
+     * Replace the entry with the key of an added entry in a chain of entries with the same hash, or add it.
+     */
+    private static Entry replace(Entry chain, Entry added) {
+        if (chain == null) {
+            return added;
+        }
+        if (chain.key.equals(added.key)) {
+            return new Entry(added.key, added.hash, added.value, chain.next);
+        }
+        return new Entry(chain.key, chain.hash, chain.value, replace(chain.next, added));
+    }
+
+    /**
+     * Put two entries with different hashes below each other on the levels their hashes share.
+     */
+    private static Branch split(Entry existing, Entry added, int shift) {
+        int existingIndex = (existing.hash >>> shift) & MASK;
+        int addedIndex = (added.hash >>> shift) & MASK;
+        if (existingIndex == addedIndex) {
+            return new Branch(1 << existingIndex, new Object[]{split(existing, added, shift + BITS)});
+        }
+        Object[] slots = existingIndex < addedIndex ? new Object[]{existing, added} : new Object[]{added, existing};
+        return new Branch((1 << existingIndex) | (1 << addedIndex), slots);
+    }
+
+    /**
+     * The same hash {@link String#hashCode()} computes for the segment.
+     */
+    private static int hash(String path, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + path.charAt(i);
+        }
+        return hash;
+    }
+
+    /**
+     * A level of the trie. Holds an entry chain or a deeper branch for each bit set in the bitmap.
+     */
+    private static final class Branch {
+
+        private final int bitmap;
+        private final Object[] slots;
+
+        Branch(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+    }
+
+    /**
+     * A segment and its value, linked to the other segments with the same hash.
+     */
+    private static final class Entry {
+
+        private final String key;
+        private final int hash;
+        private final Object value;
+        private final Entry next;
+
+        Entry(String key, int hash, Object value, Entry next) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+            this.next = next;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver;
+
+import de.hanbei.httpserver.request.Request;
+import de.hanbei.httpserver.request.RequestMatcher;
+import de.hanbei.httpserver.response.Response;
+
+/**
+ * What is mapped to a uri: a predefined response, a request processor or both, and any number of them guarded by a
+ * {@link RequestMatcher}. If a response and a processor are set the processor is asked for the response. Stubs are
+ * immutable, so they can be shared between routing snapshots.
+ */
+final class Stub {
+
+    private final Response response;
+    private final RequestProcessor processor;
+    private final MatcherIndex index;
+
+    Stub(Response response, RequestProcessor processor) {
+        this(response, processor, null);
+    }
+
+    private Stub(Response response, RequestProcessor processor, MatcherIndex index) {
+        this.response = response;
+        this.processor = processor;
+        this.index = index;
+    }
+
+    public Response getResponse() {
+        return response;
+    }
+
+    public RequestProcessor getProcessor() {
+        return processor;
+    }
+
+    /**
+     * Are there responses or processors that depend on a {@link RequestMatcher}.
+     *
+     * @return true if the request has to be inspected to choose the response.
+     */
+    public boolean hasCandidates() {
+        return index != null;
+    }
+
+    /**
+     * Choose the guarded response or processor for a request. If several matchers match, the one with the most
+     * conditions wins and among equally specific ones the one added last.
+     *
+     * @param request The request.
+     * @return The candidate whose matcher matches or <code>null</code>.
+     */
+    public Candidate select(Request request) {
+        return index == null ? null : index.select(request);
+    }
+
+    Stub withResponse(Response newResponse) {
+        return new Stub(newResponse, processor, index);
+    }
+
+    Stub withProcessor(RequestProcessor newProcessor) {
+        return new Stub(response, newProcessor, index);
+    }
+
+    Stub withCandidate(RequestMatcher matcher, Response newResponse, RequestProcessor newProcessor) {
+        MatcherIndex current = index == null ? MatcherIndex.EMPTY : index;
+        return new Stub(response, processor, current.with(matcher, newResponse, newProcessor));
+    }
+
+    /**
+     * A response or processor that is only used for requests matching a {@link RequestMatcher}.
+     */
+    static final class Candidate {
+
+        private final RequestMatcher matcher;
+        private final Response response;
+        private final RequestProcessor processor;
+        private final int order;
+
+        Candidate(RequestMatcher matcher, Response response, RequestProcessor processor, int order) {
+            this.matcher = matcher;
+            this.response = response;
+            this.processor = processor;
+            this.order = order;
+        }
+
+        public RequestMatcher getMatcher() {
+            return matcher;
+        }
+
+        public Response getResponse() {
+            return response;
+        }
+
+        public RequestProcessor getProcessor() {
+            return processor;
+        }
+
+        int getOrder() {
+            return order;
+        }
+
+        boolean isMoreSpecificThan(Candidate other) {
+            int conditions = matcher.getConditions().size();
+            int otherConditions = other.matcher.getConditions().size();
+            return conditions > otherConditions || conditions == otherConditions && order > other.order;
+        }
+    }
+}
@@ -0,0 +1,555 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.common;
+
+import de.hanbei.httpserver.exceptions.ContentException;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The bytes of a {@link Content}. A body is immutable and may be shared by any number of responses and threads. Its
+ * bytes are either held in a buffer or loaded on first use, from a file or a classpath resource, so fixtures that are
+ * never requested are never read.
+ * <p/>
+ * Streamed bodies are never held in memory as a whole. They are read chunk by chunk from a {@link ChunkSource} while
+ * they are sent, so they may be longer than 2 GB or not know their length in advance. Bodies of unknown length are
+ * sent with <code>Transfer-Encoding: chunked</code>.
+ */
+public abstract class Body {
+
+    private static final Body EMPTY = new BufferBody(ByteBuffer.allocate(0));
+    private static final int STREAM_BUFFER_SIZE = 8192;
+    private static final long MAX_MAPPED_REGION = 64L * 1024 * 1024;
+
+    Body() {
+        // only the subclasses in this package
+    }
+
+    /**
+     * Get the empty body.
+     *
+     * @return A body without bytes.
+     */
+    public static Body empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Create a body of the remaining bytes of a buffer without copying them. The bytes must not be changed afterwards.
+     *
+     * @param buffer The bytes of the body.
+     * @return The body.
+     */
+    public static Body of(ByteBuffer buffer) {
+        return new BufferBody(buffer);
+    }
+
+    /**
+     * Create a body of a file. The file is mapped into memory on first use, so the operating system reads it from the
+     * page cache when it is sent. The file must not change while it is served.
+     *
+     * @param file The file.
+     * @return The body.
+     */
+    public static Body of(File file) {
+        if (!file.isFile()) {
+            throw new ContentException("No such file " + file);
+        }
+        return new FileBody(file);
+    }
+
+    /**
+     * Create a body of a resource, e.g. from the classpath. Resources in the file system are mapped like files, others
+     * are read into a direct buffer on first use.
+     *
+     * @param resource The url of the resource.
+     * @return The body.
+     */
+    public static Body of(URL resource) {
+        if ("file".equals(resource.getProtocol())) {
+            try {
+                return of(new File(resource.toURI()));
+            } catch (Exception e) {
+                // not a plain file url, read it as any other resource
+            }
+        }
+        return new ResourceBody(resource);
+    }
+
+    /**
+     * Create a streamed body of unknown length. Each time the body is sent a new source is created, so the body can
+     * be part of a predefined response.
+     *
+     * @param sources Creates the source of the chunks for each response.
+     * @return The body.
+     */
+    public static Body stream(Callable<? extends ChunkSource> sources) {
+        return new StreamBody(sources, -1);
+    }
+
+    /**
+     * Create a streamed body of a known length. The sources have to produce exactly <code>length</code> bytes.
+     *
+     * @param sources Creates the source of the chunks for each response.
+     * @param length  The length of the body, may be larger than 2 GB.
+     * @return The body.
+     */
+    public static Body stream(Callable<? extends ChunkSource> sources, long length) {
+        return new StreamBody(sources, length);
+    }
+
+    /**
+     * Create a streamed body of unknown length that can only be sent once, e.g. for a response created by a
+     * {@link de.hanbei.httpserver.RequestProcessor}.
+     *
+     * @param in The stream of the body, closed once it is sent.
+     * @return The body.
+     */
+    public static Body stream(InputStream in) {
+        return new StreamBody(new Once<ChunkSource>(new InputStreamSource(in)), -1);
+    }
+
+    /**
+     * Create a streamed body of the bodies one after another, without copying them.
+     *
+     * @param parts The bodies to send in order, all of a known length.
+     * @return The body.
+     */
+    public static Body sequence(List<Body> parts) {
+        final Body[] bodies = parts.toArray(new Body[parts.size()]);
+        long length = 0;
+        for (Body body : bodies) {
+            if (body.length() < 0) {
+                throw new ContentException("The length of every part has to be known");
+            }
+            length += body.length();
+        }
+        return new StreamBody(new Callable<ChunkSource>() {
+            @Override
+            public ChunkSource call() {
+                return new SequenceSource(bodies);
+            }
+        }, length);
+    }
+
+    /**
+     * Get the number of bytes of the body without loading them.
+     *
+     * @return The length of the body or -1 if it is streamed with an unknown length.
+     */
+    public abstract long length();
+
+    /**
+     * Is the body read chunk by chunk while it is sent. Streamed bodies can only be read with {@link #open()}.
+     *
+     * @return true if the body is streamed.
+     */
+    public boolean isStreamed() {
+        return false;
+    }
+
+    /**
+     * Can a part of the body be taken with {@link #slice(long, long)}. Only bodies read from a {@link ChunkSource}
+     * cannot.
+     *
+     * @return true if the body can be sliced.
+     */
+    public boolean isSliceable() {
+        return true;
+    }
+
+    /**
+     * Get a part of the body without copying it, e.g. to answer a range request.
+     *
+     * @param offset The offset of the part in the body.
+     * @param length The length of the part.
+     * @return A body with the bytes of the part.
+     * @throws ContentException if the body cannot be sliced or the part is not within the body.
+     */
+    public Body slice(long offset, long length) {
+        if (offset < 0 || length < 0 || offset + length > length()) {
+            throw new ContentException("The part " + offset + "+" + length + " is not within " + length() + " bytes");
+        }
+        ByteBuffer buffer = buffer();
+        buffer.position((int) offset);
+        buffer.limit((int) (offset + length));
+        return new BufferBody(buffer);
+    }
+
+    /**
+     * Get the bytes of the body, loading them if necessary.
+     *
+     * @return A read-only buffer positioned at the start of the body.
+     * @throws ContentException if the body is streamed.
+     */
+    public abstract ByteBuffer buffer();
+
+    /**
+     * Open the body to read it chunk by chunk. Works for every body, streamed or not.
+     *
+     * @return The source of the chunks, to be closed by the caller.
+     * @throws IOException if the body cannot be read.
+     */
+    public ChunkSource open() throws IOException {
+        return new SingleChunk(buffer());
+    }
+
+    private static final class BufferBody extends Body {
+
+        private final ByteBuffer buffer;
+
+        BufferBody(ByteBuffer buffer) {
+            this.buffer = buffer.slice().asReadOnlyBuffer();
+        }
+
+        @Override
+        public long length() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public ByteBuffer buffer() {
+            return buffer.duplicate();
+        }
+    }
+
+    /**
+     * A body whose bytes are loaded once, by the first thread asking for them.
+     */
+    private abstract static class LazyBody extends Body {
+
+        private volatile ByteBuffer loaded;
+
+        @Override
+        public ByteBuffer buffer() {
+            ByteBuffer buffer = loaded;
+            if (buffer == null) {
+                synchronized (this) {
+                    buffer = loaded;
+                    if (buffer == null) {
+                        try {
+                            buffer = load().asReadOnlyBuffer();
+                        } catch (IOException e) {
+                            throw new ContentException(e);
+                        }
+                        loaded = buffer;
+                    }
+                }
+            }
+            return buffer.duplicate();
+        }
+
+        abstract ByteBuffer load() throws IOException;
+    }
+
+    private static final class FileBody extends LazyBody {
+
+        private final File file;
+        private final long length;
+
+        FileBody(File file) {
+            this.file = file;
+            this.length = file.length();
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        /**
+         * Files up to 2 GB are mapped as a whole on first use, larger ones are mapped region by region while sent.
+         */
+        @Override
+        public boolean isStreamed() {
+            return length > Integer.MAX_VALUE;
+        }
+
+        @Override
+        public ByteBuffer buffer() {
+            if (isStreamed()) {
+                throw new ContentException(file + " is too large to be held in a buffer, it can only be streamed");
+            }
+            return super.buffer();
+        }
+
+        @Override
+        public ChunkSource open() throws IOException {
+            if (!isStreamed()) {
+                return super.open();
+            }
+            return openRegion(0, length);
+        }
+
+        @Override
+        public Body slice(final long offset, final long partLength) {
+            if (!isStreamed()) {
+                return super.slice(offset, partLength);
+            }
+            if (offset < 0 || partLength < 0 || offset + partLength > length) {
+                throw new ContentException("The part " + offset + "+" + partLength + " is not within " + file);
+            }
+            return new StreamBody(new Callable<ChunkSource>() {
+                @Override
+                public ChunkSource call() throws IOException {
+                    return openRegion(offset, offset + partLength);
+                }
+            }, partLength);
+        }
+
+        private ChunkSource openRegion(final long start, final long end) throws IOException {
+            final RandomAccessFile randomAccess = new RandomAccessFile(file, "r");
+            final FileChannel channel = randomAccess.getChannel();
+            return new ChunkSource() {
+                private long position = start;
+
+                @Override
+                public ByteBuffer next() throws IOException {
+                    if (position >= end) {
+                        return null;
+                    }
+                    long size = Math.min(MAX_MAPPED_REGION, end - position);
+                    ByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+                    position += size;
+                    return region;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    randomAccess.close();
+                }
+            };
+        }
+
+        @Override
+        ByteBuffer load() throws IOException {
+            RandomAccessFile randomAccess = new RandomAccessFile(file, "r");
+            try {
+                // the mapping stays valid after the channel is closed
+                FileChannel channel = randomAccess.getChannel();
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            } finally {
+                randomAccess.close();
+            }
+        }
+    }
+
+    private static final class ResourceBody extends LazyBody {
+
+        private final URL resource;
+        private final int length;
+
+        ResourceBody(URL resource) {
+            this.resource = resource;
+            try {
+                URLConnection connection = resource.openConnection();
+                connection.setUseCaches(false);
+                this.length = connection.getContentLength();
+                connection.getInputStream().close();
+            } catch (IOException e) {
+                throw new ContentException(e);
+            }
+            if (length < 0) {
+                throw new ContentException("Unknown length of " + resource);
+            }
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        ByteBuffer load() throws IOException {
+            ReadableByteChannel in = Channels.newChannel(resource.openStream());
+            try {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+                while (buffer.hasRemaining() && in.read(buffer) >= 0) {
+                    // read until the buffer is full
+                }
+                if (buffer.hasRemaining()) {
+                    throw new EOFException(resource + " is shorter than " + length + " bytes");
+                }
+                buffer.flip();
+                return buffer;
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    private static final class StreamBody extends Body {
+
+        private final Callable<? extends ChunkSource> sources;
+        private final long length;
+
+        StreamBody(Callable<? extends ChunkSource> sources, long length) {
+            this.sources = sources;
+            this.length = length;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public boolean isStreamed() {
+            return true;
+        }
+
+        @Override
+        public ByteBuffer buffer() {
+            throw new ContentException("The body is streamed, it can only be read with open()");
+        }
+
+        @Override
+        public boolean isSliceable() {
+            return false;
+        }
+
+        @Override
+        public Body slice(long offset, long length) {
+            throw new ContentException("The body is streamed from a source, it cannot be sliced");
+        }
+
+        @Override
+        public ChunkSource open() throws IOException {
+            try {
+                return sources.call();
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Could not open the body: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static final class SingleChunk implements ChunkSource {
+
+        private ByteBuffer chunk;
+
+        SingleChunk(ByteBuffer chunk) {
+            this.chunk = chunk;
+        }
+
+        @Override
+        public ByteBuffer next() {
+            ByteBuffer next = chunk;
+            chunk = null;
+            return next;
+        }
+
+        @Override
+        public void close() {
+            chunk = null;
+        }
+    }
+
+    private static final class SequenceSource implements ChunkSource {
+
+        private final Body[] parts;
+        private int next;
+        private ChunkSource current;
+
+        SequenceSource(Body[] parts) {
+            this.parts = parts;
+        }
+
+        @Override
+        public ByteBuffer next() throws IOException {
+            while (true) {
+                if (current == null) {
+                    if (next == parts.length) {
+                        return null;
+                    }
+                    current = parts[next++].open();
+                }
+                ByteBuffer chunk = current.next();
+                if (chunk != null) {
+                    return chunk;
+                }
+                current.close();
+                current = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            next = parts.length;
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        }
+    }
+
+    private static final class InputStreamSource implements ChunkSource {
+
+        private final InputStream in;
+        private final byte[] bytes = new byte[STREAM_BUFFER_SIZE];
+
+        InputStreamSource(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public ByteBuffer next() throws IOException {
+            int read = in.read(bytes);
+            while (read == 0) {
+                read = in.read(bytes);
+            }
+            return read < 0 ? null : ByteBuffer.wrap(bytes, 0, read);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Hands out a value only once, for bodies that cannot be sent twice.
+     */
+    private static final class Once<T> implements Callable<T> {
+
+        private final AtomicReference<T> value;
+
+        Once(T value) {
+            this.value = new AtomicReference<T>(value);
+        }
+
+        @Override
+        public T call() throws IOException {
+            T taken = value.getAndSet(null);
+            if (taken == null) {
+                throw new IOException("The body has already been sent");
+            }
+            return taken;
+        }
+    }
+}
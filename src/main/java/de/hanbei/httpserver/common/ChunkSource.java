@@ -0,0 +1,34 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A source of the chunks of a streamed {@link Body}. The server asks for the next chunk only when the previous one has
+ * been handed to the client, so a slow client slows down the source instead of the chunks piling up in memory.
+ */
+public interface ChunkSource extends Closeable {
+
+    /**
+     * Get the next chunk of the body. The returned buffer may be reused by the source once this method is called again.
+     *
+     * @return The next chunk or <code>null</code> at the end of the body.
+     * @throws IOException if the chunk could not be produced.
+     */
+    ByteBuffer next() throws IOException;
+
+}
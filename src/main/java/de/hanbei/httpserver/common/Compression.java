@@ -0,0 +1,93 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.common;
+
+import de.hanbei.httpserver.exceptions.ContentException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The content codings a response body can be compressed with in advance, named by their token in
+ * <code>Accept-Encoding</code> and <code>Content-Encoding</code>.
+ */
+public enum Compression {
+
+    GZIP("gzip") {
+        @Override
+        DeflaterOutputStream open(OutputStream out, Deflater deflater) throws IOException {
+            return new GZIPOutputStream(out) {
+                {
+                    def.setLevel(Deflater.BEST_COMPRESSION);
+                }
+            };
+        }
+    },
+    DEFLATE("deflate") {
+        @Override
+        DeflaterOutputStream open(OutputStream out, Deflater deflater) {
+            return new DeflaterOutputStream(out, deflater);
+        }
+    };
+
+    private final String token;
+
+    private Compression(String token) {
+        this.token = token;
+    }
+
+    /**
+     * Get the name of the coding as used in header fields.
+     *
+     * @return The token of the coding, e.g. <code>gzip</code>.
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Compress a body with the best compression. This is meant to be done once when a response is built, it is far
+     * too slow to be done per request.
+     *
+     * @param body The body to compress, it must not be streamed.
+     * @return A new body with the compressed bytes.
+     */
+    public Body compress(Body body) {
+        ByteBuffer bytes = body.buffer();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.remaining() / 4 + 64);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            DeflaterOutputStream out = open(compressed, deflater);
+            byte[] chunk = new byte[Math.min(bytes.remaining(), 8192)];
+            while (bytes.hasRemaining()) {
+                int length = Math.min(chunk.length, bytes.remaining());
+                bytes.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+            out.close();
+        } catch (IOException e) {
+            throw new ContentException(e);
+        } finally {
+            deflater.end();
+        }
+        return Body.of(ByteBuffer.wrap(compressed.toByteArray()));
+    }
+
+    abstract DeflaterOutputStream open(OutputStream out, Deflater deflater) throws IOException;
+}
@@ -15,10 +15,15 @@ limitations under the License. */
 package de.hanbei.httpserver.common;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 /**
  * A class to save the content send with a request or a response. Holds all necessary information of content i.e. content length, mimetype,
- * encoding and the actual content as byte array.
+ * encoding and the actual content as a {@link Body}.
+ * <p/>
+ * The bytes of the content are never modified once set. Use {@link #getBuffer()} to read them without copying, e.g.
+ * to send a large body, and {@link #setContent(ByteBuffer)} or {@link #setBody(Body)} to set them without copying.
  */
 public class Content {
 
@@ -31,7 +36,7 @@ public class Content {
 
     private int length = -1;
 
-    private byte[] content;
+    private Body body;
 
     private URI location;
 
@@ -82,18 +87,70 @@ public class Content {
         this.length = length;
     }
 
+    /**
+     * Get a copy of the content.
+     *
+     * @return The content as a new byte array.
+     */
     public byte[] getContent() {
-        if ( length < 0 ) {
-            return new byte[0];
-        }
-        byte[] result = new byte[content.length];
-        System.arraycopy(content, 0, result, 0, content.length);
+        ByteBuffer buffer = getBuffer();
+        byte[] result = new byte[buffer.remaining()];
+        buffer.get(result);
         return result;
     }
 
+    /**
+     * Get the content without copying it.
+     *
+     * @return A read-only buffer on the content positioned at its start, empty if no content is set.
+     */
+    public ByteBuffer getBuffer() {
+        return getBody().buffer();
+    }
+
+    /**
+     * Set the content to a copy of a byte array.
+     *
+     * @param content The content.
+     */
     public void setContent(byte[] content) {
-        this.content = new byte[content.length];
-        System.arraycopy(content, 0, this.content, 0, content.length);
+        byte[] copy = new byte[content.length];
+        System.arraycopy(content, 0, copy, 0, content.length);
+        setContent(ByteBuffer.wrap(copy));
+    }
+
+    /**
+     * Set the content to the remaining bytes of a buffer without copying them. The buffer may be a direct buffer or a
+     * slice of a larger one. The bytes must not be changed afterwards, as they are shared by every response sent.
+     *
+     * @param content The content.
+     */
+    public void setContent(ByteBuffer content) {
+        setBody(Body.of(content));
+    }
+
+    /**
+     * Get the body holding the bytes of the content.
+     *
+     * @return The body, empty if no content is set.
+     */
+    public Body getBody() {
+        if ( body == null ) {
+            return Body.empty();
+        }
+        return body;
+    }
+
+    /**
+     * Set the body holding the bytes of the content, e.g. a file that is only read when it is sent. The length of the
+     * content is set to the length of the body, or -1 if it is unknown or larger than 2 GB. Use the length of the body
+     * for such bodies.
+     *
+     * @param body The body.
+     */
+    public void setBody(Body body) {
+        this.body = body;
+        this.length = body.length() <= Integer.MAX_VALUE ? (int) body.length() : -1;
     }
 
     public String getEncoding() {
@@ -115,7 +172,7 @@ public class Content {
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
-        if ( content != null ) {
+        if ( body != null ) {
             if ( encoding != null ) {
                 builder.append(Header.Fields.CONTENT_ENCODING);
                 builder.append(": ");
@@ -157,7 +214,7 @@ public class Content {
                 builder.append("\n");
             }
             builder.append("\n");
-            builder.append(new String(content));
+            builder.append(body.isStreamed() ? "[streamed]" : getContentAsString());
         }
         builder.append("\n");
         return builder.toString();
@@ -187,9 +244,15 @@ public class Content {
         return range;
     }
 
+    /**
+     * Get the content decoded with the default charset.
+     *
+     * @return The content as a string, empty if no content is set.
+     * @throws de.hanbei.httpserver.exceptions.ContentException if the content is streamed.
+     */
     public String getContentAsString() {
-        if ( content != null ) {
-            return new String(content);
+        if ( body != null ) {
+            return Charset.defaultCharset().decode(body.buffer()).toString();
         }
         return "";
     }
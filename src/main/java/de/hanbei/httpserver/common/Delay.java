@@ -0,0 +1,195 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.common;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long the server waits before it sends a response. Each response gets a delay of its own, drawn from a
+ * distribution: a fixed delay, a uniform, normal or log-normal distribution or the heavy-tailed Pareto distribution
+ * of a server that is usually fast and occasionally very slow. Delays are immutable and thread-safe.
+ */
+public abstract class Delay {
+
+    private static final Delay NONE = fixed(0, TimeUnit.MILLISECONDS);
+    private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    /**
+     * Draw the delay of a response.
+     *
+     * @param random The source of randomness.
+     * @return The delay in nanoseconds, never negative.
+     */
+    public abstract long nanos(Random random);
+
+    /**
+     * Draw the delay of a response with a random number generator of the calling thread.
+     *
+     * @return The delay in nanoseconds, never negative.
+     */
+    public long nanos() {
+        return nanos(RANDOM.get());
+    }
+
+    /**
+     * Get no delay at all.
+     *
+     * @return A delay that is always 0.
+     */
+    public static Delay none() {
+        return NONE;
+    }
+
+    /**
+     * Get a delay that is the same for all responses.
+     *
+     * @param delay The delay.
+     * @param unit  The unit of the delay.
+     * @return A fixed delay.
+     */
+    public static Delay fixed(long delay, TimeUnit unit) {
+        final long nanos = unit.toNanos(requireNotNegative(delay, "delay"));
+        return new Delay() {
+            @Override
+            public long nanos(Random random) {
+                return nanos;
+            }
+
+            @Override
+            public String toString() {
+                return "fixed(" + nanos + "ns)";
+            }
+        };
+    }
+
+    /**
+     * Get delays distributed uniformly between a minimum and a maximum.
+     *
+     * @param min  The shortest delay.
+     * @param max  The longest delay.
+     * @param unit The unit of the delays.
+     * @return A uniformly distributed delay.
+     */
+    public static Delay uniform(long min, long max, TimeUnit unit) {
+        final long minNanos = unit.toNanos(requireNotNegative(min, "min"));
+        final long maxNanos = unit.toNanos(max);
+        if (maxNanos < minNanos) {
+            throw new IllegalArgumentException("max must not be less than min: " + min + " > " + max);
+        }
+        return new Delay() {
+            @Override
+            public long nanos(Random random) {
+                return minNanos + (long) (random.nextDouble() * (maxNanos - minNanos));
+            }
+
+            @Override
+            public String toString() {
+                return "uniform(" + minNanos + "ns, " + maxNanos + "ns)";
+            }
+        };
+    }
+
+    /**
+     * Get normally distributed delays. Draws below 0 are sent without delay.
+     *
+     * @param mean              The mean delay.
+     * @param standardDeviation The standard deviation of the delays.
+     * @param unit              The unit of the mean and the standard deviation.
+     * @return A normally distributed delay.
+     */
+    public static Delay normal(long mean, long standardDeviation, TimeUnit unit) {
+        final long meanNanos = unit.toNanos(requireNotNegative(mean, "mean"));
+        final long deviationNanos = unit.toNanos(requireNotNegative(standardDeviation, "standardDeviation"));
+        return new Delay() {
+            @Override
+            public long nanos(Random random) {
+                return Math.max(0, meanNanos + (long) (random.nextGaussian() * deviationNanos));
+            }
+
+            @Override
+            public String toString() {
+                return "normal(" + meanNanos + "ns, " + deviationNanos + "ns)";
+            }
+        };
+    }
+
+    /**
+     * Get log-normally distributed delays, the typical distribution of service latencies: most responses take about
+     * the median, a few take much longer.
+     *
+     * @param median The median delay.
+     * @param sigma  The standard deviation of the logarithm of the delays, e.g. 0.5. The larger, the longer the tail.
+     * @param unit   The unit of the median.
+     * @return A log-normally distributed delay.
+     */
+    public static Delay logNormal(long median, final double sigma, TimeUnit unit) {
+        final long medianNanos = unit.toNanos(requireNotNegative(median, "median"));
+        if (sigma < 0) {
+            throw new IllegalArgumentException("sigma must not be negative: " + sigma);
+        }
+        return new Delay() {
+            @Override
+            public long nanos(Random random) {
+                return (long) (medianNanos * Math.exp(sigma * random.nextGaussian()));
+            }
+
+            @Override
+            public String toString() {
+                return "logNormal(" + medianNanos + "ns, " + sigma + ")";
+            }
+        };
+    }
+
+    /**
+     * Get Pareto distributed delays: never shorter than the minimum, and the smaller the shape the more often much
+     * longer.
+     *
+     * @param min   The shortest delay, the scale of the distribution.
+     * @param shape The shape of the distribution, e.g. 1.16 for the 80-20 rule. Has to be positive.
+     * @param unit  The unit of the minimum.
+     * @return A Pareto distributed delay.
+     */
+    public static Delay pareto(long min, final double shape, TimeUnit unit) {
+        final long minNanos = unit.toNanos(requireNotNegative(min, "min"));
+        if (shape <= 0) {
+            throw new IllegalArgumentException("shape has to be positive: " + shape);
+        }
+        return new Delay() {
+            @Override
+            public long nanos(Random random) {
+                // 1 - nextDouble() is in (0, 1], so the power is finite
+                double drawn = minNanos / Math.pow(1 - random.nextDouble(), 1 / shape);
+                return drawn >= Long.MAX_VALUE ? Long.MAX_VALUE : (long) drawn;
+            }
+
+            @Override
+            public String toString() {
+                return "pareto(" + minNanos + "ns, " + shape + ")";
+            }
+        };
+    }
+
+    private static long requireNotNegative(long value, String name) {
+        if (value < 0) {
+            throw new IllegalArgumentException(name + " must not be negative: " + value);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,106 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A fault a {@link FaultPolicy} injects into the answer of a single request instead of the stubbed response. Faults
+ * are created once with their policy, so injecting them does not allocate anything.
+ */
+public final class Fault {
+
+    /**
+     * The kinds of faults a server can have.
+     */
+    public enum Kind {
+        /**
+         * Reset the connection without sending anything.
+         */
+        RESET,
+        /**
+         * Send the head with the full length, but close the connection after some bytes of the body.
+         */
+        TRUNCATE,
+        /**
+         * Send the whole body, but declare a wrong <code>Content-Length</code> and close the connection after it.
+         */
+        WRONG_CONTENT_LENGTH,
+        /**
+         * Send bytes that are not a status line and close the connection.
+         */
+        GARBAGE_STATUS,
+        /**
+         * Answer with a server error instead of the stubbed response.
+         */
+        SERVER_ERROR
+    }
+
+    private final Kind kind;
+    private final long bytes;
+    private final Status status;
+    private final ByteBuffer garbage;
+
+    Fault(Kind kind, long bytes, Status status, byte[] garbage) {
+        this.kind = kind;
+        this.bytes = bytes;
+        this.status = status;
+        this.garbage = garbage == null ? null : ByteBuffer.wrap(garbage).asReadOnlyBuffer();
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Get the number of body bytes sent before the connection is closed for {@link Kind#TRUNCATE} or the difference of
+     * the declared to the actual length for {@link Kind#WRONG_CONTENT_LENGTH}.
+     *
+     * @return The number of bytes, 0 for the other kinds.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Get the status of the answer for {@link Kind#SERVER_ERROR}.
+     *
+     * @return The status or <code>null</code> for the other kinds.
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Get the bytes sent in place of a response for {@link Kind#GARBAGE_STATUS}.
+     *
+     * @return A read-only buffer positioned at the start of the bytes or <code>null</code> for the other kinds.
+     */
+    public ByteBuffer getGarbage() {
+        return garbage == null ? null : garbage.duplicate();
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case TRUNCATE:
+            case WRONG_CONTENT_LENGTH:
+                return kind + "(" + bytes + ")";
+            case SERVER_ERROR:
+                return kind + "(" + status + ")";
+            default:
+                return kind.toString();
+        }
+    }
+}
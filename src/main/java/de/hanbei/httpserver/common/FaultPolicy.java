@@ -0,0 +1,278 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The faults injected into the answers of a server, each with the percentage of requests it hits. A single random
+ * number per request decides which fault, if any, is injected. The numbers are drawn from a SplitMix64 sequence of
+ * the thread handling the request, so the decision neither locks nor allocates. The sequence of each thread is
+ * derived from the seed and the order the threads first answer a request with the policy, so a test with a fixed seed
+ * sees the same faults in every run. Policies are immutable.
+ *
+ * <pre>
+ * FaultPolicy.none().reset(1).truncate(2, 100).serverErrors(5, Status.SERVICE_UNAVAILABLE).seed(42)
+ * </pre>
+ */
+public final class FaultPolicy {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private static final double UNIT = 1L << 53;
+    private static final int GARBAGE_LENGTH = 32;
+    private static final AtomicLong SEEDS = new AtomicLong(System.nanoTime());
+
+    private final double reset;
+    private final double truncate;
+    private final long truncateBytes;
+    private final double wrongContentLength;
+    private final long lengthDifference;
+    private final double garbageStatus;
+    private final double serverErrors;
+    private final List<Status> errorStatuses;
+    private final long seed;
+    private final Fault[] faults;
+    private final long[] thresholds;
+    private final AtomicLong threads = new AtomicLong();
+    private final ThreadLocal<long[]> states = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[]{Payload.mix(seed + GOLDEN_GAMMA * threads.incrementAndGet())};
+        }
+    };
+
+    private FaultPolicy(double reset, double truncate, long truncateBytes, double wrongContentLength,
+                        long lengthDifference, double garbageStatus, double serverErrors, List<Status> errorStatuses,
+                        long seed) {
+        this.reset = reset;
+        this.truncate = truncate;
+        this.truncateBytes = truncateBytes;
+        this.wrongContentLength = wrongContentLength;
+        this.lengthDifference = lengthDifference;
+        this.garbageStatus = garbageStatus;
+        this.serverErrors = serverErrors;
+        this.errorStatuses = errorStatuses;
+        this.seed = seed;
+        double total = reset + truncate + wrongContentLength + garbageStatus + serverErrors;
+        if (total > 100) {
+            throw new IllegalArgumentException("The faults must not hit more than 100% of the requests: " + total);
+        }
+
+        List<Fault> all = new ArrayList<Fault>();
+        List<Double> percents = new ArrayList<Double>();
+        add(all, percents, new Fault(Fault.Kind.RESET, 0, null, null), reset);
+        add(all, percents, new Fault(Fault.Kind.TRUNCATE, truncateBytes, null, null), truncate);
+        add(all, percents, new Fault(Fault.Kind.WRONG_CONTENT_LENGTH, lengthDifference, null, null),
+                wrongContentLength);
+        add(all, percents, new Fault(Fault.Kind.GARBAGE_STATUS, 0, null, garbage(seed)), garbageStatus);
+        for (Status status : errorStatuses) {
+            add(all, percents, new Fault(Fault.Kind.SERVER_ERROR, 0, status, null),
+                    serverErrors / errorStatuses.size());
+        }
+        faults = all.toArray(new Fault[all.size()]);
+        thresholds = new long[faults.length];
+        double cumulated = 0;
+        for (int i = 0; i < thresholds.length; i++) {
+            cumulated += percents.get(i);
+            thresholds[i] = (long) (cumulated / 100 * UNIT);
+        }
+    }
+
+    /**
+     * Get a policy that injects no faults, to add faults to.
+     *
+     * @return A policy without faults and with a random seed.
+     */
+    public static FaultPolicy none() {
+        return new FaultPolicy(0, 0, 0, 0, 0, 0, 0, Collections.<Status>emptyList(),
+                Payload.mix(SEEDS.addAndGet(GOLDEN_GAMMA)));
+    }
+
+    /**
+     * Reset the connection of some requests without answering them.
+     *
+     * @param percent The percentage of requests to reset.
+     * @return A policy with the fault.
+     */
+    public FaultPolicy reset(double percent) {
+        return new FaultPolicy(checked(percent), truncate, truncateBytes, wrongContentLength, lengthDifference,
+                garbageStatus, serverErrors, errorStatuses, seed);
+    }
+
+    /**
+     * Close the connection of some requests after a part of the body, although the head declares the full length.
+     * Bodies of unknown length, sent chunked, and bodies not longer than the part are sent in full.
+     *
+     * @param percent    The percentage of requests to truncate.
+     * @param afterBytes The number of body bytes sent before the connection is closed.
+     * @return A policy with the fault.
+     */
+    public FaultPolicy truncate(double percent, long afterBytes) {
+        if (afterBytes < 0) {
+            throw new IllegalArgumentException("afterBytes must not be negative: " + afterBytes);
+        }
+        return new FaultPolicy(reset, checked(percent), afterBytes, wrongContentLength, lengthDifference,
+                garbageStatus, serverErrors, errorStatuses, seed);
+    }
+
+    /**
+     * Declare a wrong <code>Content-Length</code> for some requests. The whole body is sent and the connection is
+     * closed after it, so a client trusting a larger length waits for the end of the connection and a client trusting
+     * a smaller one reads the rest as the next response. Bodies of unknown length are sent chunked as usual.
+     *
+     * @param percent    The percentage of requests to answer with a wrong length.
+     * @param difference The difference of the declared to the actual length, e.g. 10 to declare 10 bytes too many.
+     *                   The declared length is never negative.
+     * @return A policy with the fault.
+     */
+    public FaultPolicy wrongContentLength(double percent, long difference) {
+        if (difference == 0) {
+            throw new IllegalArgumentException("A difference of 0 is the right length");
+        }
+        return new FaultPolicy(reset, truncate, truncateBytes, checked(percent), difference, garbageStatus,
+                serverErrors, errorStatuses, seed);
+    }
+
+    /**
+     * Send bytes that are no status line to some requests and close the connection.
+     *
+     * @param percent The percentage of requests to answer with garbage.
+     * @return A policy with the fault.
+     */
+    public FaultPolicy garbageStatus(double percent) {
+        return new FaultPolicy(reset, truncate, truncateBytes, wrongContentLength, lengthDifference,
+                checked(percent), serverErrors, errorStatuses, seed);
+    }
+
+    /**
+     * Answer some requests with a server error instead of the stubbed response. Each status is sent equally often.
+     *
+     * @param percent  The percentage of requests to answer with an error.
+     * @param statuses The statuses to choose from, all of them 5xx.
+     * @return A policy with the fault.
+     */
+    public FaultPolicy serverErrors(double percent, Status... statuses) {
+        if (statuses.length == 0) {
+            throw new IllegalArgumentException("At least one status is needed");
+        }
+        for (Status status : statuses) {
+            if (status.getStatusCode() < 500 || status.getStatusCode() > 599) {
+                throw new IllegalArgumentException(status + " is no server error");
+            }
+        }
+        return new FaultPolicy(reset, truncate, truncateBytes, wrongContentLength, lengthDifference, garbageStatus,
+                checked(percent), Collections.unmodifiableList(Arrays.asList(statuses.clone())), seed);
+    }
+
+    /**
+     * Set the seed the random numbers of all threads are derived from, to replay the faults of a run.
+     *
+     * @param newSeed The seed.
+     * @return A policy with the seed.
+     */
+    public FaultPolicy seed(long newSeed) {
+        return new FaultPolicy(reset, truncate, truncateBytes, wrongContentLength, lengthDifference, garbageStatus,
+                serverErrors, errorStatuses, newSeed);
+    }
+
+    /**
+     * Decide on the fault for the next request handled by the calling thread.
+     *
+     * @return The fault to inject or <code>null</code> if the request is answered as stubbed.
+     */
+    public Fault next() {
+        if (faults.length == 0) {
+            return null;
+        }
+        long[] state = states.get();
+        state[0] += GOLDEN_GAMMA;
+        long random = Payload.mix(state[0]) >>> 11;
+        for (int i = 0; i < thresholds.length; i++) {
+            if (random < thresholds[i]) {
+                return faults[i];
+            }
+        }
+        return null;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Get the percentage of requests a kind of fault is injected into.
+     *
+     * @param kind The kind of fault.
+     * @return The percentage, 0 if the fault is not injected.
+     */
+    public double getPercent(Fault.Kind kind) {
+        switch (kind) {
+            case RESET:
+                return reset;
+            case TRUNCATE:
+                return truncate;
+            case WRONG_CONTENT_LENGTH:
+                return wrongContentLength;
+            case GARBAGE_STATUS:
+                return garbageStatus;
+            default:
+                return serverErrors;
+        }
+    }
+
+    public List<Status> getErrorStatuses() {
+        return errorStatuses;
+    }
+
+    private static double checked(double percent) {
+        if (!(percent >= 0 && percent <= 100)) {
+            throw new IllegalArgumentException("percent has to be between 0 and 100: " + percent);
+        }
+        return percent;
+    }
+
+    private static void add(List<Fault> all, List<Double> percents, Fault fault, double percent) {
+        if (percent > 0) {
+            all.add(fault);
+            percents.add(percent);
+        }
+    }
+
+    /**
+     * Create bytes that no client takes for a status line: random bytes, some of them control characters, ending with
+     * an empty line.
+     */
+    private static byte[] garbage(long seed) {
+        byte[] garbage = new byte[GARBAGE_LENGTH + 4];
+        long state = seed;
+        for (int i = 0; i < GARBAGE_LENGTH; i += 8) {
+            state += GOLDEN_GAMMA;
+            long random = Payload.mix(state);
+            for (int j = 0; j < 8; j++) {
+                garbage[i + j] = (byte) (random >>> (8 * j));
+            }
+        }
+        // no status line starts with a NUL
+        garbage[0] = 0;
+        garbage[GARBAGE_LENGTH] = '\r';
+        garbage[GARBAGE_LENGTH + 1] = '\n';
+        garbage[GARBAGE_LENGTH + 2] = '\r';
+        garbage[GARBAGE_LENGTH + 3] = '\n';
+        return garbage;
+    }
+}
@@ -0,0 +1,107 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.common;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How a server hangs instead of answering: the connection is kept open without sending a single byte, for a while or
+ * forever, as a stuck upstream does. Afterwards the connection is closed or reset without an answer. A hanging
+ * connection does not occupy a thread. Hangs are immutable.
+ *
+ * <pre>
+ * Hang.of(Delay.uniform(5, 30, TimeUnit.SECONDS)).thenReset()
+ * </pre>
+ */
+public final class Hang {
+
+    private static final Hang FOREVER = new Hang(null, false);
+
+    private final Delay duration;
+    private final boolean reset;
+
+    private Hang(Delay duration, boolean reset) {
+        this.duration = duration;
+        this.reset = reset;
+    }
+
+    /**
+     * Hang until the server is stopped or the hanging connections are released.
+     *
+     * @return A hang without end.
+     */
+    public static Hang forever() {
+        return FOREVER;
+    }
+
+    /**
+     * Hang for a fixed time.
+     *
+     * @param duration The time the connection is kept open.
+     * @param unit     The unit of the duration.
+     * @return A hang that closes the connection afterwards.
+     */
+    public static Hang of(long duration, TimeUnit unit) {
+        return of(Delay.fixed(duration, unit));
+    }
+
+    /**
+     * Hang for a time drawn from a distribution for each request.
+     *
+     * @param duration The distribution of the time the connection is kept open.
+     * @return A hang that closes the connection afterwards.
+     */
+    public static Hang of(Delay duration) {
+        if (duration == null) {
+            throw new IllegalArgumentException("The duration must not be null, use Hang.forever()");
+        }
+        return new Hang(duration, false);
+    }
+
+    /**
+     * Reset the connection once the hang is over instead of closing it, as a crashed server would.
+     *
+     * @return A hang that resets the connection.
+     */
+    public Hang thenReset() {
+        return new Hang(duration, true);
+    }
+
+    public boolean isForever() {
+        return duration == null;
+    }
+
+    /**
+     * Get the time the connection is kept open.
+     *
+     * @return The distribution of the duration or <code>null</code> if the hang has no end.
+     */
+    public Delay getDuration() {
+        return duration;
+    }
+
+    /**
+     * Is the connection reset once the hang is over.
+     *
+     * @return true if the connection is reset, false if it is closed.
+     */
+    public boolean isReset() {
+        return reset;
+    }
+
+    @Override
+    public String toString() {
+        return "hang(" + (duration == null ? "forever" : duration.toString()) + (reset ? ", reset)" : ")");
+    }
+}
@@ -51,6 +51,12 @@ public class Header {
         public static final String LOCATION = "Location";
         public static final String USER_AGENT = "User-Agent";
         public static final String ALLOW = "Allow";
+        public static final String VARY = "Vary";
+        public static final String CACHE_CONTROL = "Cache-Control";
+        public static final String IF_NONE_MATCH = "If-None-Match";
+        public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+        public static final String RANGE = "Range";
+        public static final String IF_RANGE = "If-Range";
 
         private Fields() {
             // no construction
@@ -134,6 +140,47 @@ public class Header {
         }
     }
 
+    /**
+     * Parse the value of a header field listing values with optional quality, like
+     * <code>gzip;q=1.0, identity; q=0.5, *;q=0</code>. Values without quality get the quality -1.
+     *
+     * @param field The value of the header field.
+     * @return The parameters in the order of the field.
+     */
+    public static List<Parameter> parseParameters(String field) {
+        List<Parameter> parameters = new ArrayList<Parameter>();
+        int start = 0;
+        while (start < field.length()) {
+            int end = field.indexOf(',', start);
+            if (end < 0) {
+                end = field.length();
+            }
+            String element = field.substring(start, end);
+            start = end + 1;
+            int semicolon = element.indexOf(';');
+            String value = (semicolon < 0 ? element : element.substring(0, semicolon)).trim();
+            if (value.length() == 0) {
+                continue;
+            }
+            parameters.add(new Parameter(value, semicolon < 0 ? -1 : parseQuality(element.substring(semicolon + 1))));
+        }
+        return parameters;
+    }
+
+    private static double parseQuality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            String trimmed = parameter.trim();
+            if (trimmed.startsWith("q=") || trimmed.startsWith("Q=")) {
+                try {
+                    return Double.parseDouble(trimmed.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return -1;
+    }
+
     private List<Cookie> cookies;
 
     private MultiValuedMap<String, Parameter> fields;
@@ -0,0 +1,225 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.common;
+
+import org.apache.commons.io.Charsets;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats and parses the dates of header fields like <code>Date</code>, <code>Expires</code> and
+ * <code>Last-Modified</code> in the format of RFC 1123, e.g. <code>Sun, 06 Nov 1994 08:49:37 GMT</code>. All methods
+ * are thread-safe.
+ * <p/>
+ * The <code>Date</code> field every response carries is formatted only once per second. The first response in a new
+ * second formats it, all others in that second share the encoded bytes.
+ */
+public final class HttpDate {
+
+    private static final long MILLIS_PER_DAY = 86400000L;
+    private static final String[] WEEKDAYS = {"Thu", "Fri", "Sat", "Sun", "Mon", "Tue", "Wed"};
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct",
+            "Nov", "Dec"};
+    private static final String[] OBSOLETE_FORMATS = {"EEEE, dd-MMM-yy HH:mm:ss zzz", "EEE MMM d HH:mm:ss yyyy",
+            "EEE, dd MMM yyyy HH:mm:ss zzz"};
+    private static final ThreadLocal<SimpleDateFormat[]> OBSOLETE_PARSERS = new ThreadLocal<SimpleDateFormat[]>() {
+        @Override
+        protected SimpleDateFormat[] initialValue() {
+            SimpleDateFormat[] parsers = new SimpleDateFormat[OBSOLETE_FORMATS.length];
+            for (int i = 0; i < parsers.length; i++) {
+                parsers[i] = new SimpleDateFormat(OBSOLETE_FORMATS[i], Locale.US);
+                parsers[i].setTimeZone(TimeZone.getTimeZone("GMT"));
+            }
+            return parsers;
+        }
+    };
+
+    private static volatile Second current = new Second(System.currentTimeMillis() / 1000);
+
+    private HttpDate() {
+        // static methods only
+    }
+
+    /**
+     * Format a date.
+     *
+     * @param date The date to format.
+     * @return The date as used in header fields.
+     */
+    public static String format(Date date) {
+        return format(date.getTime());
+    }
+
+    /**
+     * Format a point in time, given in milliseconds since the epoch. Milliseconds are dropped.
+     *
+     * @param millis The time to format.
+     * @return The date as used in header fields.
+     */
+    public static String format(long millis) {
+        long days = floorDiv(millis, MILLIS_PER_DAY);
+        int secondOfDay = (int) ((millis - days * MILLIS_PER_DAY) / 1000);
+
+        // the civil date of a day since the epoch, after Howard Hinnant's days_from_civil inverse
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (int) ((5 * dayOfYear + 2) / 153);
+        int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        char[] chars = new char[29];
+        WEEKDAYS[(int) (days - floorDiv(days, 7) * 7)].getChars(0, 3, chars, 0);
+        chars[3] = ',';
+        chars[4] = ' ';
+        twoDigits(chars, 5, day);
+        chars[7] = ' ';
+        MONTHS[month - 1].getChars(0, 3, chars, 8);
+        chars[11] = ' ';
+        twoDigits(chars, 12, (int) (year / 100 % 100));
+        twoDigits(chars, 14, (int) (year % 100));
+        chars[16] = ' ';
+        twoDigits(chars, 17, secondOfDay / 3600);
+        chars[19] = ':';
+        twoDigits(chars, 20, secondOfDay / 60 % 60);
+        chars[22] = ':';
+        twoDigits(chars, 23, secondOfDay % 60);
+        " GMT".getChars(0, 4, chars, 25);
+        return new String(chars);
+    }
+
+    /**
+     * Parse a date of a header field. Besides RFC 1123 the obsolete formats of RFC 850 and asctime are understood.
+     *
+     * @param date The value of the header field.
+     * @return The date in milliseconds since the epoch or -1 if it cannot be parsed.
+     */
+    public static long parse(String date) {
+        String trimmed = date.trim();
+        long parsed = parseRfc1123(trimmed);
+        if (parsed >= 0) {
+            return parsed;
+        }
+        for (SimpleDateFormat parser : OBSOLETE_PARSERS.get()) {
+            try {
+                return parser.parse(trimmed).getTime();
+            } catch (ParseException e) {
+                // try the next format
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the current date.
+     *
+     * @return The current time formatted for a header field, the same string for all calls in the same second.
+     */
+    public static String now() {
+        return currentSecond().value;
+    }
+
+    /**
+     * Get the <code>Date</code> header field with the current date followed by the empty line that ends a head. A
+     * head encoded in advance is completed with it when it is sent.
+     *
+     * @return A read-only buffer, the encoded bytes are shared by all calls in the same second.
+     */
+    public static ByteBuffer dateFieldAndEnd() {
+        return currentSecond().fieldAndEnd.duplicate();
+    }
+
+    private static Second currentSecond() {
+        long second = System.currentTimeMillis() / 1000;
+        Second cached = current;
+        if (cached.second != second) {
+            // racing threads format the same second, whichever is published last is as good as any
+            cached = new Second(second);
+            current = cached;
+        }
+        return cached;
+    }
+
+    private static long parseRfc1123(String date) {
+        if (date.length() != 29 || date.charAt(3) != ',' || !date.endsWith(" GMT")) {
+            return -1;
+        }
+        int month = -1;
+        for (int i = 0; i < MONTHS.length; i++) {
+            if (date.regionMatches(8, MONTHS[i], 0, 3)) {
+                month = i + 1;
+            }
+        }
+        int day = digits(date, 5, 2);
+        int year = digits(date, 12, 4);
+        int hour = digits(date, 17, 2);
+        int minute = digits(date, 20, 2);
+        int second = digits(date, 23, 2);
+        if (month < 0 || day < 1 || year < 0 || hour < 0 || minute < 0 || second < 0) {
+            return -1;
+        }
+        // days since the epoch of a civil date, after Howard Hinnant's days_from_civil
+        long y = month <= 2 ? year - 1 : year;
+        long era = floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146097 + dayOfEra - 719468;
+        return ((days * 24 + hour) * 60 + minute) * 60000L + second * 1000L;
+    }
+
+    private static int digits(String text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + c - '0';
+        }
+        return value;
+    }
+
+    private static void twoDigits(char[] chars, int offset, int value) {
+        chars[offset] = (char) ('0' + value / 10);
+        chars[offset + 1] = (char) ('0' + value % 10);
+    }
+
+    private static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        return dividend % divisor < 0 ? quotient - 1 : quotient;
+    }
+
+    private static final class Second {
+
+        private final long second;
+        private final String value;
+        private final ByteBuffer fieldAndEnd;
+
+        Second(long second) {
+            this.second = second;
+            this.value = format(second * 1000);
+            byte[] bytes = (Header.Fields.DATE + ": " + value + "\r\n\r\n").getBytes(Charsets.ISO_8859_1);
+            this.fieldAndEnd = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        }
+    }
+}
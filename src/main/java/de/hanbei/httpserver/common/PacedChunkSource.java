@@ -0,0 +1,28 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.common;
+
+/**
+ * A {@link ChunkSource} that must not be read faster than a certain pace. Before asking for the next chunk the server
+ * waits until {@link #nanosUntilNext()} has passed, without blocking a thread if the transport supports it.
+ */
+public interface PacedChunkSource extends ChunkSource {
+
+    /**
+     * Get the time until the next chunk may be sent.
+     *
+     * @return The time to wait in nanoseconds, 0 if the next chunk may be sent now.
+     */
+    long nanosUntilNext();
+}
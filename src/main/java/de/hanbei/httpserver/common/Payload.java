@@ -0,0 +1,282 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.common;
+
+import org.apache.commons.io.Charsets;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.concurrent.Callable;
+
+/**
+ * Synthetic bodies of any size, e.g. for throughput tests of a client. A payload is described by its size and seed
+ * only and generated chunk by chunk while it is sent, so it takes the same small amount of memory for a kilobyte as
+ * for a hundred gigabytes. The same description always produces the same bytes, so a client can verify what it got.
+ */
+public final class Payload {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(Charsets.US_ASCII);
+    private static final byte[] RECORD_START = "{\"id\":".getBytes(Charsets.US_ASCII);
+    private static final byte[] RECORD_VALUE = ",\"value\":\"".getBytes(Charsets.US_ASCII);
+    private static final byte[] RECORD_END = "\"}".getBytes(Charsets.US_ASCII);
+    private static final int RECORD_FIXED_LENGTH = RECORD_START.length + RECORD_VALUE.length + 16 + RECORD_END.length;
+    private static final int RECORD_MAX_LENGTH = RECORD_FIXED_LENGTH + 20;
+
+    private Payload() {
+        // factory methods only
+    }
+
+    /**
+     * Create a body repeating a pattern until it is <code>size</code> bytes long. The last repetition is cut off if
+     * necessary.
+     *
+     * @param pattern The bytes to repeat.
+     * @param size    The length of the body.
+     * @return The body.
+     */
+    public static Body repeat(byte[] pattern, long size) {
+        if (pattern.length == 0) {
+            throw new IllegalArgumentException("The pattern must not be empty");
+        }
+        checkSize(size);
+        final ByteBuffer tiles = tile(pattern);
+        final int period = pattern.length;
+        final long length = size;
+        return Body.stream(new Callable<ChunkSource>() {
+            @Override
+            public ChunkSource call() {
+                return new RepeatSource(tiles, period, length);
+            }
+        }, size);
+    }
+
+    /**
+     * Create a body of <code>size</code> pseudo random bytes. The bytes are the big endian output of a SplitMix64
+     * generator started with <code>seed</code>, so other implementations can reproduce them.
+     *
+     * @param seed The seed of the generator.
+     * @param size The length of the body.
+     * @return The body.
+     */
+    public static Body random(final long seed, final long size) {
+        checkSize(size);
+        return Body.stream(new Callable<ChunkSource>() {
+            @Override
+            public ChunkSource call() {
+                return new RandomSource(seed, size);
+            }
+        }, size);
+    }
+
+    /**
+     * Create a body holding a JSON array of <code>records</code> objects like
+     * <code>{"id":0,"value":"e220a8397b1dcdaf"}</code>. The ids count up from 0, the values are the SplitMix64 output
+     * for <code>seed</code> in hex.
+     *
+     * @param records The number of objects in the array.
+     * @param seed    The seed of the values.
+     * @return The body.
+     */
+    public static Body jsonArray(final long records, final long seed) {
+        checkSize(records);
+        return Body.stream(new Callable<ChunkSource>() {
+            @Override
+            public ChunkSource call() {
+                return new JsonArraySource(records, seed);
+            }
+        }, jsonArrayLength(records));
+    }
+
+    private static void checkSize(long size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("The size must not be negative: " + size);
+        }
+    }
+
+    /**
+     * Repeat the pattern into a buffer large enough to cut a full chunk out of it at every offset in the pattern.
+     */
+    private static ByteBuffer tile(byte[] pattern) {
+        int tiles = (CHUNK_SIZE + pattern.length - 1) / pattern.length + 1;
+        byte[] tiled = new byte[tiles * pattern.length];
+        System.arraycopy(pattern, 0, tiled, 0, pattern.length);
+        for (int filled = pattern.length; filled < tiled.length; filled *= 2) {
+            System.arraycopy(tiled, 0, tiled, filled, Math.min(filled, tiled.length - filled));
+        }
+        return ByteBuffer.wrap(tiled).asReadOnlyBuffer();
+    }
+
+    static long jsonArrayLength(long records) {
+        long length = 2 + records * RECORD_FIXED_LENGTH + Math.max(0, records - 1);
+        // add the digits of all ids, counted per number of digits
+        long lowest = 0;
+        long limit = 10;
+        for (int digits = 1; lowest < records; digits++) {
+            length += (Math.min(records, limit) - lowest) * digits;
+            lowest = limit;
+            limit = limit > Long.MAX_VALUE / 10 ? Long.MAX_VALUE : limit * 10;
+        }
+        return length;
+    }
+
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static final class RepeatSource implements ChunkSource {
+
+        private final ByteBuffer tiles;
+        private final int period;
+        private long remaining;
+        private int offset;
+
+        RepeatSource(ByteBuffer tiles, int period, long size) {
+            this.tiles = tiles.duplicate();
+            this.period = period;
+            this.remaining = size;
+        }
+
+        @Override
+        public ByteBuffer next() {
+            if (remaining == 0) {
+                return null;
+            }
+            int length = (int) Math.min(CHUNK_SIZE, remaining);
+            tiles.limit(offset + length).position(offset);
+            remaining -= length;
+            offset = (offset + length) % period;
+            return tiles;
+        }
+
+        @Override
+        public void close() {
+            remaining = 0;
+        }
+    }
+
+    private static final class RandomSource implements ChunkSource {
+
+        private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+        private final LongBuffer words = chunk.asLongBuffer();
+        private long state;
+        private long remaining;
+
+        RandomSource(long seed, long size) {
+            this.state = seed;
+            this.remaining = size;
+        }
+
+        @Override
+        public ByteBuffer next() {
+            if (remaining == 0) {
+                return null;
+            }
+            int length = (int) Math.min(CHUNK_SIZE, remaining);
+            int count = (length + 7) >>> 3;
+            long s = state;
+            for (int i = 0; i < count; i++) {
+                s += GOLDEN_GAMMA;
+                words.put(i, mix(s));
+            }
+            state = s;
+            remaining -= length;
+            chunk.limit(length).position(0);
+            return chunk;
+        }
+
+        @Override
+        public void close() {
+            remaining = 0;
+        }
+    }
+
+    private static final class JsonArraySource implements ChunkSource {
+
+        private final byte[] bytes = new byte[CHUNK_SIZE];
+        private final long records;
+        private long state;
+        private long id;
+        private boolean started;
+        private boolean ended;
+
+        JsonArraySource(long records, long seed) {
+            this.records = records;
+            this.state = seed;
+        }
+
+        @Override
+        public ByteBuffer next() {
+            if (ended) {
+                return null;
+            }
+            int length = 0;
+            if (!started) {
+                bytes[length++] = '[';
+                started = true;
+            }
+            while (id < records && length + RECORD_MAX_LENGTH + 2 <= bytes.length) {
+                if (id > 0) {
+                    bytes[length++] = ',';
+                }
+                length = writeRecord(length);
+            }
+            if (id == records) {
+                bytes[length++] = ']';
+                ended = true;
+            }
+            return ByteBuffer.wrap(bytes, 0, length);
+        }
+
+        private int writeRecord(int position) {
+            int at = put(RECORD_START, position);
+            at = putDecimal(id, at);
+            at = put(RECORD_VALUE, at);
+            state += GOLDEN_GAMMA;
+            long value = mix(state);
+            for (int shift = 60; shift >= 0; shift -= 4) {
+                bytes[at++] = HEX[(int) (value >>> shift) & 0xf];
+            }
+            id++;
+            return put(RECORD_END, at);
+        }
+
+        private int put(byte[] part, int position) {
+            System.arraycopy(part, 0, bytes, position, part.length);
+            return position + part.length;
+        }
+
+        private int putDecimal(long value, int position) {
+            int digits = 1;
+            for (long rest = value / 10; rest > 0; rest /= 10) {
+                digits++;
+            }
+            long rest = value;
+            for (int at = position + digits - 1; at >= position; at--) {
+                bytes[at] = (byte) ('0' + rest % 10);
+                rest /= 10;
+            }
+            return position + digits;
+        }
+
+        @Override
+        public void close() {
+            ended = true;
+        }
+    }
+}
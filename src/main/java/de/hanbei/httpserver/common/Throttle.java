@@ -0,0 +1,165 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+
+/**
+ * A limit of the bandwidth a body is sent with, to simulate a slow network. The body is sent in chunks of a fixed
+ * size, each followed by a pause that keeps the average rate at the limit. Jitter adds a random pause after each
+ * chunk. Each connection sends at the limit on its own. Throttles are immutable.
+ *
+ * <pre>
+ * Throttle.kilobitsPerSecond(64).chunkSize(512).jitter(Delay.uniform(0, 20, TimeUnit.MILLISECONDS))
+ * </pre>
+ */
+public final class Throttle {
+
+    private static final int MAX_CHUNK_SIZE = 64 * 1024;
+    private static final int CHUNKS_PER_SECOND = 10;
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final long bytesPerSecond;
+    private final int chunkSize;
+    private final Delay jitter;
+
+    private Throttle(long bytesPerSecond, int chunkSize, Delay jitter) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.chunkSize = chunkSize;
+        this.jitter = jitter;
+    }
+
+    /**
+     * Limit the bandwidth to a number of bytes per second. The body is sent in about ten chunks per second.
+     *
+     * @param bytesPerSecond The bandwidth.
+     * @return A throttle without jitter.
+     */
+    public static Throttle bytesPerSecond(long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("bytesPerSecond has to be positive: " + bytesPerSecond);
+        }
+        int chunkSize = (int) Math.max(1, Math.min(MAX_CHUNK_SIZE, bytesPerSecond / CHUNKS_PER_SECOND));
+        return new Throttle(bytesPerSecond, chunkSize, Delay.none());
+    }
+
+    /**
+     * Limit the bandwidth to a number of kilobits per second, as links are usually specified.
+     *
+     * @param kilobitsPerSecond The bandwidth, e.g. 64 for an ISDN line.
+     * @return A throttle without jitter.
+     */
+    public static Throttle kilobitsPerSecond(long kilobitsPerSecond) {
+        return bytesPerSecond(kilobitsPerSecond * 1000 / 8);
+    }
+
+    /**
+     * Set the size of the chunks the body is sent in. The pause after each chunk is the time the chunk takes at the
+     * bandwidth, so larger chunks make a more bursty link.
+     *
+     * @param size The size of the chunks in bytes.
+     * @return A throttle with the chunk size.
+     */
+    public Throttle chunkSize(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size has to be positive: " + size);
+        }
+        return new Throttle(bytesPerSecond, size, jitter);
+    }
+
+    /**
+     * Add a random pause after each chunk, which lowers the bandwidth accordingly.
+     *
+     * @param pause The distribution the additional pause is drawn from.
+     * @return A throttle with the jitter.
+     */
+    public Throttle jitter(Delay pause) {
+        if (pause == null) {
+            throw new IllegalArgumentException("The jitter must not be null, use Delay.none()");
+        }
+        return new Throttle(bytesPerSecond, chunkSize, pause);
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public Delay getJitter() {
+        return jitter;
+    }
+
+    /**
+     * Throttle a body. The throttled body has the same length and is read through a {@link PacedChunkSource}.
+     *
+     * @param body The body to throttle.
+     * @return A streamed body sent at the pace of this throttle.
+     */
+    public Body apply(final Body body) {
+        return Body.stream(new Callable<ChunkSource>() {
+            @Override
+            public ChunkSource call() throws IOException {
+                return new Paced(body.open());
+            }
+        }, body.length());
+    }
+
+    @Override
+    public String toString() {
+        return "Throttle(" + bytesPerSecond + " bytes/s, chunks of " + chunkSize + ", jitter " + jitter + ")";
+    }
+
+    private final class Paced implements PacedChunkSource {
+
+        private final ChunkSource source;
+        private ByteBuffer pending;
+        private long nextAt = System.nanoTime();
+
+        Paced(ChunkSource source) {
+            this.source = source;
+        }
+
+        @Override
+        public long nanosUntilNext() {
+            return Math.max(0, nextAt - System.nanoTime());
+        }
+
+        @Override
+        public ByteBuffer next() throws IOException {
+            while (pending == null || !pending.hasRemaining()) {
+                pending = source.next();
+                if (pending == null) {
+                    return null;
+                }
+            }
+            int size = Math.min(chunkSize, pending.remaining());
+            ByteBuffer chunk = pending.duplicate();
+            chunk.limit(chunk.position() + size);
+            pending.position(pending.position() + size);
+            // a client reading slower than the limit does not build up credit for a burst
+            nextAt = Math.max(nextAt, System.nanoTime()) + size * NANOS_PER_SECOND / bytesPerSecond + jitter.nanos();
+            return chunk;
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+}
@@ -15,6 +15,10 @@ package de.hanbei.httpserver.exceptions;
 
 public class ContentException extends RuntimeException {
 
+    public ContentException(String message) {
+        super(message);
+    }
+
     public ContentException(Throwable throwable) {
         super(throwable);
     }
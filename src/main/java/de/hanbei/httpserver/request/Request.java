@@ -14,18 +14,61 @@ limitations under the License. */
 package de.hanbei.httpserver.request;
 
 import de.hanbei.httpserver.common.Content;
+import de.hanbei.httpserver.common.Cookie;
 import de.hanbei.httpserver.common.HTTPVersion;
 import de.hanbei.httpserver.common.Header;
 import de.hanbei.httpserver.common.Method;
+import de.hanbei.httpserver.exceptions.ContentException;
 
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import static de.hanbei.httpserver.common.Header.Fields;
 
+/**
+ * A request received by the server. A request created for a received exchange is a view on it: the version, header
+ * fields, cookies and content are only read from the {@link Source} when they are first asked for, so a processor
+ * that only looks at the method and path costs next to nothing.
+ */
 public final class Request {
 
+    /**
+     * The received request a {@link Request} reads its fields from when they are first asked for.
+     */
+    public interface Source {
+
+        /**
+         * Get the protocol of the request, e.g. <code>HTTP/1.1</code>.
+         *
+         * @return The request protocol.
+         */
+        String getProtocol();
+
+        /**
+         * Get all header fields of the request. Lookups in the returned map ignore the case of the field name.
+         *
+         * @return The header fields of the request.
+         */
+        Map<String, List<String>> getHeaders();
+
+        /**
+         * Get the whole body of the request.
+         *
+         * @return A buffer with the body of the request.
+         * @throws IOException If the body could not be read.
+         */
+        ByteBuffer getBody() throws IOException;
+    }
+
+    private Source source;
+
     private Method method;
 
     private URI requestUri;
@@ -36,9 +79,27 @@ public final class Request {
 
     private Content content;
 
+    private Map<String, String> pathVariables;
+
     public Request() {
         header = new Header();
         content = new Content();
+        pathVariables = Collections.emptyMap();
+    }
+
+    /**
+     * Create a request reading its version, header fields, cookies and content from a source when they are first
+     * asked for.
+     *
+     * @param method     The method of the request.
+     * @param requestUri The uri of the request.
+     * @param source     The received request.
+     */
+    public Request(Method method, URI requestUri, Source source) {
+        this.method = method;
+        this.requestUri = requestUri;
+        this.source = source;
+        pathVariables = Collections.emptyMap();
     }
 
     public Method getMethod() {
@@ -57,27 +118,85 @@ public final class Request {
         this.requestUri = requestUri;
     }
 
+    /**
+     * Get the parameters of the query of the request uri, decoded and in the order of the query.
+     *
+     * @return The query parameters, empty if the uri has no query.
+     */
     public List<QueryParameter> getQueryParameter() {
-        List<QueryParameter> queryParameters = new ArrayList<QueryParameter>();
+        return parseQuery(requestUri == null ? null : requestUri.getRawQuery());
+    }
 
-        String queryString = requestUri.getQuery();
-        if (queryString != null) {
-            String[] parameters = queryString.split("&");
-            for (String parameterString : parameters) {
-                String[] parameterSplit = parameterString.split("=");
-                QueryParameter parameter = new QueryParameter(parameterSplit[0], parameterSplit[1]);
-                queryParameters.add(parameter);
+    /**
+     * Parse a raw query like <code>q=a%26b&amp;page=2</code>. The query is split at <code>&amp;</code> and
+     * <code>=</code> before names and values are decoded, so encoded delimiters stay part of a value. A parameter
+     * without <code>=</code> gets an empty value. Malformed escapes are kept as they are.
+     *
+     * @param rawQuery The query as sent, see {@link URI#getRawQuery()}, or <code>null</code>.
+     * @return The decoded query parameters in the order of the query, empty if there is no query.
+     */
+    public static List<QueryParameter> parseQuery(String rawQuery) {
+        if (rawQuery == null || rawQuery.length() == 0) {
+            return Collections.emptyList();
+        }
+        List<QueryParameter> queryParameters = new ArrayList<QueryParameter>();
+        for (String parameter : rawQuery.split("&")) {
+            if (parameter.length() == 0) {
+                continue;
             }
+            int equals = parameter.indexOf('=');
+            String name = equals < 0 ? parameter : parameter.substring(0, equals);
+            String value = equals < 0 ? "" : parameter.substring(equals + 1);
+            queryParameters.add(new QueryParameter(decode(name), decode(value)));
         }
-
         return queryParameters;
     }
 
+    private static String decode(String encoded) {
+        if (encoded.indexOf('%') < 0 && encoded.indexOf('+') < 0) {
+            return encoded;
+        }
+        try {
+            return URLDecoder.decode(encoded, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not supported", e);
+        } catch (IllegalArgumentException e) {
+            return encoded;
+        }
+    }
+
+    /**
+     * Get a variable captured from the request path by a path pattern like <code>/users/{id}</code>.
+     *
+     * @param name The name of the variable, e.g. <code>id</code>.
+     * @return The raw path segment captured for the variable or <code>null</code> if there is no such variable.
+     */
+    public String getPathVariable(String name) {
+        return pathVariables.get(name);
+    }
+
+    /**
+     * Get all variables captured from the request path.
+     *
+     * @return The captured variables by name.
+     */
+    public Map<String, String> getPathVariables() {
+        return Collections.unmodifiableMap(pathVariables);
+    }
+
+    public void setPathVariables(Map<String, String> pathVariables) {
+        this.pathVariables = pathVariables;
+    }
+
     public void setVersion(HTTPVersion httpVersion) {
         this.version = httpVersion;
     }
 
     public HTTPVersion getVersion() {
+        if (version == null && source != null) {
+            String protocol = source.getProtocol();
+            version = HTTPVersion.parseString(protocol.substring(protocol.indexOf('/') + 1));
+        }
         return this.version;
     }
 
@@ -88,9 +207,9 @@ public final class Request {
         builder.append(" ");
         builder.append(this.requestUri);
         builder.append(" HTTP/");
-        builder.append(this.version);
+        builder.append(getVersion());
         builder.append("\n");
-        builder.append(header.toString());
+        builder.append(getHeader().toString());
         return builder.toString();
     }
 
@@ -99,10 +218,16 @@ public final class Request {
     }
 
     public Header getHeader() {
+        if (header == null) {
+            header = source == null ? new Header() : readHeader();
+        }
         return header;
     }
 
     public Content getContent() {
+        if (content == null) {
+            content = source == null ? new Content() : readContent();
+        }
         return content;
     }
 
@@ -120,6 +245,67 @@ public final class Request {
     }
 
     public URI getHost() {
-        return URI.create(header.getHeaderValues(Fields.HOST).get(0));
+        if (header == null && source != null) {
+            return URI.create(getField(Fields.HOST));
+        }
+        return URI.create(getHeader().getHeaderValues(Fields.HOST).get(0));
+    }
+
+    private Header readHeader() {
+        Header fields = new Header();
+        for (Map.Entry<String, List<String>> field : source.getHeaders().entrySet()) {
+            for (String value : field.getValue()) {
+                fields.addParameter(field.getKey(), value);
+            }
+        }
+        List<String> cookies = source.getHeaders().get(Fields.COOKIE);
+        if (cookies != null) {
+            for (String cookie : cookies) {
+                for (String pair : cookie.split(";")) {
+                    int equals = pair.indexOf('=');
+                    if (equals > 0) {
+                        String name = pair.substring(0, equals).trim();
+                        fields.addCookie(new Cookie(name, pair.substring(equals + 1).trim()));
+                    }
+                }
+            }
+        }
+        return fields;
+    }
+
+    private Content readContent() {
+        Content body = new Content();
+        String encoding = getField(Fields.CONTENT_ENCODING);
+        if (encoding != null) {
+            body.setEncoding(encoding);
+        }
+        body.setLanguage(getField(Fields.CONTENT_LANGUAGE));
+        body.setMd5(getField(Fields.CONTENT_MD5));
+        String contentType = getField(Fields.CONTENT_TYPE);
+        if (contentType != null) {
+            if (encoding != null) {
+                body.setMimetype(contentType + ";" + encoding);
+            } else {
+                body.setMimetype(contentType);
+            }
+        }
+        String contentRange = getField(Fields.CONTENT_RANGE);
+        if (contentRange != null) {
+            body.setRange(contentRange);
+        }
+        try {
+            body.setContent(source.getBody());
+        } catch (IOException e) {
+            throw new ContentException(e);
+        }
+        return body;
+    }
+
+    private String getField(String name) {
+        List<String> values = source.getHeaders().get(name);
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        return values.get(0);
     }
 }
@@ -0,0 +1,270 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.request;
+
+import de.hanbei.httpserver.common.Cookie;
+import de.hanbei.httpserver.common.Header;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A declarative predicate a request has to fulfill to get a certain response. A matcher is a set of conditions on
+ * header fields, query parameters, cookies and the body, see {@link RequestMatcherBuilder}. Matchers are immutable.
+ * <p/>
+ * The equality conditions on header fields, query parameters and cookies are used by the server to index the
+ * matchers mapped to the same uri, so choosing among many of them does not test them one after the other.
+ */
+public final class RequestMatcher {
+
+    /**
+     * The part of a request a condition is about.
+     */
+    public enum Attribute {
+        HEADER, QUERY, COOKIE, BODY
+    }
+
+    private final List<Condition> conditions;
+
+    RequestMatcher(List<Condition> conditions) {
+        this.conditions = Collections.unmodifiableList(new ArrayList<Condition>(conditions));
+    }
+
+    /**
+     * Create a matcher requiring a header field with a certain value.
+     *
+     * @param name  The name of the header field.
+     * @param value The value of the header field.
+     * @return A RequestMatcherBuilder to add additional conditions.
+     */
+    public static RequestMatcherBuilder header(String name, String value) {
+        return new RequestMatcherBuilder().header(name, value);
+    }
+
+    /**
+     * Create a matcher requiring a query parameter with a certain value.
+     *
+     * @param name  The name of the query parameter.
+     * @param value The decoded value of the query parameter.
+     * @return A RequestMatcherBuilder to add additional conditions.
+     */
+    public static RequestMatcherBuilder query(String name, String value) {
+        return new RequestMatcherBuilder().query(name, value);
+    }
+
+    /**
+     * Create a matcher requiring a cookie with a certain value.
+     *
+     * @param name  The name of the cookie.
+     * @param value The value of the cookie.
+     * @return A RequestMatcherBuilder to add additional conditions.
+     */
+    public static RequestMatcherBuilder cookie(String name, String value) {
+        return new RequestMatcherBuilder().cookie(name, value);
+    }
+
+    /**
+     * Create a matcher requiring a body fulfilling a predicate.
+     *
+     * @param predicate The predicate the body has to fulfill.
+     * @return A RequestMatcherBuilder to add additional conditions.
+     */
+    public static RequestMatcherBuilder body(BodyPredicate predicate) {
+        return new RequestMatcherBuilder().body(predicate);
+    }
+
+    /**
+     * Does a request fulfill all conditions.
+     *
+     * @param request The request to test.
+     * @return true if the request fulfills all conditions.
+     */
+    public boolean matches(Request request) {
+        for (Condition condition : conditions) {
+            if (!condition.matches(request)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public List<Condition> getConditions() {
+        return conditions;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof RequestMatcher && conditions.equals(((RequestMatcher) o).conditions);
+    }
+
+    @Override
+    public int hashCode() {
+        return conditions.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return conditions.toString();
+    }
+
+    /**
+     * A single condition of a matcher. Conditions without a predicate require an attribute to have a certain value.
+     */
+    public static final class Condition {
+
+        private final Attribute attribute;
+        private final String name;
+        private final String value;
+        private final BodyPredicate predicate;
+
+        Condition(Attribute attribute, String name, String value, BodyPredicate predicate) {
+            this.attribute = attribute;
+            this.name = name;
+            this.value = value;
+            this.predicate = predicate;
+        }
+
+        public Attribute getAttribute() {
+            return attribute;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * Can the condition be looked up by the value of its attribute.
+         *
+         * @return true for conditions requiring a header field, query parameter or cookie to have a certain value.
+         */
+        public boolean isEquality() {
+            return attribute != Attribute.BODY && value != null;
+        }
+
+        /**
+         * Does a request fulfill the condition.
+         *
+         * @param request The request to test.
+         * @return true if the request fulfills the condition.
+         */
+        public boolean matches(Request request) {
+            if (attribute == Attribute.BODY) {
+                if (predicate != null) {
+                    return predicate.matches(request.getContent());
+                }
+                return value.equals(request.getContent().getContentAsString());
+            }
+            return values(request).contains(value);
+        }
+
+        /**
+         * Get the values of the attribute of this condition in a request, e.g. all values of a header field.
+         *
+         * @param request The request.
+         * @return The values, possibly empty.
+         */
+        public List<String> values(Request request) {
+            switch (attribute) {
+                case HEADER:
+                    return headerValues(request.getHeader(), name);
+                case QUERY:
+                    return queryValues(request, name);
+                case COOKIE:
+                    return cookieValues(request.getHeader(), name);
+                default:
+                    return Collections.singletonList(request.getContent().getContentAsString());
+            }
+        }
+
+        private static List<String> headerValues(Header header, String name) {
+            List<String> values = new ArrayList<String>();
+            for (String field : header.getHeaderFields()) {
+                if (field.equalsIgnoreCase(name)) {
+                    values.addAll(header.getHeaderValues(field));
+                }
+            }
+            return values;
+        }
+
+        private static List<String> queryValues(Request request, String name) {
+            List<String> values = new ArrayList<String>();
+            for (QueryParameter parameter : request.getQueryParameter()) {
+                if (parameter.getName().equals(name)) {
+                    values.add(parameter.getValue());
+                }
+            }
+            return values;
+        }
+
+        private static List<String> cookieValues(Header header, String name) {
+            List<String> values = new ArrayList<String>();
+            for (Cookie cookie : header.getCookies()) {
+                if (name.equals(cookie.getName())) {
+                    values.add(cookie.getValue());
+                }
+            }
+            if (!values.isEmpty()) {
+                // a ported request holds the cookies of its Cookie fields, only look at fields added by hand
+                return values;
+            }
+            for (String line : headerValues(header, Header.Fields.COOKIE)) {
+                for (String pair : line.split(";")) {
+                    int equals = pair.indexOf('=');
+                    if (equals > 0 && pair.substring(0, equals).trim().equals(name)) {
+                        values.add(pair.substring(equals + 1).trim());
+                    }
+                }
+            }
+            return values;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Condition)) {
+                return false;
+            }
+            Condition other = (Condition) o;
+            return attribute == other.attribute && equal(name, other.name) && equal(value, other.value)
+                    && predicate == other.predicate;
+        }
+
+        private static boolean equal(Object a, Object b) {
+            return a == null ? b == null : a.equals(b);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = attribute.hashCode();
+            result = 31 * result + (name != null ? name.hashCode() : 0);
+            result = 31 * result + (value != null ? value.hashCode() : 0);
+            result = 31 * result + (predicate != null ? predicate.hashCode() : 0);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            String subject = attribute == Attribute.BODY ? "body" : attribute.name().toLowerCase(Locale.ENGLISH) + " " + name;
+            return subject + (predicate != null ? " matches " + predicate : " = " + value);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.request;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builder Pattern implementation for building request matchers. Every condition added has to be fulfilled by a request
+ * for the matcher to match.
+ */
+public class RequestMatcherBuilder {
+
+    private final List<RequestMatcher.Condition> conditions;
+
+    RequestMatcherBuilder() {
+        conditions = new ArrayList<RequestMatcher.Condition>();
+    }
+
+    /**
+     * Actually build the matcher.
+     *
+     * @return The built matcher.
+     */
+    public RequestMatcher build() {
+        return new RequestMatcher(conditions);
+    }
+
+    /**
+     * Require a header field with a certain value. Header names are compared ignoring case.
+     *
+     * @param name  The name of the header field.
+     * @param value The value one of the fields with this name has to have.
+     * @return A RequestMatcherBuilder to add additional conditions.
+     */
+    public RequestMatcherBuilder header(String name, String value) {
+        return add(new RequestMatcher.Condition(RequestMatcher.Attribute.HEADER, name, value, null));
+    }
+
+    /**
+     * Require a query parameter with a certain decoded value.
+     *
+     * @param name  The name of the query parameter.
+     * @param value The value one of the parameters with this name has to have.
+     * @return A RequestMatcherBuilder to add additional conditions.
+     */
+    public RequestMatcherBuilder query(String name, String value) {
+        return add(new RequestMatcher.Condition(RequestMatcher.Attribute.QUERY, name, value, null));
+    }
+
+    /**
+     * Require a cookie with a certain value.
+     *
+     * @param name  The name of the cookie.
+     * @param value The value the cookie has to have.
+     * @return A RequestMatcherBuilder to add additional conditions.
+     */
+    public RequestMatcherBuilder cookie(String name, String value) {
+        return add(new RequestMatcher.Condition(RequestMatcher.Attribute.COOKIE, name, value, null));
+    }
+
+    /**
+     * Require a body equal to a string.
+     *
+     * @param body The body the request has to have.
+     * @return A RequestMatcherBuilder to add additional conditions.
+     */
+    public RequestMatcherBuilder body(String body) {
+        return add(new RequestMatcher.Condition(RequestMatcher.Attribute.BODY, null, body, null));
+    }
+
+    /**
+     * Require a body fulfilling a predicate.
+     *
+     * @param predicate The predicate the body has to fulfill.
+     * @return A RequestMatcherBuilder to add additional conditions.
+     */
+    public RequestMatcherBuilder body(BodyPredicate predicate) {
+        return add(new RequestMatcher.Condition(RequestMatcher.Attribute.BODY, null, null, predicate));
+    }
+
+    private RequestMatcherBuilder add(RequestMatcher.Condition condition) {
+        conditions.add(condition);
+        return this;
+    }
+}
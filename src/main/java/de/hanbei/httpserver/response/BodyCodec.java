@@ -0,0 +1,45 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes objects set with {@link ResponseBuilder#content(Object)} into the body of a response, for the mimetypes it
+ * supports. Codecs are registered with {@link BodyCodecs#register(BodyCodec)} or found with the
+ * {@link java.util.ServiceLoader} in <code>META-INF/services/de.hanbei.httpserver.response.BodyCodec</code>, so a
+ * codec for CBOR or Smile can be added without changing the server. Codecs are used by many threads at once.
+ */
+public interface BodyCodec {
+
+    /**
+     * Can this codec encode a body of a mimetype.
+     *
+     * @param mimetype The mimetype in lower case without parameters, e.g. <code>application/json</code>, or
+     *                 <code>null</code> if the response has no type.
+     * @return true if the codec encodes bodies of the mimetype.
+     */
+    boolean supports(String mimetype);
+
+    /**
+     * Encode an object.
+     *
+     * @param content The object, may be <code>null</code>.
+     * @param out     The stream to write the encoded body to. It collects the body in memory, so writing single
+     *                bytes is cheap and the stream need not be buffered or closed.
+     * @throws IOException if the object cannot be encoded.
+     */
+    void encode(Object content, OutputStream out) throws IOException;
+}
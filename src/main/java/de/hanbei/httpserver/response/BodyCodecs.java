@@ -0,0 +1,180 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.response;
+
+import de.hanbei.httpserver.exceptions.ContentException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The codecs objects set as content are encoded with, chosen by the mimetype of the response. Registered codecs come
+ * first, then the codecs found by the {@link ServiceLoader}, then the built-in {@link JsonCodec} and Java
+ * serialization. Objects of responses whose type no codec supports, or without a type, are encoded with Java
+ * serialization as they were before there were codecs.
+ * <p/>
+ * Objects are encoded into a byte array each thread reuses and then copied once into a body of the exact size, so
+ * encoding the results of a {@link de.hanbei.httpserver.RequestProcessor} again and again does not grow a new buffer
+ * for each of them.
+ */
+public final class BodyCodecs {
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    private static final int MAX_KEPT_BUFFER_SIZE = 1024 * 1024;
+    private static final BodyCodec SERIALIZATION = new SerializationCodec();
+    private static final List<BodyCodec> CODECS = new CopyOnWriteArrayList<BodyCodec>(defaults());
+    private static final ThreadLocal<EncodingBuffer> BUFFERS = new ThreadLocal<EncodingBuffer>() {
+        @Override
+        protected EncodingBuffer initialValue() {
+            return new EncodingBuffer();
+        }
+    };
+
+    private BodyCodecs() {
+        // only static methods
+    }
+
+    private static List<BodyCodec> defaults() {
+        List<BodyCodec> codecs = new ArrayList<BodyCodec>();
+        for (BodyCodec codec : ServiceLoader.load(BodyCodec.class, BodyCodecs.class.getClassLoader())) {
+            codecs.add(codec);
+        }
+        codecs.add(new JsonCodec());
+        codecs.add(SERIALIZATION);
+        return codecs;
+    }
+
+    /**
+     * Add a codec. It is asked before all codecs registered earlier and the built-in ones, so it can replace them.
+     *
+     * @param codec The codec.
+     */
+    public static void register(BodyCodec codec) {
+        if (codec == null) {
+            throw new IllegalArgumentException("The codec must not be null");
+        }
+        CODECS.add(0, codec);
+    }
+
+    /**
+     * Find the codec for a mimetype.
+     *
+     * @param mimetype The mimetype, may have parameters like a charset, or <code>null</code>.
+     * @return The codec or <code>null</code> if no codec supports the mimetype.
+     */
+    public static BodyCodec find(String mimetype) {
+        String normalized = normalize(mimetype);
+        for (BodyCodec codec : CODECS) {
+            if (codec.supports(normalized)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Encode an object with the codec for a mimetype, or with Java serialization if no codec supports it.
+     *
+     * @param content  The object.
+     * @param mimetype The mimetype of the response or <code>null</code>.
+     * @return A read-only buffer with the encoded object.
+     * @throws ContentException if the object cannot be encoded.
+     */
+    static ByteBuffer encode(Object content, String mimetype) {
+        BodyCodec codec = find(mimetype);
+        if (codec == null) {
+            codec = SERIALIZATION;
+        }
+        EncodingBuffer buffer = BUFFERS.get();
+        if (buffer.inUse) {
+            // a codec encoding a part of its object with another one
+            buffer = new EncodingBuffer();
+        }
+        buffer.inUse = true;
+        try {
+            codec.encode(content, buffer);
+            return buffer.copy();
+        } catch (IOException e) {
+            throw new ContentException(e);
+        } finally {
+            buffer.reset();
+        }
+    }
+
+    static String normalize(String mimetype) {
+        if (mimetype == null) {
+            return null;
+        }
+        int parameters = mimetype.indexOf(';');
+        String type = (parameters < 0 ? mimetype : mimetype.substring(0, parameters)).trim();
+        return type.isEmpty() ? null : type.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * A byte array output stream that keeps its array for the next object, unless it grew very large.
+     */
+    private static final class EncodingBuffer extends OutputStream {
+
+        private byte[] bytes = new byte[INITIAL_BUFFER_SIZE];
+        private int length;
+        private boolean inUse;
+
+        @Override
+        public void write(int b) {
+            if (length == bytes.length) {
+                grow(1);
+            }
+            bytes[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (len > bytes.length - length) {
+                grow(len);
+            }
+            System.arraycopy(b, off, bytes, length, len);
+            length += len;
+        }
+
+        private void grow(int needed) {
+            int capacity = Math.max(bytes.length * 2, length + needed);
+            if (capacity < 0) {
+                throw new ContentException("The encoded object is larger than 2 GB");
+            }
+            byte[] grown = new byte[capacity];
+            System.arraycopy(bytes, 0, grown, 0, length);
+            bytes = grown;
+        }
+
+        ByteBuffer copy() {
+            byte[] copy = new byte[length];
+            System.arraycopy(bytes, 0, copy, 0, length);
+            return ByteBuffer.wrap(copy).asReadOnlyBuffer();
+        }
+
+        void reset() {
+            length = 0;
+            inUse = false;
+            if (bytes.length > MAX_KEPT_BUFFER_SIZE) {
+                bytes = new byte[INITIAL_BUFFER_SIZE];
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.response;
+
+import de.hanbei.httpserver.common.HTTPVersion;
+import de.hanbei.httpserver.common.Status;
+import org.apache.commons.io.Charsets;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Encodes the head of a response, status line and header fields, as ASCII straight into a byte array that each thread
+ * reuses. The status lines and the field names with their separator are encoded once and then copied, only the values
+ * are encoded per head. Characters outside of ISO-8859-1 are replaced with <code>?</code>.
+ * <p/>
+ * An encoder is taken with {@link #start()} and used by one method at a time, a head is complete once it is copied
+ * out with {@link #toBuffer(byte[])}.
+ */
+final class HeadEncoder {
+
+    static final byte[] CRLF = {'\r', '\n'};
+
+    private static final int MAX_CACHED = 256;
+    private static final ConcurrentMap<Status, byte[][]> STATUS_LINES = new ConcurrentHashMap<Status, byte[][]>();
+    private static final ConcurrentMap<String, byte[]> NAMES = new ConcurrentHashMap<String, byte[]>();
+    private static final ThreadLocal<HeadEncoder> ENCODERS = new ThreadLocal<HeadEncoder>() {
+        @Override
+        protected HeadEncoder initialValue() {
+            return new HeadEncoder();
+        }
+    };
+
+    private byte[] bytes = new byte[512];
+    private int length;
+
+    private HeadEncoder() {
+        // one per thread
+    }
+
+    /**
+     * Get the encoder of the current thread, emptied.
+     *
+     * @return The encoder.
+     */
+    static HeadEncoder start() {
+        HeadEncoder encoder = ENCODERS.get();
+        encoder.length = 0;
+        return encoder;
+    }
+
+    HeadEncoder statusLine(HTTPVersion version, Status status) {
+        byte[][] lines = STATUS_LINES.get(status);
+        if (lines == null) {
+            lines = new byte[][]{
+                    ascii("HTTP/1.0 " + status.getStatusCode() + " " + status.getReason() + "\r\n"),
+                    ascii("HTTP/1.1 " + status.getStatusCode() + " " + status.getReason() + "\r\n")};
+            if (STATUS_LINES.size() < MAX_CACHED) {
+                STATUS_LINES.putIfAbsent(status, lines);
+            }
+        }
+        return append(lines[version == HTTPVersion.VERSION1_0 ? 0 : 1]);
+    }
+
+    HeadEncoder field(String name, String value) {
+        byte[] encodedName = NAMES.get(name);
+        if (encodedName == null) {
+            encodedName = ascii(name + ": ");
+            if (NAMES.size() < MAX_CACHED) {
+                NAMES.putIfAbsent(name, encodedName);
+            }
+        }
+        append(encodedName);
+        int valueLength = value.length();
+        ensure(valueLength + 2);
+        for (int i = 0; i < valueLength; i++) {
+            char c = value.charAt(i);
+            bytes[length++] = c < 0x100 ? (byte) c : (byte) '?';
+        }
+        return append(CRLF);
+    }
+
+    HeadEncoder field(String name, long value) {
+        return field(name, Long.toString(value));
+    }
+
+    HeadEncoder append(byte[] encoded) {
+        ensure(encoded.length);
+        System.arraycopy(encoded, 0, bytes, length, encoded.length);
+        length += encoded.length;
+        return this;
+    }
+
+    /**
+     * Copy the head out of the encoder, ending it with the empty line. The encoder keeps its content, so heads
+     * differing only in their last line can be copied one after the other.
+     *
+     * @param lastLine A line to add to this copy only, may be <code>null</code>.
+     * @return A read-only buffer with the head.
+     */
+    ByteBuffer toBuffer(byte[] lastLine) {
+        int extra = lastLine == null ? 0 : lastLine.length;
+        byte[] head = new byte[length + extra + CRLF.length];
+        System.arraycopy(bytes, 0, head, 0, length);
+        if (lastLine != null) {
+            System.arraycopy(lastLine, 0, head, length, extra);
+        }
+        System.arraycopy(CRLF, 0, head, length + extra, CRLF.length);
+        return ByteBuffer.wrap(head).asReadOnlyBuffer();
+    }
+
+    /**
+     * Copy the encoded lines out of the encoder as they are, without an empty line.
+     *
+     * @return A read-only buffer with the lines.
+     */
+    ByteBuffer toLines() {
+        byte[] lines = new byte[length];
+        System.arraycopy(bytes, 0, lines, 0, length);
+        return ByteBuffer.wrap(lines).asReadOnlyBuffer();
+    }
+
+    static byte[] ascii(String text) {
+        return text.getBytes(Charsets.ISO_8859_1);
+    }
+
+    private void ensure(int needed) {
+        if (length + needed > bytes.length) {
+            byte[] grown = new byte[Math.max(bytes.length * 2, length + needed)];
+            System.arraycopy(bytes, 0, grown, 0, length);
+            bytes = grown;
+        }
+    }
+}
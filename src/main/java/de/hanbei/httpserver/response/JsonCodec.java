@@ -0,0 +1,279 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.response;
+
+import de.hanbei.httpserver.exceptions.ContentException;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Encodes objects as JSON in UTF-8, for <code>application/json</code>, <code>text/json</code> and all types ending in
+ * <code>+json</code>. Maps become objects, collections and arrays become arrays, numbers, booleans and
+ * <code>null</code> stay what they are, enums are written by name, dates as milliseconds since the epoch and all
+ * other values as strings if they are char sequences or characters. Any other object becomes an object of its bean
+ * properties and public fields, which are looked up once per class.
+ */
+public final class JsonCodec implements BodyCodec {
+
+    private static final int MAX_DEPTH = 256;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final ConcurrentMap<Class<?>, Property[]> PROPERTIES = new ConcurrentHashMap<Class<?>, Property[]>();
+
+    @Override
+    public boolean supports(String mimetype) {
+        return mimetype != null
+                && ("application/json".equals(mimetype) || "text/json".equals(mimetype) || mimetype.endsWith("+json"));
+    }
+
+    @Override
+    public void encode(Object content, OutputStream out) throws IOException {
+        value(content, out, 0);
+    }
+
+    private static void value(Object value, OutputStream out, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new ContentException("The object is nested deeper than " + MAX_DEPTH + " levels, is it cyclic?");
+        }
+        if (value == null) {
+            out.write(NULL);
+        } else if (value instanceof CharSequence || value instanceof Character) {
+            string(value.toString(), out);
+        } else if (value instanceof Boolean) {
+            out.write((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Number) {
+            number((Number) value, out);
+        } else if (value instanceof Enum) {
+            string(((Enum<?>) value).name(), out);
+        } else if (value instanceof Date) {
+            ascii(Long.toString(((Date) value).getTime()), out);
+        } else if (value instanceof Map) {
+            map((Map<?, ?>) value, out, depth);
+        } else if (value instanceof Iterable) {
+            out.write('[');
+            boolean first = true;
+            for (Object element : (Iterable<?>) value) {
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                value(element, out, depth + 1);
+            }
+            out.write(']');
+        } else if (value.getClass().isArray()) {
+            out.write('[');
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                value(Array.get(value, i), out, depth + 1);
+            }
+            out.write(']');
+        } else {
+            bean(value, out, depth);
+        }
+    }
+
+    private static void number(Number number, OutputStream out) throws IOException {
+        if (number instanceof Double || number instanceof Float) {
+            double d = number.doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                throw new ContentException(number + " cannot be written as JSON");
+            }
+        }
+        ascii(number.toString(), out);
+    }
+
+    private static void map(Map<?, ?> map, OutputStream out, int depth) throws IOException {
+        out.write('{');
+        boolean first = true;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            string(String.valueOf(entry.getKey()), out);
+            out.write(':');
+            value(entry.getValue(), out, depth + 1);
+        }
+        out.write('}');
+    }
+
+    private static void bean(Object bean, OutputStream out, int depth) throws IOException {
+        out.write('{');
+        boolean first = true;
+        for (Property property : properties(bean.getClass())) {
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            out.write(property.encodedName);
+            value(property.get(bean), out, depth + 1);
+        }
+        out.write('}');
+    }
+
+    private static Property[] properties(Class<?> type) {
+        Property[] properties = PROPERTIES.get(type);
+        if (properties != null) {
+            return properties;
+        }
+        List<Property> found = new ArrayList<Property>();
+        List<String> names = new ArrayList<String>();
+        try {
+            PropertyDescriptor[] descriptors = Introspector.getBeanInfo(type, Object.class).getPropertyDescriptors();
+            for (PropertyDescriptor descriptor : descriptors) {
+                Method getter = descriptor.getReadMethod();
+                if (getter != null && Modifier.isPublic(getter.getModifiers())) {
+                    getter.setAccessible(true);
+                    found.add(new Property(descriptor.getName(), getter));
+                    names.add(descriptor.getName());
+                }
+            }
+        } catch (IntrospectionException e) {
+            throw new ContentException(e);
+        }
+        for (Field field : type.getFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) && !names.contains(field.getName())) {
+                field.setAccessible(true);
+                found.add(new Property(field.getName(), field));
+            }
+        }
+        properties = found.toArray(new Property[found.size()]);
+        PROPERTIES.putIfAbsent(type, properties);
+        return properties;
+    }
+
+    private static void string(String value, OutputStream out) throws IOException {
+        out.write('"');
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                escape(c, out);
+            } else if (c < 0x80) {
+                out.write(c);
+            } else if (c < 0x800) {
+                out.write(0xc0 | c >> 6);
+                out.write(0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out.write(0xf0 | codePoint >> 18);
+                out.write(0x80 | codePoint >> 12 & 0x3f);
+                out.write(0x80 | codePoint >> 6 & 0x3f);
+                out.write(0x80 | codePoint & 0x3f);
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // a lone surrogate cannot be encoded in UTF-8, so it is kept as an escape
+                escape(c, out);
+            } else {
+                out.write(0xe0 | c >> 12);
+                out.write(0x80 | c >> 6 & 0x3f);
+                out.write(0x80 | c & 0x3f);
+            }
+        }
+        out.write('"');
+    }
+
+    private static void escape(char c, OutputStream out) throws IOException {
+        out.write('\\');
+        switch (c) {
+            case '\n':
+                out.write('n');
+                break;
+            case '\r':
+                out.write('r');
+                break;
+            case '\t':
+                out.write('t');
+                break;
+            case '\b':
+                out.write('b');
+                break;
+            case '\f':
+                out.write('f');
+                break;
+            default:
+                out.write('u');
+                out.write(HEX[c >> 12 & 0xf]);
+                out.write(HEX[c >> 8 & 0xf]);
+                out.write(HEX[c >> 4 & 0xf]);
+                out.write(HEX[c & 0xf]);
+        }
+    }
+
+    private static void ascii(String value, OutputStream out) throws IOException {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            out.write(value.charAt(i));
+        }
+    }
+
+    /**
+     * A bean property or public field with its name encoded once, including the quotes and the colon.
+     */
+    private static final class Property {
+
+        private final byte[] encodedName;
+        private final Member member;
+
+        Property(String name, Member member) {
+            this.member = member;
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            try {
+                string(name, encoded);
+            } catch (IOException e) {
+                throw new ContentException(e);
+            }
+            encoded.write(':');
+            this.encodedName = encoded.toByteArray();
+        }
+
+        Object get(Object bean) {
+            try {
+                if (member instanceof Method) {
+                    return ((Method) member).invoke(bean);
+                }
+                return ((Field) member).get(bean);
+            } catch (IllegalAccessException e) {
+                throw new ContentException(e);
+            } catch (InvocationTargetException e) {
+                throw new ContentException(e.getCause());
+            }
+        }
+    }
+}
@@ -14,14 +14,23 @@ limitations under the License. */
 
 package de.hanbei.httpserver.response;
 
+import de.hanbei.httpserver.common.Compression;
 import de.hanbei.httpserver.common.Content;
+import de.hanbei.httpserver.common.Delay;
+import de.hanbei.httpserver.common.FaultPolicy;
 import de.hanbei.httpserver.common.HTTPVersion;
+import de.hanbei.httpserver.common.Hang;
 import de.hanbei.httpserver.common.Header;
 import de.hanbei.httpserver.common.Status;
+import de.hanbei.httpserver.common.Throttle;
+
+import java.util.Collections;
+import java.util.List;
 
 /**
  * A HTTP response. Instances of this class can be build by calling the static creation methods and using the {@link
- * ResponseBuilder} class.
+ * ResponseBuilder} class. Building the response also encodes it into its {@link WireFormat}, which is what the server
+ * sends. Changes made to the header or content of a built response are only sent after building it again.
  */
 public final class Response {
 
@@ -33,6 +42,20 @@ public final class Response {
 
     private Content content;
 
+    private List<Compression> compressions = Collections.emptyList();
+
+    private boolean entityTagged;
+
+    private ResponseTemplate template;
+
+    private Delay delay;
+
+    private Throttle throttle;
+    private FaultPolicy faults;
+    private Hang hang;
+
+    private volatile WireFormat wireFormat;
+
     private Response() {
         // not needed
     }
@@ -110,6 +133,155 @@ public final class Response {
         return content;
     }
 
+    /**
+     * Get the codings the body is compressed with in advance when the response is built.
+     *
+     * @return The codings in the order of preference.
+     */
+    public List<Compression> getCompressions() {
+        return compressions;
+    }
+
+    /**
+     * Set the codings the body is compressed with when the response is built.
+     *
+     * @param compressions The codings in the order of preference.
+     */
+    void setCompressions(List<Compression> compressions) {
+        this.compressions = compressions;
+    }
+
+    /**
+     * Is a strong entity tag computed from the body when the response is built.
+     *
+     * @return true if the response gets an ETag header field.
+     */
+    public boolean isEntityTagged() {
+        return entityTagged;
+    }
+
+    /**
+     * Set if a strong entity tag is computed from the body when the response is built.
+     *
+     * @param entityTagged true if the response should get an ETag header field.
+     */
+    void setEntityTagged(boolean entityTagged) {
+        this.entityTagged = entityTagged;
+    }
+
+    /**
+     * Get the template the body is rendered from for each request.
+     *
+     * @return The compiled template or <code>null</code> if the body is the same for all requests.
+     */
+    public ResponseTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * Set the template the body is rendered from for each request.
+     *
+     * @param template The compiled template.
+     */
+    void setTemplate(ResponseTemplate template) {
+        this.template = template;
+    }
+
+    /**
+     * Get the delay before this response is sent.
+     *
+     * @return The delay or <code>null</code> if the delay set for the server applies.
+     */
+    public Delay getDelay() {
+        return delay;
+    }
+
+    /**
+     * Set the delay before this response is sent.
+     *
+     * @param delay The delay, replacing the one set for the server.
+     */
+    void setDelay(Delay delay) {
+        this.delay = delay;
+    }
+
+    /**
+     * Get the bandwidth limit the body is sent with.
+     *
+     * @return The throttle or <code>null</code> if the throttle set for the server applies.
+     */
+    public Throttle getThrottle() {
+        return throttle;
+    }
+
+    /**
+     * Set the bandwidth limit the body is sent with.
+     *
+     * @param throttle The throttle, replacing the one set for the server.
+     */
+    void setThrottle(Throttle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * Get the faults injected instead of this response.
+     *
+     * @return The fault policy or <code>null</code> if the faults set for the server apply.
+     */
+    public FaultPolicy getFaults() {
+        return faults;
+    }
+
+    /**
+     * Set the faults injected instead of this response.
+     *
+     * @param faults The fault policy, replacing the one set for the server.
+     */
+    void setFaults(FaultPolicy faults) {
+        this.faults = faults;
+    }
+
+    /**
+     * Get how the server hangs instead of sending this response.
+     *
+     * @return The hang or <code>null</code> if the hang set for the server applies.
+     */
+    public Hang getHang() {
+        return hang;
+    }
+
+    /**
+     * Let the server hang instead of sending this response.
+     *
+     * @param hang The hang, replacing the one set for the server.
+     */
+    void setHang(Hang hang) {
+        this.hang = hang;
+    }
+
+    /**
+     * Get the encoded form of this response as it is sent to the client.
+     *
+     * @return The encoded response as of the last time it was built.
+     */
+    public WireFormat getWireFormat() {
+        WireFormat encoded = wireFormat;
+        if (encoded == null) {
+            encoded = freeze();
+        }
+        return encoded;
+    }
+
+    /**
+     * Encode the current state of this response.
+     *
+     * @return The encoded response.
+     */
+    WireFormat freeze() {
+        wireFormat = WireFormat.of(this);
+        return wireFormat;
+    }
+
     /**
      * Create a response that represents a 404 Not Found. Additional information can be set via the returned {@link
      * ResponseBuilder} class.
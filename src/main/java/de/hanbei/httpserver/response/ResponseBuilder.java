@@ -13,20 +13,30 @@ See the License for the specific language governing permissions and
 limitations under the License. */
 package de.hanbei.httpserver.response;
 
+import de.hanbei.httpserver.common.Body;
+import de.hanbei.httpserver.common.Compression;
+import de.hanbei.httpserver.common.Delay;
+import de.hanbei.httpserver.common.FaultPolicy;
 import de.hanbei.httpserver.common.HTTPVersion;
+import de.hanbei.httpserver.common.Hang;
 import de.hanbei.httpserver.common.Header;
+import de.hanbei.httpserver.common.HttpDate;
+import de.hanbei.httpserver.common.Payload;
 import de.hanbei.httpserver.common.Status;
+import de.hanbei.httpserver.common.Throttle;
 import de.hanbei.httpserver.exceptions.ContentException;
 import org.apache.commons.io.Charsets;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.io.File;
+import java.io.InputStream;
 import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
-import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Builder Pattern implementation for building responses.
@@ -34,21 +44,25 @@ import java.util.TimeZone;
 public class ResponseBuilder {
 
     private static final String TEXT_PLAIN = "text/plain";
-    private final SimpleDateFormat dateFormat;
     private Response response;
+    private boolean encodeObject;
+    private Object object;
 
     ResponseBuilder(Response response) {
         this.response = response;
-        dateFormat = new SimpleDateFormat("EEE, dd MMM yyyyy HH:mm:ss z");
-        dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
     }
 
     /**
-     * Actually build the response.
+     * Actually build the response. The response is encoded once here and sent in this form on every request.
      *
      * @return The build response.
      */
     public Response build() {
+        if (encodeObject) {
+            response.getContent().setContent(BodyCodecs.encode(object, response.getContent().getMimetype()));
+            response.getContent().setString(false);
+        }
+        response.freeze();
         return response;
     }
 
@@ -86,20 +100,19 @@ public class ResponseBuilder {
     }
 
     /**
-     * Set the content of the response as any object. The content length is induced from the serialized object.
+     * Set the content of the response as any object. The object is encoded when the response is built, by the
+     * {@link BodyCodec} for the type of the response, e.g. as JSON for <code>application/json</code>. Responses without
+     * a type or with a type no codec supports get the object in Java serialization. The content length is induced from
+     * the encoded object. Building fails with a {@link ContentException} if the object cannot be encoded.
      *
      * @param content The content as as an object.
      * @return A ResponseBuilder to add additional information.
      */
     public ResponseBuilder content(Object content) {
-        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-        try {
-            ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
-            objectOut.writeObject(content);
-        } catch (IOException e) {
-            throw new ContentException(e);
-        }
-        content(bytes.toByteArray());
+        response.getContent().setContent(new byte[0]);
+        response.setTemplate(null);
+        object = content;
+        encodeObject = true;
         return this;
     }
 
@@ -122,12 +135,41 @@ public class ResponseBuilder {
      * @return A ResponseBuilder to add additional information.
      */
     public ResponseBuilder content(String content, Charset charset) {
-        content(content.getBytes(charset));
+        content(ByteBuffer.wrap(content.getBytes(charset)));
         response.getContent().setCharset(charset.name());
         response.getContent().setString(true);
         return this;
     }
 
+    /**
+     * Set the content to a template that is rendered with data of each request, see {@link ResponseTemplate}. The
+     * template is encoded in UTF-8.
+     *
+     * @param template The content with placeholders like <code>{{path.id}}</code>, <code>{{query.page}}</code> or
+     *                 <code>{{header.User-Agent}}</code>.
+     * @return A ResponseBuilder to add additional information.
+     * @throws IllegalArgumentException if a placeholder is malformed.
+     */
+    public ResponseBuilder template(String template) {
+        return template(template, Charsets.UTF_8);
+    }
+
+    /**
+     * Set the content to a template that is rendered with data of each request, see {@link ResponseTemplate}. The
+     * template is compiled here, once for all requests.
+     *
+     * @param template The content with placeholders like <code>{{path.id}}</code>.
+     * @param charset  The character set the content should be encoded in.
+     * @return A ResponseBuilder to add additional information.
+     * @throws IllegalArgumentException if a placeholder is malformed.
+     */
+    public ResponseBuilder template(String template, Charset charset) {
+        ResponseTemplate compiled = ResponseTemplate.compile(template, charset);
+        content(template, charset);
+        response.setTemplate(compiled);
+        return this;
+    }
+
     /**
      * Set the content as a byte array. The content length is induced from the array length.
      *
@@ -138,12 +180,220 @@ public class ResponseBuilder {
         response.getContent().setContent(content);
         response.getContent().setLength(content.length);
         response.getContent().setString(false);
+        response.setTemplate(null);
+        encodeObject = false;
+        return this;
+    }
+
+    /**
+     * Set the content to the remaining bytes of a buffer without copying them, e.g. to a slice of a large memory
+     * mapped file or a direct buffer. The content length is induced from the remaining bytes. The bytes must not be
+     * changed afterwards.
+     *
+     * @param content The content as a buffer.
+     * @return A ResponseBuilder to add additional information.
+     */
+    public ResponseBuilder content(ByteBuffer content) {
+        response.getContent().setContent(content);
+        response.getContent().setString(false);
+        response.setTemplate(null);
+        encodeObject = false;
+        return this;
+    }
+
+    /**
+     * Set the content to a file. The file is not read now but mapped into memory when the response is sent the first
+     * time, so the operating system copies it from the page cache. The content length is induced from the file length.
+     *
+     * @param file The file to send.
+     * @return A ResponseBuilder to add additional information.
+     */
+    public ResponseBuilder content(File file) {
+        response.getContent().setBody(Body.of(file));
+        response.getContent().setString(false);
+        response.setTemplate(null);
+        encodeObject = false;
+        return this;
+    }
+
+    /**
+     * Set the content to a body, e.g. a streamed body created with {@link Body#stream(java.util.concurrent.Callable)}.
+     * A streamed body of unknown length is sent with <code>Transfer-Encoding: chunked</code> and read chunk by chunk
+     * only as fast as the client receives it, so it may be far larger than the available memory.
+     *
+     * @param body The body to send.
+     * @return A ResponseBuilder to add additional information.
+     */
+    public ResponseBuilder content(Body body) {
+        response.getContent().setBody(body);
+        response.getContent().setString(false);
+        response.setTemplate(null);
+        encodeObject = false;
+        return this;
+    }
+
+    /**
+     * Set the content to a stream that is sent chunked as it is read. The stream can only be sent once, so the
+     * response should be created by a {@link de.hanbei.httpserver.RequestProcessor}.
+     *
+     * @param content The stream of the content, closed once it is sent.
+     * @return A ResponseBuilder to add additional information.
+     */
+    public ResponseBuilder content(InputStream content) {
+        return content(Body.stream(content));
+    }
+
+    /**
+     * Set the content to a pattern repeated until the content is <code>size</code> bytes long. The content is
+     * generated while it is sent, see {@link Payload}.
+     *
+     * @param pattern The bytes to repeat.
+     * @param size    The length of the content, may be larger than 2 GB.
+     * @return A ResponseBuilder to add additional information.
+     */
+    public ResponseBuilder repeat(byte[] pattern, long size) {
+        return content(Payload.repeat(pattern, size));
+    }
+
+    /**
+     * Set the content to <code>size</code> pseudo random bytes generated from a seed while the content is sent, see
+     * {@link Payload#random(long, long)}.
+     *
+     * @param seed The seed of the bytes.
+     * @param size The length of the content, may be larger than 2 GB.
+     * @return A ResponseBuilder to add additional information.
+     */
+    public ResponseBuilder random(long seed, long size) {
+        return content(Payload.random(seed, size));
+    }
+
+    /**
+     * Set the content to a JSON array of <code>records</code> generated objects and the type to
+     * <code>application/json</code>, see {@link Payload#jsonArray(long, long)}.
+     *
+     * @param records The number of objects in the array.
+     * @param seed    The seed of the values of the objects.
+     * @return A ResponseBuilder to add additional information.
+     */
+    public ResponseBuilder jsonArray(long records, long seed) {
+        return type("application/json").content(Payload.jsonArray(records, seed));
+    }
+
+    /**
+     * Set the content to a resource on the classpath, e.g. a fixture in <code>src/test/resources</code>. As for files
+     * the resource is read when the response is sent the first time.
+     *
+     * @param name The name of the resource as for {@link ClassLoader#getResource(String)}.
+     * @return A ResponseBuilder to add additional information.
+     */
+    public ResponseBuilder resource(String name) {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        if (classLoader == null) {
+            classLoader = ResponseBuilder.class.getClassLoader();
+        }
+        URL resource = classLoader.getResource(name.startsWith("/") ? name.substring(1) : name);
+        if (resource == null) {
+            throw new ContentException("No such resource " + name);
+        }
+        response.getContent().setBody(Body.of(resource));
+        response.getContent().setString(false);
+        response.setTemplate(null);
+        encodeObject = false;
+        return this;
+    }
+
+    /**
+     * Compress the content in advance with the given codings. Each compressed variant is created once when the
+     * response is built and chosen per request by the <code>Accept-Encoding</code> of the request, so sending it costs
+     * no more than sending the uncompressed content. The uncompressed content is kept for clients that accept none of
+     * the codings. Content that is streamed or already has an encoding is not compressed.
+     *
+     * @param compressions The codings to store variants for. If a client accepts several with the same quality, the
+     *                     first one is sent.
+     * @return A ResponseBuilder to add additional information.
+     */
+    public ResponseBuilder compress(Compression... compressions) {
+        response.setCompressions(Collections.unmodifiableList(Arrays.asList(compressions.clone())));
+        return this;
+    }
+
+    /**
+     * Give the response a strong entity tag computed from the content when the response is built. Conditional
+     * requests with a matching <code>If-None-Match</code> are then answered with a pre-encoded 304 Not Modified
+     * without any body. A tag set with {@link #header(String, String)} is used instead if there is one. Streamed
+     * content gets no computed tag.
+     *
+     * @return A ResponseBuilder to add additional information.
+     */
+    public ResponseBuilder etag() {
+        response.setEntityTagged(true);
+        return this;
+    }
+
+    /**
+     * Delay the response. The server does not block a thread while it waits, so any number of delayed responses can
+     * be pending. The delay replaces the one set for the whole server.
+     *
+     * @param delay The distribution the delay of each request is drawn from, see {@link Delay}.
+     * @return A ResponseBuilder to add additional information.
+     */
+    public ResponseBuilder delay(Delay delay) {
+        response.setDelay(delay);
+        return this;
+    }
+
+    /**
+     * Delay the response by a fixed time, see {@link #delay(Delay)}.
+     *
+     * @param delay The delay.
+     * @param unit  The unit of the delay.
+     * @return A ResponseBuilder to add additional information.
+     */
+    public ResponseBuilder delay(long delay, TimeUnit unit) {
+        return delay(Delay.fixed(delay, unit));
+    }
+
+    /**
+     * Limit the bandwidth the body is sent with, e.g. <code>throttle(Throttle.kilobitsPerSecond(64))</code>. The
+     * server paces the body without blocking a thread. The throttle replaces the one set for the whole server.
+     *
+     * @param throttle The bandwidth limit.
+     * @return A ResponseBuilder to add additional information.
+     */
+    public ResponseBuilder throttle(Throttle throttle) {
+        response.setThrottle(throttle);
+        return this;
+    }
+
+    /**
+     * Inject faults into some answers of this response, e.g.
+     * <code>faults(FaultPolicy.none().reset(1).serverErrors(5, Status.BAD_GATEWAY))</code>. The policy replaces the
+     * one set for the whole server.
+     *
+     * @param faults The faults and the percentage of requests each of them hits.
+     * @return A ResponseBuilder to add additional information.
+     */
+    public ResponseBuilder faults(FaultPolicy faults) {
+        response.setFaults(faults);
+        return this;
+    }
+
+    /**
+     * Never send the response but keep the connection open as a stuck server does, e.g.
+     * <code>hang(Hang.of(30, TimeUnit.SECONDS).thenReset())</code>. The hang replaces the one set for the whole
+     * server.
+     *
+     * @param hang How long to hang and how to end it.
+     * @return A ResponseBuilder to add additional information.
+     */
+    public ResponseBuilder hang(Hang hang) {
+        response.setHang(hang);
         return this;
     }
 
     public ResponseBuilder expires(Date expires) {
         response.getHeader().addParameter(Header.Fields.EXPIRES,
-                dateFormat.format(expires));
+                HttpDate.format(expires));
         return this;
     }
 
@@ -178,7 +428,7 @@ public class ResponseBuilder {
      */
     public ResponseBuilder lastModified(Date lastModified) {
         response.getHeader().addParameter(Header.Fields.LAST_MODIFIED,
-                dateFormat.format(lastModified));
+                HttpDate.format(lastModified));
         return this;
     }
 
@@ -0,0 +1,203 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.response;
+
+import org.apache.commons.io.Charsets;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A body with placeholders for data of the request, like <code>{"id": "{{path.id}}", "page": "{{query.page}}"}</code>.
+ * A placeholder names the source of its value and the name of the value there: <code>path</code> for a variable of
+ * the path pattern, <code>query</code> for a query parameter and <code>header</code> for a header field of the
+ * request. Values missing in a request are rendered empty.
+ * <p/>
+ * The template is compiled once into the encoded literal parts between the placeholders, so rendering it only
+ * encodes the values and copies everything into a buffer of the exact size. Values are inserted as they are, without
+ * any escaping.
+ */
+public final class ResponseTemplate {
+
+    private static final String OPEN = "{{";
+    private static final String CLOSE = "}}";
+
+    /**
+     * Where the value of a placeholder is taken from.
+     */
+    public enum Source {
+        PATH, QUERY, HEADER
+    }
+
+    /**
+     * The data of a request to render a template with.
+     */
+    public interface Values {
+
+        /**
+         * Get a value of the request.
+         *
+         * @param source Where to look for the value.
+         * @param name   The name of the value, e.g. of the header field.
+         * @return The value or <code>null</code> if the request does not have it.
+         */
+        String get(Source source, String name);
+    }
+
+    private final String template;
+    private final Charset charset;
+    private final boolean asciiCompatible;
+    private final byte[][] literals;
+    private final Source[] sources;
+    private final String[] names;
+    private final int literalLength;
+
+    private ResponseTemplate(String template, Charset charset, List<byte[]> literals, List<Source> sources,
+                             List<String> names) {
+        this.template = template;
+        this.charset = charset;
+        this.asciiCompatible = Charsets.UTF_8.equals(charset) || Charsets.ISO_8859_1.equals(charset)
+                || Charsets.US_ASCII.equals(charset);
+        this.literals = literals.toArray(new byte[literals.size()][]);
+        this.sources = sources.toArray(new Source[sources.size()]);
+        this.names = names.toArray(new String[names.size()]);
+        int length = 0;
+        for (byte[] literal : this.literals) {
+            length += literal.length;
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Compile a template.
+     *
+     * @param template The text of the body with placeholders like <code>{{path.id}}</code>.
+     * @param charset  The charset the body is encoded in.
+     * @return The compiled template.
+     * @throws IllegalArgumentException if a placeholder is not closed or names an unknown source.
+     */
+    public static ResponseTemplate compile(String template, Charset charset) {
+        List<byte[]> literals = new ArrayList<byte[]>();
+        List<Source> sources = new ArrayList<Source>();
+        List<String> names = new ArrayList<String>();
+        int position = 0;
+        int open;
+        while ((open = template.indexOf(OPEN, position)) >= 0) {
+            int close = template.indexOf(CLOSE, open + OPEN.length());
+            if (close < 0) {
+                throw new IllegalArgumentException("Placeholder at " + open + " is not closed: " + template);
+            }
+            String placeholder = template.substring(open + OPEN.length(), close).trim();
+            int dot = placeholder.indexOf('.');
+            if (dot <= 0 || dot == placeholder.length() - 1) {
+                throw new IllegalArgumentException("Placeholder must be source.name: " + placeholder);
+            }
+            Source source;
+            try {
+                source = Source.valueOf(placeholder.substring(0, dot).toUpperCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown source of placeholder " + placeholder, e);
+            }
+            literals.add(template.substring(position, open).getBytes(charset));
+            sources.add(source);
+            names.add(placeholder.substring(dot + 1));
+            position = close + CLOSE.length();
+        }
+        literals.add(template.substring(position).getBytes(charset));
+        return new ResponseTemplate(template, charset, literals, sources, names);
+    }
+
+    /**
+     * Get the text of the template as it was compiled.
+     *
+     * @return The template with its placeholders.
+     */
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * Get the charset the body is encoded in.
+     *
+     * @return The charset of the template and the rendered values.
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Get the number of placeholders.
+     *
+     * @return The number of values rendered into the body.
+     */
+    public int getPlaceholderCount() {
+        return sources.length;
+    }
+
+    /**
+     * Render the body for a request.
+     *
+     * @param values The values of the request.
+     * @return A read-only buffer with the rendered body.
+     */
+    public ByteBuffer render(Values values) {
+        int count = sources.length;
+        String[] text = new String[count];
+        byte[][] encoded = null;
+        int length = literalLength;
+        for (int i = 0; i < count; i++) {
+            String value = values.get(sources[i], names[i]);
+            text[i] = value == null ? "" : value;
+            if (asciiCompatible && isAscii(text[i])) {
+                length += text[i].length();
+            } else {
+                if (encoded == null) {
+                    encoded = new byte[count][];
+                }
+                encoded[i] = text[i].getBytes(charset);
+                length += encoded[i].length;
+            }
+        }
+
+        byte[] body = new byte[length];
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(literals[i], 0, body, offset, literals[i].length);
+            offset += literals[i].length;
+            if (encoded != null && encoded[i] != null) {
+                System.arraycopy(encoded[i], 0, body, offset, encoded[i].length);
+                offset += encoded[i].length;
+            } else {
+                String value = text[i];
+                for (int j = 0; j < value.length(); j++) {
+                    body[offset++] = (byte) value.charAt(j);
+                }
+            }
+        }
+        System.arraycopy(literals[count], 0, body, offset, literals[count].length);
+        return ByteBuffer.wrap(body).asReadOnlyBuffer();
+    }
+
+    private static boolean isAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -2,23 +2,29 @@ package de.hanbei.httpserver.response;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.io.Charsets;
 
-import de.hanbei.httpserver.common.Content;
-import de.hanbei.httpserver.common.Cookie;
 import de.hanbei.httpserver.common.Header;
 import de.hanbei.httpserver.request.Request;
 
 /**
- *
- *
+ * Writes a response to a stream as the answer to a request. The response is written in its {@link WireFormat}, so
+ * the head is not encoded again. Text content is sent in the charset the request accepts, the transcoded content is
+ * cached with the response.
  */
 public class ResponseWriter {
 
+    private static final int MAX_CACHED_CHARSETS = 64;
+    private static final ConcurrentMap<String, Charset> CHARSETS = new ConcurrentHashMap<String, Charset>();
+
     private final OutputStream out;
     private final Request request;
 
@@ -28,114 +34,57 @@ public class ResponseWriter {
     }
 
     public void write(Response response) throws IOException {
-        List<Header.Parameter> acceptCharsetList = request.getHeader().getHeaderParameter(Header.Fields.ACCEPT_CHARSET);
-        Charset acceptCharset = Charsets.UTF_8;
-        if ( !acceptCharsetList.isEmpty() ) {
-            acceptCharset = Charset.forName(acceptCharsetList.get(0).getValue());
+        WireFormat wireFormat = response.getWireFormat().forCharset(acceptedCharset());
+        for (ByteBuffer head : wireFormat.datedHead(true, false)) {
+            if (head.hasArray()) {
+                out.write(head.array(), head.arrayOffset() + head.position(), head.remaining());
+            } else {
+                byte[] bytes = new byte[head.remaining()];
+                head.get(bytes);
+                out.write(bytes);
+            }
         }
-
-        OutputStreamWriter charOut = new OutputStreamWriter(this.out, acceptCharset);
-        writeHttpVersion(response, charOut);
-        writeStatus(response, charOut);
-        writeHeader(response.getHeader(), charOut);
-        writeContent(response.getContent(), charOut);
-        charOut.write("\n");
-        charOut.close();
-    }
-
-    private void writeHttpVersion(Response response, OutputStreamWriter charOut) throws IOException {
-        charOut.write("HTTP/");
-        charOut.write(response.getHttpVersion().toString());
-        charOut.write(" ");
-    }
-
-    private void writeStatus(Response response, OutputStreamWriter charOut) throws IOException {
-        charOut.write(response.getStatus().toString());
-        charOut.write("\n");
+        if (wireFormat.isBodyAllowed()) {
+            wireFormat.writeBody(out);
+        }
+        out.flush();
     }
 
-    private void writeHeader(Header header, OutputStreamWriter charOut) throws IOException {
-        if ( !header.getHeaderFields().isEmpty() ) {
-            for ( String parameterKey : header.getHeaderFields() ) {
-                charOut.write(parameterKey);
-                charOut.write(": ");
-                List<Header.Parameter> parameterList = header.getHeaderParameter(parameterKey);
-                String delimiter = "";
-                for ( Header.Parameter p : parameterList ) {
-                    charOut.write(delimiter);
-                    charOut.write(p.toString());
-                    delimiter = ",";
+    /**
+     * Get the charset the request accepts with the highest quality, UTF-8 if it accepts any.
+     */
+    private Charset acceptedCharset() {
+        Charset accepted = Charsets.UTF_8;
+        double acceptedQuality = 0;
+        for (Header.Parameter field : request.getHeader().getHeaderParameter(Header.Fields.ACCEPT_CHARSET)) {
+            List<Header.Parameter> charsets = Header.parseParameters(field.toString());
+            for (Header.Parameter charset : charsets) {
+                double quality = charset.getQuality() < 0 ? 1 : charset.getQuality();
+                Charset supported = lookup(charset.getValue());
+                if (supported != null && quality > acceptedQuality) {
+                    accepted = supported;
+                    acceptedQuality = quality;
                 }
-                charOut.write("\n");
-            }
-        }
-        if ( !header.getCookies().isEmpty() ) {
-            charOut.write(Header.Fields.COOKIE);
-            charOut.write(": ");
-            String delim = "";
-            for ( Cookie cookie : header.getCookies() ) {
-                charOut.write(delim);
-                charOut.write(cookie.getName());
-                charOut.write("=");
-                charOut.write(cookie.getValue());
-                delim = "; ";
             }
         }
+        return accepted;
     }
 
-    private void writeContent(Content content, OutputStreamWriter charOut) throws IOException {
-        if ( content != null ) {
-            if ( content.getEncoding() != null ) {
-                charOut.write(Header.Fields.CONTENT_ENCODING);
-                charOut.write(": ");
-                charOut.write(content.getEncoding());
-                charOut.write("\n");
-            }
-            if ( content.getMimetype() != null ) {
-                charOut.write(Header.Fields.CONTENT_TYPE);
-                charOut.write(": ");
-                charOut.write(content.getMimetype());
-                if ( content.getCharset() != null ) {
-                    charOut.write("; charset=");
-                    charOut.write(content.getCharset());
-                }
-                charOut.write("\n");
-            }
-            if ( content.getLength() > 0 ) {
-                charOut.write(Header.Fields.CONTENT_LENGTH);
-                charOut.write(": ");
-                charOut.write(Integer.toString(content.getLength()));
-                charOut.write("\n");
+    private static Charset lookup(String name) {
+        Charset charset = CHARSETS.get(name);
+        if (charset == null) {
+            try {
+                charset = Charset.forName(name);
+            } catch (IllegalCharsetNameException e) {
+                return null;
+            } catch (UnsupportedCharsetException e) {
+                return null;
             }
-            if ( content.getLanguage() != null ) {
-                charOut.write(Header.Fields.CONTENT_LANGUAGE);
-                charOut.write(": ");
-                charOut.write(content.getLanguage());
-                charOut.write("\n");
-            }
-            if ( content.getMd5() != null ) {
-                charOut.write(Header.Fields.CONTENT_MD5);
-                charOut.write(": ");
-                charOut.write(content.getMd5());
-                charOut.write("\n");
-            }
-            if ( content.getRange() != null ) {
-                charOut.write(Header.Fields.CONTENT_RANGE);
-                charOut.write(": ");
-                charOut.write(content.getRange());
-                charOut.write("\n");
-            }
-            charOut.write("\n");
-            charOut.flush();
-            if ( content.isString() ) {
-                charOut.write(new String(content.getContent(), content.getCharset()));
-            } else {
-                out.write(content.getContent());
-                out.flush();
+            if (CHARSETS.size() < MAX_CACHED_CHARSETS) {
+                CHARSETS.putIfAbsent(name, charset);
             }
         }
-        charOut.write("\n");
-        charOut.flush();
+        return charset;
     }
 
     public void close() throws IOException {
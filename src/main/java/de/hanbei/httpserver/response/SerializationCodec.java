@@ -0,0 +1,38 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.response;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Encodes objects with Java serialization, for responses without a type or with a type no other codec supports, as
+ * before there were codecs, and for <code>application/x-java-serialized-object</code>. Only Java clients can read
+ * such a body.
+ */
+final class SerializationCodec implements BodyCodec {
+
+    @Override
+    public boolean supports(String mimetype) {
+        return mimetype == null || "application/x-java-serialized-object".equals(mimetype);
+    }
+
+    @Override
+    public void encode(Object content, OutputStream out) throws IOException {
+        ObjectOutputStream objectOut = new ObjectOutputStream(out);
+        objectOut.writeObject(content);
+        objectOut.flush();
+    }
+}
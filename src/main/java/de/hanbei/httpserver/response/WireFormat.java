@@ -0,0 +1,881 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.response;
+
+import de.hanbei.httpserver.common.Body;
+import de.hanbei.httpserver.common.ChunkSource;
+import de.hanbei.httpserver.common.Compression;
+import de.hanbei.httpserver.common.Content;
+import de.hanbei.httpserver.common.HTTPVersion;
+import de.hanbei.httpserver.common.Header;
+import de.hanbei.httpserver.common.HttpDate;
+import de.hanbei.httpserver.common.Status;
+import de.hanbei.httpserver.common.Throttle;
+import de.hanbei.httpserver.exceptions.ContentException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The immutable, encoded form of a {@link Response} as it is sent to the client. It is created once when the response
+ * is built, so sending a predefined response again and again does not format any header field or copy the body. The
+ * head is encoded for each way a connection can be handled after the response: kept alive or closed, for HTTP/1.1 and
+ * HTTP/1.0 clients.
+ * <p/>
+ * Streamed bodies of unknown length are sent with <code>Transfer-Encoding: chunked</code> to HTTP/1.1 clients. HTTP/1.0
+ * clients get them unframed and the connection is closed after the body.
+ * <p/>
+ * If the response is compressed in advance, each compressed body is encoded into a variant of its own and
+ * {@link #negotiate(String)} picks the one to send for a request. Responses with an entity tag or a modification date
+ * also carry a pre-encoded 304 Not Modified answer, which {@link #conditional(String, String)} returns to clients that
+ * already have the body. Range requests are answered from slices of the body, see {@link #range(String, String)}.
+ * <p/>
+ * All buffers handed out are read-only views on the shared encoded form, each with its own position.
+ */
+public final class WireFormat {
+
+    private static final String CRLF = "\r\n";
+    private static final String IDENTITY = "identity";
+    private static final byte[] CLOSE = HeadEncoder.ascii(Header.Fields.CONNECTION + ": close" + CRLF);
+    private static final byte[] KEEP_ALIVE = HeadEncoder.ascii(Header.Fields.CONNECTION + ": keep-alive" + CRLF);
+    private static final WireFormat[] NO_VARIANTS = new WireFormat[0];
+    private static final String BYTES = "bytes";
+    private static final int MAX_RANGES = 64;
+    private static final Random BOUNDARIES = new Random();
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final Set<String> NOT_MODIFIED_FIELDS = new HashSet<String>(Arrays.asList(Header.Fields.ETAG,
+            Header.Fields.LAST_MODIFIED, Header.Fields.VARY, Header.Fields.CACHE_CONTROL, Header.Fields.EXPIRES,
+            Header.Fields.CONTENT_LOCATION, Header.Fields.DATE));
+
+    private final Response response;
+    private final Compression compression;
+    private final WireFormat[] variants;
+    private final WireFormat notModified;
+    private final String etag;
+    private final String lastModified;
+    private final long lastModifiedTime;
+    private final boolean rangeable;
+    private final Charset textCharset;
+    private final String mimetype;
+    private volatile ConcurrentMap<Charset, WireFormat> charsetVariants;
+    private final Status status;
+    private final int statusCode;
+    private final Map<String, List<String>> fields;
+    private final boolean bodyAllowed;
+    private final boolean dated;
+    private final ByteBuffer keepAliveHead;
+    private final ByteBuffer closeHead;
+    private final ByteBuffer http10KeepAliveHead;
+    private final ByteBuffer http10CloseHead;
+    private final Body body;
+    private final long declaredLength;
+    private final boolean chunked;
+
+    /**
+     * Encode a response with its compressed variants and entity tags.
+     */
+    static WireFormat of(Response response) {
+        if (response.getTemplate() != null) {
+            // the body differs from request to request, so it cannot be tagged or compressed in advance
+            return new WireFormat(response, response.getContent().getBody(), null, null, NO_VARIANTS);
+        }
+        String etag = entityTag(response);
+        return new WireFormat(response, response.getContent().getBody(), null, etag, compress(response, etag));
+    }
+
+    private WireFormat(Response response, Body body, Compression compression, String etag, WireFormat[] variants) {
+        this.response = response;
+        this.compression = compression;
+        this.variants = variants;
+        this.body = body;
+        this.etag = etag;
+        declaredLength = body.length();
+        status = response.getStatus();
+        statusCode = status.getStatusCode();
+        rangeable = statusCode == Status.OK.getStatusCode() && body.isSliceable() && body.length() > 0
+                && response.getContent().getRange() == null && response.getTemplate() == null;
+        fields = collectFields(response, compression, etag, variants.length > 0 || compression != null, rangeable);
+        bodyAllowed = statusCode >= 200 && statusCode != 204 && statusCode != 304;
+        dated = fields.containsKey(Header.Fields.DATE);
+        chunked = bodyAllowed && body.length() < 0;
+        List<String> lastModifiedValues = fields.get(Header.Fields.LAST_MODIFIED);
+        lastModified = lastModifiedValues == null ? null : lastModifiedValues.get(0);
+        lastModifiedTime = lastModified == null ? -1 : HttpDate.parse(lastModified);
+
+        textCharset = textCharset(response.getContent(), compression);
+        mimetype = response.getContent().getMimetype();
+
+        ByteBuffer[] heads = encodeHeads(startHead(response.getHttpVersion(), status, fields), bodyAllowed, chunked,
+                body.length());
+        keepAliveHead = heads[0];
+        closeHead = heads[1];
+        http10KeepAliveHead = heads[2];
+        http10CloseHead = heads[3];
+        boolean validated = statusCode == Status.OK.getStatusCode() && (etag != null || lastModifiedTime >= 0);
+        notModified = validated
+                ? new WireFormat(this, Status.NOT_MODIFIED, notModifiedFields(fields), Body.empty()) : null;
+    }
+
+    /**
+     * Create an answer derived from a full response for a single request: 304 Not Modified, 206 Partial Content,
+     * 416 Requested Range Not Satisfiable, a body rendered from a template or a throttled body.
+     */
+    private WireFormat(WireFormat full, Status status, Map<String, List<String>> fields, Body body) {
+        this(full, status, fields, body, body.length());
+    }
+
+    /**
+     * Create an answer derived from a full response whose head declares a length that may differ from the body, to
+     * inject a fault.
+     */
+    private WireFormat(WireFormat full, Status status, Map<String, List<String>> fields, Body body,
+                       long declaredLength) {
+        response = full.response;
+        compression = full.compression;
+        variants = NO_VARIANTS;
+        notModified = null;
+        etag = full.etag;
+        lastModified = full.lastModified;
+        lastModifiedTime = full.lastModifiedTime;
+        rangeable = false;
+        textCharset = null;
+        mimetype = full.mimetype;
+        this.body = body;
+        this.declaredLength = declaredLength;
+        this.fields = fields;
+        this.status = status;
+        statusCode = status.getStatusCode();
+        bodyAllowed = statusCode != Status.NOT_MODIFIED.getStatusCode() && full.bodyAllowed;
+        dated = fields.containsKey(Header.Fields.DATE);
+        chunked = bodyAllowed && declaredLength < 0;
+        ByteBuffer[] heads = encodeHeads(startHead(response.getHttpVersion(), status, fields), bodyAllowed, chunked,
+                declaredLength);
+        keepAliveHead = heads[0];
+        closeHead = heads[1];
+        http10KeepAliveHead = heads[2];
+        http10CloseHead = heads[3];
+    }
+
+    /**
+     * Encode the heads for a connection kept alive or closed, for HTTP/1.1 and HTTP/1.0 clients, in this order.
+     */
+    private static ByteBuffer[] encodeHeads(HeadEncoder head, boolean bodyAllowed, boolean chunked, long length) {
+        // HTTP/1.0 clients do not understand chunks, so they get the body unframed until the connection is closed
+        ByteBuffer unframedCloseHead = chunked ? head.toBuffer(CLOSE) : null;
+        if (chunked) {
+            head.field(Header.Fields.TRANSFER_ENCODING, "chunked");
+        } else if (bodyAllowed) {
+            head.field(Header.Fields.CONTENT_LENGTH, length);
+        }
+        ByteBuffer keepAlive = head.toBuffer(null);
+        ByteBuffer close = head.toBuffer(CLOSE);
+        if (chunked) {
+            return new ByteBuffer[]{keepAlive, close, unframedCloseHead, unframedCloseHead};
+        }
+        return new ByteBuffer[]{keepAlive, close, head.toBuffer(KEEP_ALIVE), close};
+    }
+
+    /**
+     * Get the fields of the 304 Not Modified answer: the validator and caching fields of the full response.
+     */
+    private static Map<String, List<String>> notModifiedFields(Map<String, List<String>> fields) {
+        Map<String, List<String>> kept = new LinkedHashMap<String, List<String>>();
+        for (Map.Entry<String, List<String>> field : fields.entrySet()) {
+            if (NOT_MODIFIED_FIELDS.contains(field.getKey())) {
+                kept.put(field.getKey(), field.getValue());
+            }
+        }
+        return Collections.unmodifiableMap(kept);
+    }
+
+    /**
+     * Create the compressed variants of a response, if it has a body that can be compressed.
+     */
+    private static WireFormat[] compress(Response response, String etag) {
+        Content content = response.getContent();
+        Body body = content.getBody();
+        List<Compression> compressions = response.getCompressions();
+        if (compressions.isEmpty() || content.getEncoding() != null || body.isStreamed() || body.length() == 0) {
+            return NO_VARIANTS;
+        }
+        WireFormat[] variants = new WireFormat[compressions.size()];
+        for (int i = 0; i < variants.length; i++) {
+            Compression compression = compressions.get(i);
+            variants[i] = new WireFormat(response, compression.compress(body), compression,
+                    variantTag(etag, compression), NO_VARIANTS);
+        }
+        return variants;
+    }
+
+    /**
+     * Get the entity tag set for a response or compute a strong one from its body if requested.
+     */
+    private static String entityTag(Response response) {
+        List<Header.Parameter> set = response.getHeader().getHeaderParameter(Header.Fields.ETAG);
+        if (!set.isEmpty()) {
+            return set.get(0).toString();
+        }
+        Body body = response.getContent().getBody();
+        if (!response.isEntityTagged() || body.isStreamed()) {
+            return null;
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new ContentException(e);
+        }
+        digest.update(body.buffer());
+        StringBuilder tag = new StringBuilder(34).append('"');
+        for (byte b : digest.digest()) {
+            tag.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+        }
+        return tag.append('"').toString();
+    }
+
+    /**
+     * A compressed variant has other bytes, so it needs a strong entity tag of its own.
+     */
+    private static String variantTag(String etag, Compression compression) {
+        if (etag == null || !etag.endsWith("\"")) {
+            return etag;
+        }
+        return etag.substring(0, etag.length() - 1) + "-" + compression.getToken() + "\"";
+    }
+
+    private static HeadEncoder startHead(HTTPVersion version, Status status, Map<String, List<String>> fields) {
+        HeadEncoder head = HeadEncoder.start().statusLine(version, status);
+        for (Map.Entry<String, List<String>> field : fields.entrySet()) {
+            for (String value : field.getValue()) {
+                head.field(field.getKey(), value);
+            }
+        }
+        return head;
+    }
+
+    /**
+     * Get the charset of a body that is text and can be sent in other charsets.
+     */
+    private static Charset textCharset(Content content, Compression compression) {
+        if (!content.isString() || content.getCharset() == null || content.getEncoding() != null
+                || compression != null) {
+            return null;
+        }
+        try {
+            return Charset.forName(content.getCharset());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Map<String, List<String>> collectFields(Response response, Compression compression, String etag,
+                                                           boolean vary, boolean rangeable) {
+        Map<String, List<String>> collected = new LinkedHashMap<String, List<String>>();
+        Header header = response.getHeader();
+        for (String headerField : header.getHeaderFields()) {
+            if (Header.Fields.ETAG.equals(headerField)) {
+                continue;
+            }
+            for (Header.Parameter value : header.getHeaderParameter(headerField)) {
+                add(collected, headerField, value.toString());
+            }
+        }
+        Content content = response.getContent();
+        add(collected, Header.Fields.CONTENT_ENCODING,
+                compression == null ? content.getEncoding() : compression.getToken());
+        add(collected, Header.Fields.CONTENT_LANGUAGE, content.getLanguage());
+        add(collected, Header.Fields.CONTENT_MD5, content.getMd5());
+        add(collected, Header.Fields.CONTENT_TYPE, content.getComposedContentType());
+        add(collected, Header.Fields.CONTENT_RANGE, content.getRange());
+        add(collected, Header.Fields.ETAG, etag);
+        if (rangeable && !collected.containsKey(Header.Fields.ACCEPT_RANGES)) {
+            add(collected, Header.Fields.ACCEPT_RANGES, BYTES);
+        }
+        if (vary) {
+            add(collected, Header.Fields.VARY, Header.Fields.ACCEPT_ENCODING);
+        }
+        for (Map.Entry<String, List<String>> field : collected.entrySet()) {
+            field.setValue(Collections.unmodifiableList(field.getValue()));
+        }
+        return Collections.unmodifiableMap(collected);
+    }
+
+    private static void add(Map<String, List<String>> fields, String name, String value) {
+        if (value == null) {
+            return;
+        }
+        List<String> values = fields.get(name);
+        if (values == null) {
+            values = new ArrayList<String>(1);
+            fields.put(name, values);
+        }
+        values.add(value);
+    }
+
+    /**
+     * Get the response this is the encoded form of.
+     *
+     * @return The response as it was built.
+     */
+    public Response getResponse() {
+        return response;
+    }
+
+    /**
+     * Choose the variant of the response to send for the <code>Accept-Encoding</code> of a request. Compressed
+     * variants are preferred over the uncompressed body if the client accepts them with at least the same quality.
+     * Nothing is compressed here, the variants are created when the response is built.
+     *
+     * @param acceptEncoding The value of the Accept-Encoding header field of the request, may be <code>null</code>.
+     * @return The chosen variant, this one if no compressed variant is accepted.
+     */
+    public WireFormat negotiate(String acceptEncoding) {
+        if (variants.length == 0 || acceptEncoding == null) {
+            return this;
+        }
+        List<Header.Parameter> accepted = Header.parseParameters(acceptEncoding);
+        WireFormat chosen = this;
+        double chosenQuality = 0;
+        for (WireFormat variant : variants) {
+            double quality = quality(accepted, variant.compression.getToken());
+            if (quality > chosenQuality) {
+                chosen = variant;
+                chosenQuality = quality;
+            }
+        }
+        // identity is acceptable unless excluded, but only preferred if the client says so
+        return quality(accepted, IDENTITY) > chosenQuality ? this : chosen;
+    }
+
+    /**
+     * Get this response with a text body in another charset. The body is transcoded the first time a charset is asked
+     * for, later calls get the cached variant. Bodies that are no text, are compressed or are already in the charset
+     * are not changed.
+     *
+     * @param charset The charset the client accepts.
+     * @return The variant in the charset or this one.
+     */
+    public WireFormat forCharset(Charset charset) {
+        if (textCharset == null || textCharset.equals(charset) || !bodyAllowed || body.isStreamed()) {
+            return this;
+        }
+        ConcurrentMap<Charset, WireFormat> cached = charsetVariants;
+        if (cached == null) {
+            synchronized (this) {
+                cached = charsetVariants;
+                if (cached == null) {
+                    cached = new ConcurrentHashMap<Charset, WireFormat>(4);
+                    charsetVariants = cached;
+                }
+            }
+        }
+        WireFormat variant = cached.get(charset);
+        if (variant == null) {
+            Map<String, List<String>> transcodedFields = new LinkedHashMap<String, List<String>>(fields);
+            if (mimetype != null) {
+                transcodedFields.put(Header.Fields.CONTENT_TYPE,
+                        Collections.singletonList(mimetype + "; charset=" + charset.name()));
+            }
+            ByteBuffer transcoded = charset.encode(textCharset.decode(body.buffer()));
+            variant = new WireFormat(this, response.getStatus(), Collections.unmodifiableMap(transcodedFields),
+                    Body.of(transcoded));
+            WireFormat raced = cached.putIfAbsent(charset, variant);
+            if (raced != null) {
+                variant = raced;
+            }
+        }
+        return variant;
+    }
+
+    /**
+     * Get the quality a client accepts a coding with, 1 if no quality is given and -1 if the coding is not listed.
+     */
+    private static double quality(List<Header.Parameter> accepted, String coding) {
+        double wildcard = -1;
+        for (Header.Parameter parameter : accepted) {
+            String value = parameter.getValue();
+            double quality = parameter.getQuality() < 0 ? 1 : parameter.getQuality();
+            if (value.equalsIgnoreCase(coding) || value.equalsIgnoreCase("x-" + coding)) {
+                return quality;
+            }
+            if ("*".equals(value)) {
+                wildcard = quality;
+            }
+        }
+        return wildcard;
+    }
+
+    /**
+     * Answer a conditional GET request. If the client already has this variant, as told by its
+     * <code>If-None-Match</code> or, without that, <code>If-Modified-Since</code>, the pre-encoded 304 Not Modified
+     * response is returned. Only responses built with an ETag or Last-Modified header field are ever not modified.
+     *
+     * @param ifNoneMatch     The If-None-Match header field of the request, may be <code>null</code>.
+     * @param ifModifiedSince The If-Modified-Since header field of the request, may be <code>null</code>.
+     * @return The 304 response or this one if the client has to get the body.
+     */
+    public WireFormat conditional(String ifNoneMatch, String ifModifiedSince) {
+        if (notModified == null) {
+            return this;
+        }
+        if (ifNoneMatch != null) {
+            return etag != null && matchesAny(ifNoneMatch, etag) ? notModified : this;
+        }
+        if (ifModifiedSince != null && lastModified != null) {
+            if (ifModifiedSince.equals(lastModified)) {
+                return notModified;
+            }
+            long since = HttpDate.parse(ifModifiedSince);
+            if (since >= 0 && lastModifiedTime >= 0 && lastModifiedTime <= since) {
+                return notModified;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Answer a range request with the requested parts of the body. A single range is sent as 206 Partial Content with
+     * a slice of the body, several ranges as <code>multipart/byteranges</code>, and no byte is copied for either. If
+     * no range is within the body the answer is 416 Requested Range Not Satisfiable. Ranges that cannot be parsed,
+     * and ranges whose If-Range does not match this response, are ignored as HTTP requires, so the whole body is
+     * sent.
+     *
+     * @param range   The Range header field of the request, may be <code>null</code>.
+     * @param ifRange The If-Range header field of the request, may be <code>null</code>.
+     * @return The answer to the range request or this one if the whole body is sent.
+     */
+    public WireFormat range(String range, String ifRange) {
+        if (range == null || !rangeable) {
+            return this;
+        }
+        if (ifRange != null && (ifRange.startsWith("W/") || !ifRange.equals(etag) && !ifRange.equals(lastModified))) {
+            return this;
+        }
+        long length = body.length();
+        List<long[]> ranges = parseRanges(range, length);
+        if (ranges == null) {
+            return this;
+        }
+        Map<String, List<String>> partFields = new LinkedHashMap<String, List<String>>(fields);
+        if (ranges.isEmpty()) {
+            partFields.remove(Header.Fields.CONTENT_TYPE);
+            partFields.put(Header.Fields.CONTENT_RANGE, Collections.singletonList(BYTES + " */" + length));
+            return new WireFormat(this, Status.REQUESTED_RANGE_NOT_SATISFIABLE, partFields, Body.empty());
+        }
+        if (ranges.size() == 1) {
+            long[] single = ranges.get(0);
+            partFields.put(Header.Fields.CONTENT_RANGE, Collections.singletonList(contentRange(single, length)));
+            return new WireFormat(this, Status.PARTIAL_CONTENT, partFields, body.slice(single[0], single[1]));
+        }
+        List<String> types = partFields.remove(Header.Fields.CONTENT_TYPE);
+        String boundary = Long.toHexString(BOUNDARIES.nextLong());
+        List<Body> parts = new ArrayList<Body>(ranges.size() * 2 + 1);
+        byte[] delimiter = HeadEncoder.ascii(CRLF + "--" + boundary + CRLF);
+        for (int i = 0; i < ranges.size(); i++) {
+            long[] part = ranges.get(i);
+            HeadEncoder partHead = HeadEncoder.start();
+            if (i == 0) {
+                partHead.append(HeadEncoder.ascii("--" + boundary + CRLF));
+            } else {
+                partHead.append(delimiter);
+            }
+            if (types != null) {
+                partHead.field(Header.Fields.CONTENT_TYPE, types.get(0));
+            }
+            partHead.field(Header.Fields.CONTENT_RANGE, contentRange(part, length));
+            parts.add(Body.of(partHead.toBuffer(null)));
+            parts.add(body.slice(part[0], part[1]));
+        }
+        parts.add(Body.of(ByteBuffer.wrap(HeadEncoder.ascii(CRLF + "--" + boundary + "--" + CRLF))));
+        partFields.put(Header.Fields.CONTENT_TYPE,
+                Collections.singletonList("multipart/byteranges; boundary=" + boundary));
+        return new WireFormat(this, Status.PARTIAL_CONTENT, partFields, Body.sequence(parts));
+    }
+
+    /**
+     * Parse the ranges of a Range header field into offset and length within a body.
+     *
+     * @return The satisfiable ranges or <code>null</code> if the field is invalid and has to be ignored.
+     */
+    static List<long[]> parseRanges(String range, long length) {
+        if (!range.regionMatches(true, 0, BYTES + "=", 0, BYTES.length() + 1)) {
+            return null;
+        }
+        String[] specs = range.substring(BYTES.length() + 1).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        List<long[]> ranges = new ArrayList<long[]>(specs.length);
+        for (String spec : specs) {
+            String trimmed = spec.trim();
+            int dash = trimmed.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            try {
+                long first;
+                long last;
+                if (dash == 0) {
+                    long suffix = Long.parseLong(trimmed.substring(1));
+                    if (suffix < 0) {
+                        return null;
+                    }
+                    first = Math.max(0, length - suffix);
+                    last = suffix == 0 ? -1 : length - 1;
+                } else {
+                    first = Long.parseLong(trimmed.substring(0, dash));
+                    if (dash == trimmed.length() - 1) {
+                        last = length - 1;
+                    } else {
+                        last = Long.parseLong(trimmed.substring(dash + 1));
+                        if (last < first) {
+                            return null;
+                        }
+                        last = Math.min(last, length - 1);
+                    }
+                }
+                if (first < 0) {
+                    return null;
+                }
+                if (first < length && first <= last) {
+                    ranges.add(new long[]{first, last - first + 1});
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return ranges;
+    }
+
+    private static String contentRange(long[] range, long length) {
+        return BYTES + " " + range[0] + "-" + (range[0] + range[1] - 1) + "/" + length;
+    }
+
+    /**
+     * Compare the list of entity tags of an If-None-Match header field with an entity tag. As required for
+     * If-None-Match the weak comparison is used, so a <code>W/</code> prefix is ignored.
+     */
+    static boolean matchesAny(String tags, String etag) {
+        int opaqueStart = etag.startsWith("W/") ? 2 : 0;
+        int opaqueLength = etag.length() - opaqueStart;
+        int length = tags.length();
+        int i = 0;
+        while (i < length) {
+            char c = tags.charAt(i);
+            if (c == ' ' || c == ',' || c == '\t') {
+                i++;
+                continue;
+            }
+            if (c == '*') {
+                return true;
+            }
+            if (tags.startsWith("W/", i)) {
+                i += 2;
+            }
+            int end;
+            if (i < length && tags.charAt(i) == '"') {
+                end = tags.indexOf('"', i + 1);
+                end = end < 0 ? length : end + 1;
+            } else {
+                end = tags.indexOf(',', i);
+                end = end < 0 ? length : end;
+            }
+            if (end - i == opaqueLength && tags.regionMatches(i, etag, opaqueStart, opaqueLength)) {
+                return true;
+            }
+            i = end;
+        }
+        return false;
+    }
+
+    /**
+     * Render the body of a response built from a {@link ResponseTemplate} for a request. The head is encoded with the
+     * header fields of this response and the length of the rendered body.
+     *
+     * @param values The values of the request.
+     * @return The answer with the rendered body or this if the response has no template.
+     */
+    public WireFormat render(ResponseTemplate.Values values) {
+        ResponseTemplate template = response.getTemplate();
+        if (template == null || !bodyAllowed) {
+            return this;
+        }
+        return new WireFormat(this, response.getStatus(), fields, Body.of(template.render(values)));
+    }
+
+    /**
+     * Send the body of this answer no faster than a throttle allows. The head stays the same, only the body is
+     * streamed through a {@link de.hanbei.httpserver.common.PacedChunkSource}.
+     *
+     * @param throttle The bandwidth limit or <code>null</code> for none.
+     * @return The throttled answer or this if there is no throttle or no body.
+     */
+    public WireFormat throttle(Throttle throttle) {
+        if (throttle == null || !bodyAllowed || body.length() == 0) {
+            return this;
+        }
+        return new WireFormat(this, status, fields, throttle.apply(body), declaredLength);
+    }
+
+    /**
+     * Cut the body of this answer after some bytes, while the head still declares the full length. The connection has
+     * to be closed after the body, see {@link #isMisframed()}.
+     *
+     * @param bytes The number of bytes of the body to send.
+     * @return The truncated answer or this if the body is not longer or its length is unknown.
+     */
+    public WireFormat truncate(long bytes) {
+        long length = body.length();
+        if (!bodyAllowed || length < 0 || bytes >= length) {
+            return this;
+        }
+        Body part = body.isSliceable() ? body.slice(0, bytes) : Body.stream(new Truncated(body, bytes), bytes);
+        return new WireFormat(this, status, fields, part, declaredLength);
+    }
+
+    /**
+     * Declare a wrong length in the head of this answer, while the whole body is sent. The connection has to be closed
+     * after the body, see {@link #isMisframed()}.
+     *
+     * @param difference The difference of the declared to the actual length. The declared length is never negative.
+     * @return The answer with the wrong length or this if the body has no length to misstate.
+     */
+    public WireFormat misstateLength(long difference) {
+        long length = body.length();
+        if (!bodyAllowed || length < 0) {
+            return this;
+        }
+        long declared = Math.max(0, length + difference);
+        if (declared == length) {
+            return this;
+        }
+        return new WireFormat(this, status, fields, body, declared);
+    }
+
+    /**
+     * Get the entity tag of this variant.
+     *
+     * @return The value of the ETag header field or <code>null</code> if the response has none.
+     */
+    public String getEntityTag() {
+        return etag;
+    }
+
+    /**
+     * Get the coding the body of this variant is compressed with.
+     *
+     * @return The compression or <code>null</code> if the body is sent as it was set.
+     */
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Get the header fields as they are sent, including the fields derived from the content but without
+     * Content-Length and Connection.
+     *
+     * @return The header fields by name.
+     */
+    public Map<String, List<String>> getFields() {
+        return fields;
+    }
+
+    /**
+     * Get the length of the body as declared in the head.
+     *
+     * @return The number of bytes of the body or -1 if it is streamed with an unknown length.
+     */
+    public long getContentLength() {
+        return declaredLength;
+    }
+
+    /**
+     * Does the body differ from the length declared in the head, because a fault is injected. The connection has to
+     * be closed after such an answer, as the client cannot find the end of it.
+     *
+     * @return true if the body is shorter or longer than declared.
+     */
+    public boolean isMisframed() {
+        return declaredLength != body.length();
+    }
+
+    /**
+     * Is the body read chunk by chunk while it is sent, see {@link #openBody()}.
+     *
+     * @return true if the body is streamed.
+     */
+    public boolean isStreamed() {
+        return body.isStreamed();
+    }
+
+    /**
+     * Is the body sent with <code>Transfer-Encoding: chunked</code> to HTTP/1.1 clients.
+     *
+     * @return true if the length of the body is unknown.
+     */
+    public boolean isChunked() {
+        return chunked;
+    }
+
+    /**
+     * May the response have a body. Informational responses, 204 No Content and 304 Not Modified may not.
+     *
+     * @return true if the body is sent.
+     */
+    public boolean isBodyAllowed() {
+        return bodyAllowed;
+    }
+
+    /**
+     * Get the encoded status line and header fields, terminated by an empty line. The current date is not part of it,
+     * see {@link #datedHead(boolean, boolean)}.
+     *
+     * @param keepAlive true if the connection stays open after the response.
+     * @param http10    true if the client speaks HTTP/1.0 and has to be told that the connection stays open. The
+     *                  connection is always closed after a chunked response to an HTTP/1.0 client.
+     * @return A read-only buffer positioned at the start of the head.
+     */
+    public ByteBuffer head(boolean keepAlive, boolean http10) {
+        if (http10) {
+            return keepAlive ? http10KeepAliveHead.duplicate() : http10CloseHead.duplicate();
+        }
+        return keepAlive ? keepAliveHead.duplicate() : closeHead.duplicate();
+    }
+
+    /**
+     * Get the head as it is sent: the encoded head completed with a <code>Date</code> header field for the current
+     * second, unless the response sets a date of its own. The date is shared by all responses sent in the same second,
+     * so no head is copied or formatted for it.
+     *
+     * @param keepAlive true if the connection stays open after the response.
+     * @param http10    true if the client speaks HTTP/1.0, see {@link #head(boolean, boolean)}.
+     * @return Read-only buffers to be written in order.
+     */
+    public ByteBuffer[] datedHead(boolean keepAlive, boolean http10) {
+        ByteBuffer head = head(keepAlive, http10);
+        if (dated) {
+            return new ByteBuffer[]{head};
+        }
+        // the date replaces the empty line and ends the head itself
+        head.limit(head.limit() - 2);
+        return new ByteBuffer[]{head, HttpDate.dateFieldAndEnd()};
+    }
+
+    /**
+     * Get the body, loading it on first use if it is backed by a file or resource.
+     *
+     * @return A read-only buffer positioned at the start of the body.
+     * @throws de.hanbei.httpserver.exceptions.ContentException if the body is streamed.
+     */
+    public ByteBuffer body() {
+        return body.buffer();
+    }
+
+    /**
+     * Open the body to read it chunk by chunk. This works for streamed bodies and all others.
+     *
+     * @return The source of the chunks, to be closed by the caller.
+     * @throws IOException if the body cannot be opened.
+     */
+    public ChunkSource openBody() throws IOException {
+        return body.open();
+    }
+
+    /**
+     * Write the body to a stream without copying it as a whole first. Streamed bodies are written chunk by chunk, so
+     * a blocking stream slows down the source of the chunks.
+     *
+     * @param out The stream to write to.
+     * @throws IOException if writing fails.
+     */
+    public void writeBody(OutputStream out) throws IOException {
+        WritableByteChannel channel = Channels.newChannel(out);
+        ChunkSource chunks = openBody();
+        try {
+            ByteBuffer chunk;
+            while ((chunk = chunks.next()) != null) {
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk);
+                }
+            }
+        } finally {
+            chunks.close();
+        }
+    }
+
+    /**
+     * Opens a streamed body that cannot be sliced and stops it after a number of bytes.
+     */
+    private static final class Truncated implements Callable<ChunkSource> {
+
+        private final Body body;
+        private final long bytes;
+
+        Truncated(Body body, long bytes) {
+            this.body = body;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public ChunkSource call() throws IOException {
+            final ChunkSource source = body.open();
+            return new ChunkSource() {
+                private long remaining = bytes;
+
+                @Override
+                public ByteBuffer next() throws IOException {
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    ByteBuffer chunk = source.next();
+                    if (chunk == null) {
+                        return null;
+                    }
+                    if (chunk.remaining() > remaining) {
+                        chunk.limit(chunk.position() + (int) remaining);
+                    }
+                    remaining -= chunk.remaining();
+                    return chunk;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    source.close();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.transport;
+
+import de.hanbei.httpserver.common.ChunkSource;
+import de.hanbei.httpserver.common.PacedChunkSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link InputStream} reading a streamed body chunk by chunk from its {@link ChunkSource}. Reading a throttled body
+ * waits for each chunk as a client on a slow network would.
+ */
+final class ChunkSourceInputStream extends InputStream {
+
+    private final ChunkSource source;
+    private ByteBuffer chunk;
+    private boolean ended;
+
+    ChunkSourceInputStream(ChunkSource source) {
+        this.source = source;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextChunk()) {
+            return -1;
+        }
+        return chunk.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!nextChunk()) {
+            return -1;
+        }
+        int read = Math.min(length, chunk.remaining());
+        chunk.get(bytes, offset, read);
+        return read;
+    }
+
+    @Override
+    public int available() {
+        return chunk == null ? 0 : chunk.remaining();
+    }
+
+    private boolean nextChunk() throws IOException {
+        while (!ended && (chunk == null || !chunk.hasRemaining())) {
+            if (source instanceof PacedChunkSource) {
+                pause(((PacedChunkSource) source).nanosUntilNext());
+            }
+            chunk = source.next();
+            if (chunk == null) {
+                ended = true;
+            }
+        }
+        return !ended;
+    }
+
+    private static void pause(long nanos) throws IOException {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading a throttled body");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        ended = true;
+        source.close();
+    }
+}
@@ -0,0 +1,158 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.transport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A thread with its own selector that serves a set of connections. All state of the connections is only touched on
+ * this thread, other threads hand over work with {@link #execute(Runnable)}.
+ */
+final class EventLoop implements Runnable {
+
+    /**
+     * Reacts on the readiness of a channel registered with the selector of an event loop.
+     */
+    interface Handler {
+
+        void ready(SelectionKey key);
+
+        void close();
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventLoop.class);
+    private static final long STOP_TIMEOUT = 1000;
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks;
+    private final Set<Handler> handlers;
+    private volatile boolean running;
+    private Thread thread;
+
+    EventLoop() throws IOException {
+        selector = Selector.open();
+        tasks = new ConcurrentLinkedQueue<Runnable>();
+        handlers = new HashSet<Handler>();
+    }
+
+    void start(String name) {
+        if (!selector.isOpen()) {
+            throw new IllegalStateException("A stopped event loop can not be started again");
+        }
+        running = true;
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        selector.wakeup();
+        if (thread != null && !inEventLoop()) {
+            try {
+                thread.join(STOP_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Run a task on the event loop thread.
+     *
+     * @param task The task to run.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    Selector selector() {
+        return selector;
+    }
+
+    void added(Handler handler) {
+        handlers.add(handler);
+    }
+
+    void removed(Handler handler) {
+        handlers.remove(handler);
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid()) {
+                        ((Handler) key.attachment()).ready(key);
+                    }
+                }
+                runTasks();
+            } catch (ClosedSelectorException e) {
+                LOGGER.debug("Selector closed, stopping event loop", e);
+                break;
+            } catch (IOException e) {
+                LOGGER.error("Error in event loop", e);
+            } catch (RuntimeException e) {
+                LOGGER.error("Error in event loop", e);
+            }
+        }
+        closeAll();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LOGGER.error("Error in event loop task", e);
+            }
+        }
+    }
+
+    private void closeAll() {
+        for (Handler handler : new HashSet<Handler>(handlers)) {
+            handler.close();
+        }
+        tasks.clear();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOGGER.warn("Could not close selector", e);
+        }
+    }
+}
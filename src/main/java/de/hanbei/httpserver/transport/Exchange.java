@@ -0,0 +1,104 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.transport;
+
+import de.hanbei.httpserver.response.WireFormat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single request received by a {@link Transport} together with the means to answer it.
+ */
+public interface Exchange {
+
+    /**
+     * Get the method of the request as sent by the client, e.g. <code>GET</code>.
+     *
+     * @return The request method.
+     */
+    String getRequestMethod();
+
+    /**
+     * Get the uri of the request as sent by the client. Usually this is relative to the server root.
+     *
+     * @return The request uri.
+     */
+    URI getRequestURI();
+
+    /**
+     * Get the protocol of the request, e.g. <code>HTTP/1.1</code>.
+     *
+     * @return The request protocol.
+     */
+    String getProtocol();
+
+    /**
+     * Get all header fields of the request. Lookups in the returned map ignore the case of the field name.
+     *
+     * @return The header fields of the request.
+     */
+    Map<String, List<String>> getRequestHeaders();
+
+    /**
+     * Get the first value of a header field of the request.
+     *
+     * @param name The name of the header field. The case is ignored.
+     * @return The first value of the header field or <code>null</code> if the request does not contain it.
+     */
+    String getRequestHeader(String name);
+
+    /**
+     * Get the body of the request.
+     *
+     * @return A stream with the body of the request.
+     */
+    InputStream getRequestBody();
+
+    /**
+     * Get the whole body of the request. Transports that hold the body in memory return it without copying, others
+     * read it on the first call. The body stays available after the exchange is closed.
+     *
+     * @return A read-only buffer with the body of the request.
+     * @throws IOException If the body could not be read.
+     */
+    ByteBuffer getRequestBuffer() throws IOException;
+
+    /**
+     * Send a response to the client. This may only be called once per exchange.
+     *
+     * @param response The encoded response to send, the variant chosen for this request.
+     * @throws IOException If the response could not be sent.
+     */
+    void sendResponse(WireFormat response) throws IOException;
+
+    /**
+     * Answer with something that is no response at all, to simulate a broken server. The connection is closed
+     * afterwards. Transports that cannot send arbitrary bytes or reset a connection close it without an answer. This
+     * may be called instead of {@link #sendResponse(WireFormat)}.
+     *
+     * @param garbage The bytes to send in place of a response or <code>null</code> to reset the connection.
+     * @throws IOException If the connection could not be aborted.
+     */
+    void abort(ByteBuffer garbage) throws IOException;
+
+    /**
+     * Finish the exchange. If no response has been sent the connection is closed without an answer.
+     */
+    void close();
+}
@@ -0,0 +1,31 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.transport;
+
+import java.io.IOException;
+
+/**
+ * Handles the requests a {@link Transport} receives.
+ */
+public interface ExchangeHandler {
+
+    /**
+     * Handle a request. The handler has to close the exchange when it is done, which may be after this method returned
+     * if the response is sent from another thread.
+     *
+     * @param exchange The request and the means to answer it.
+     * @throws IOException If the response could not be sent.
+     */
+    void handle(Exchange exchange) throws IOException;
+}
@@ -0,0 +1,331 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.transport;
+
+import org.apache.commons.io.Charsets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Incremental HTTP/1.1 request parser. The parser reads straight from the receive buffer of a connection and keeps its
+ * state between calls, so a request may arrive in any number of pieces. One parser is reused for all requests on a
+ * connection.
+ */
+final class HttpRequestParser {
+
+    private enum State {
+        REQUEST_LINE, HEADERS, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, DONE
+    }
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final int maxBodySize;
+    private State state = State.REQUEST_LINE;
+    private String method;
+    private String target;
+    private String protocol;
+    private Map<String, List<String>> headers;
+    private byte[] body;
+    private int bodyPosition;
+    private ByteArrayOutputStream chunkedBody;
+    private long chunkRemaining;
+    private boolean continueRequested;
+
+    /**
+     * Create a parser for the requests of one connection.
+     *
+     * @param maxBodySize The maximum size of a request body in bytes.
+     */
+    HttpRequestParser(int maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * Parse as much of the request as the buffer holds.
+     *
+     * @param in The receive buffer in read mode. Consumed bytes are skipped.
+     * @return true if the request is complete.
+     * @throws BodyTooLargeException If the body of the request is larger than the maximum body size.
+     * @throws IOException           If the request is malformed.
+     */
+    boolean parse(ByteBuffer in) throws IOException {
+        while (true) {
+            switch (state) {
+                case REQUEST_LINE:
+                    String requestLine = readLine(in);
+                    if (requestLine == null) {
+                        return false;
+                    }
+                    if (requestLine.length() > 0) {
+                        parseRequestLine(requestLine);
+                        headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+                        state = State.HEADERS;
+                    }
+                    break;
+                case HEADERS:
+                    String headerLine = readLine(in);
+                    if (headerLine == null) {
+                        return false;
+                    }
+                    if (headerLine.length() > 0) {
+                        parseHeaderLine(headerLine);
+                    } else {
+                        state = stateAfterHeaders();
+                    }
+                    break;
+                case BODY:
+                    int count = Math.min(in.remaining(), body.length - bodyPosition);
+                    in.get(body, bodyPosition, count);
+                    bodyPosition += count;
+                    if (bodyPosition < body.length) {
+                        return false;
+                    }
+                    state = State.DONE;
+                    break;
+                case CHUNK_SIZE:
+                    String sizeLine = readLine(in);
+                    if (sizeLine == null) {
+                        return false;
+                    }
+                    chunkRemaining = parseChunkSize(sizeLine);
+                    if (chunkRemaining > maxBodySize - chunkedBody.size()) {
+                        throw new BodyTooLargeException("Chunked body is larger than " + maxBodySize + " bytes");
+                    }
+                    state = chunkRemaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+                    break;
+                case CHUNK_DATA:
+                    int chunkCount = (int) Math.min(in.remaining(), chunkRemaining);
+                    chunkedBody.write(in.array(), in.arrayOffset() + in.position(), chunkCount);
+                    in.position(in.position() + chunkCount);
+                    chunkRemaining -= chunkCount;
+                    if (chunkRemaining > 0) {
+                        return false;
+                    }
+                    state = State.CHUNK_END;
+                    break;
+                case CHUNK_END:
+                    String chunkEnd = readLine(in);
+                    if (chunkEnd == null) {
+                        return false;
+                    }
+                    if (chunkEnd.length() > 0) {
+                        throw new IOException("Chunk is longer than announced");
+                    }
+                    state = State.CHUNK_SIZE;
+                    break;
+                case TRAILERS:
+                    String trailer = readLine(in);
+                    if (trailer == null) {
+                        return false;
+                    }
+                    if (trailer.length() == 0) {
+                        body = chunkedBody.toByteArray();
+                        chunkedBody = null;
+                        state = State.DONE;
+                    }
+                    break;
+                default:
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * Prepare the parser for the next request on the same connection.
+     */
+    void reset() {
+        state = State.REQUEST_LINE;
+        method = null;
+        target = null;
+        protocol = null;
+        headers = null;
+        body = null;
+        bodyPosition = 0;
+        chunkedBody = null;
+        chunkRemaining = 0;
+        continueRequested = false;
+    }
+
+    /**
+     * Has the client asked for a <code>100 Continue</code> before it sends the body. The flag is cleared by this call.
+     *
+     * @return true if the client waits for a <code>100 Continue</code>.
+     */
+    boolean takeContinueRequest() {
+        boolean requested = continueRequested;
+        continueRequested = false;
+        return requested;
+    }
+
+    String getMethod() {
+        return method;
+    }
+
+    String getTarget() {
+        return target;
+    }
+
+    String getProtocol() {
+        return protocol;
+    }
+
+    Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+
+    String getHeader(String name) {
+        List<String> values = headers.get(name);
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        return values.get(0);
+    }
+
+    byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * Should the connection stay open after the response to the parsed request.
+     *
+     * @return true if the connection should be kept alive.
+     */
+    boolean isKeepAlive() {
+        String connection = getHeader("Connection");
+        if ("HTTP/1.0".equals(protocol)) {
+            return "keep-alive".equalsIgnoreCase(connection);
+        }
+        return !"close".equalsIgnoreCase(connection);
+    }
+
+    private State stateAfterHeaders() throws IOException {
+        String transferEncoding = getHeader("Transfer-Encoding");
+        if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+            chunkedBody = new ByteArrayOutputStream();
+            continueRequested = expectsContinue();
+            return State.CHUNK_SIZE;
+        }
+        String contentLength = getHeader("Content-Length");
+        if (contentLength == null) {
+            body = EMPTY;
+            return State.DONE;
+        }
+        long length;
+        try {
+            length = Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid Content-Length " + contentLength);
+        }
+        if (length < 0) {
+            throw new IOException("Invalid Content-Length " + contentLength);
+        }
+        if (length > maxBodySize) {
+            throw new BodyTooLargeException("Content-Length " + length + " is larger than " + maxBodySize + " bytes");
+        }
+        body = new byte[(int) length];
+        if (length == 0) {
+            return State.DONE;
+        }
+        continueRequested = expectsContinue();
+        return State.BODY;
+    }
+
+    private boolean expectsContinue() {
+        return "100-continue".equalsIgnoreCase(getHeader("Expect"));
+    }
+
+    private void parseRequestLine(String line) throws IOException {
+        int firstSpace = line.indexOf(' ');
+        int lastSpace = line.lastIndexOf(' ');
+        if (firstSpace <= 0 || lastSpace == firstSpace) {
+            throw new IOException("Malformed request line " + line);
+        }
+        method = line.substring(0, firstSpace);
+        target = line.substring(firstSpace + 1, lastSpace).trim();
+        protocol = line.substring(lastSpace + 1);
+        if (!protocol.startsWith("HTTP/")) {
+            throw new IOException("Unsupported protocol " + protocol);
+        }
+    }
+
+    private void parseHeaderLine(String line) throws IOException {
+        int colon = line.indexOf(':');
+        if (colon <= 0) {
+            throw new IOException("Malformed header line " + line);
+        }
+        String name = line.substring(0, colon).trim();
+        String value = line.substring(colon + 1).trim();
+        List<String> values = headers.get(name);
+        if (values == null) {
+            values = new ArrayList<String>(1);
+            headers.put(name, values);
+        }
+        values.add(value);
+    }
+
+    private long parseChunkSize(String line) throws IOException {
+        int extension = line.indexOf(';');
+        String size = extension < 0 ? line : line.substring(0, extension);
+        try {
+            long chunkSize = Long.parseLong(size.trim(), 16);
+            if (chunkSize < 0) {
+                throw new IOException("Invalid chunk size " + line);
+            }
+            return chunkSize;
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid chunk size " + line);
+        }
+    }
+
+    /**
+     * Read a line terminated by LF or CRLF. The terminator is not part of the returned line.
+     *
+     * @return The line or <code>null</code> if the buffer does not hold a complete line.
+     */
+    private static String readLine(ByteBuffer in) {
+        byte[] array = in.array();
+        int offset = in.arrayOffset();
+        int start = offset + in.position();
+        int limit = offset + in.limit();
+        for (int i = start; i < limit; i++) {
+            if (array[i] == '\n') {
+                int end = i;
+                if (end > start && array[end - 1] == '\r') {
+                    end--;
+                }
+                in.position(i + 1 - offset);
+                return new String(array, start, end - start, Charsets.ISO_8859_1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Thrown if the body of a request is larger than the maximum body size of the parser.
+     */
+    static final class BodyTooLargeException extends IOException {
+
+        private static final long serialVersionUID = -3650262217548631915L;
+
+        BodyTooLargeException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.transport;
+
+import de.hanbei.httpserver.common.Cookie;
+import de.hanbei.httpserver.common.Header;
+import de.hanbei.httpserver.exceptions.ServerErrorException;
+import de.hanbei.httpserver.request.Request;
+import de.hanbei.httpserver.response.WireFormat;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * An {@link Exchange} for a {@link Request} passed to the {@link LoopbackTransport}.
+ */
+class LoopbackExchange implements Exchange {
+
+    private final Request request;
+    private final URI requestUri;
+    private final Map<String, List<String>> headers;
+    private final CountDownLatch closed;
+    private volatile WireFormat response;
+
+    LoopbackExchange(Request request) {
+        this.request = request;
+        this.requestUri = relative(request.getRequestUri());
+        this.headers = toHeaders(request.getHeader());
+        this.closed = new CountDownLatch(1);
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return request.getMethod().name();
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return requestUri;
+    }
+
+    @Override
+    public String getProtocol() {
+        return "HTTP/" + (request.getVersion() == null ? "1.1" : request.getVersion());
+    }
+
+    @Override
+    public Map<String, List<String>> getRequestHeaders() {
+        return headers;
+    }
+
+    @Override
+    public String getRequestHeader(String name) {
+        List<String> values = headers.get(name);
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        return values.get(0);
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return new ByteBufferInputStream(request.getContent().getBuffer());
+    }
+
+    @Override
+    public ByteBuffer getRequestBuffer() {
+        return request.getContent().getBuffer();
+    }
+
+    @Override
+    public void sendResponse(WireFormat sentResponse) {
+        if (response != null) {
+            throw new IllegalStateException("Response already sent");
+        }
+        this.response = sentResponse;
+    }
+
+    @Override
+    public void abort(ByteBuffer garbage) {
+        if (response != null) {
+            throw new IllegalStateException("Response already sent");
+        }
+        // the client sees no response, as if the connection was closed
+    }
+
+    @Override
+    public void close() {
+        closed.countDown();
+    }
+
+    WireFormat awaitResponse() {
+        try {
+            closed.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerErrorException("Interrupted while waiting for the response", e);
+        }
+        return response;
+    }
+
+    private static URI relative(URI uri) {
+        if (!uri.isAbsolute()) {
+            return uri;
+        }
+        String relative = uri.getRawPath();
+        if (uri.getRawQuery() != null) {
+            relative += "?" + uri.getRawQuery();
+        }
+        try {
+            return new URI(relative);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid request uri " + uri, e);
+        }
+    }
+
+    private static Map<String, List<String>> toHeaders(Header header) {
+        Map<String, List<String>> fields = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        for (String field : header.getHeaderFields()) {
+            List<String> values = new ArrayList<String>();
+            for (Header.Parameter parameter : header.getHeaderParameter(field)) {
+                values.add(parameter.toString());
+            }
+            fields.put(field, values);
+        }
+        if (!header.getCookies().isEmpty()) {
+            StringBuilder cookies = new StringBuilder();
+            for (Cookie cookie : header.getCookies()) {
+                if (cookies.length() > 0) {
+                    cookies.append("; ");
+                }
+                cookies.append(cookie.getName()).append('=').append(cookie.getValue());
+            }
+            List<String> values = new ArrayList<String>(1);
+            values.add(cookies.toString());
+            fields.put(Header.Fields.COOKIE, values);
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,129 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.transport;
+
+import de.hanbei.httpserver.exceptions.ServerErrorException;
+import de.hanbei.httpserver.request.Request;
+import de.hanbei.httpserver.response.Response;
+import de.hanbei.httpserver.response.WireFormat;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+
+/**
+ * A {@link Transport} that does not open any socket. Requests are passed to the server in memory with
+ * {@link #send(Request)} or through the {@link URLConnection}s of the urls created by {@link #url(String)}. Use it
+ * in tests that only need the routing and the responses of the server, they run faster and never collide on ports.
+ * <pre>
+ * LoopbackTransport loopback = new LoopbackTransport();
+ * MockHttpServer server = new MockHttpServer(0, loopback);
+ * server.start();
+ * Response response = loopback.send(request);
+ * </pre>
+ */
+public class LoopbackTransport implements Transport {
+
+    private static final String HOST = "localhost";
+
+    private final URLStreamHandler urlStreamHandler;
+    private ExchangeHandler handler;
+    private int port;
+    private volatile boolean running;
+
+    public LoopbackTransport() {
+        urlStreamHandler = new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL url) {
+                return new LoopbackURLConnection(url, LoopbackTransport.this);
+            }
+        };
+    }
+
+    @Override
+    public void bind(InetSocketAddress address, ExchangeHandler exchangeHandler) {
+        this.handler = exchangeHandler;
+        this.port = address.getPort();
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Get the port the transport pretends to be bound to. It is the port the server was created with and only used
+     * to build urls.
+     *
+     * @return The port given when the server was created.
+     */
+    @Override
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Send a request to the server and wait for the response.
+     *
+     * @param request The request. Its uri should be relative to the server root.
+     * @return The response of the server or <code>null</code> if the server did not answer, e.g. because it is set
+     *         to timeout.
+     */
+    public Response send(Request request) {
+        WireFormat response = exchange(request);
+        return response == null ? null : response.getResponse();
+    }
+
+    /**
+     * Send a request to the server and wait for the variant of the response chosen for it.
+     *
+     * @param request The request. Its uri should be relative to the server root.
+     * @return The encoded response or <code>null</code> if the server did not answer.
+     */
+    WireFormat exchange(Request request) {
+        if (!running) {
+            throw new ServerErrorException("The server is not running.");
+        }
+        LoopbackExchange exchange = new LoopbackExchange(request);
+        try {
+            handler.handle(exchange);
+        } catch (IOException e) {
+            throw new ServerErrorException("Error handling the request", e);
+        }
+        return exchange.awaitResponse();
+    }
+
+    /**
+     * Create an url whose connections are served by this transport. The connections are {@link
+     * java.net.HttpURLConnection}s, so clients built on them can be used unchanged.
+     *
+     * @param path The path relative to the server root, e.g. <code>/some/json?page=1</code>.
+     * @return An url that is served by this transport.
+     */
+    public URL url(String path) {
+        try {
+            return new URL("http", HOST, port, path.startsWith("/") ? path : "/" + path, urlStreamHandler);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid path " + path, e);
+        }
+    }
+}
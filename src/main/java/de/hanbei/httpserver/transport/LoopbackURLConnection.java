@@ -0,0 +1,323 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.transport;
+
+import de.hanbei.httpserver.common.Header;
+import de.hanbei.httpserver.common.HttpDate;
+import de.hanbei.httpserver.common.Method;
+import de.hanbei.httpserver.request.Request;
+import de.hanbei.httpserver.response.Response;
+import de.hanbei.httpserver.response.WireFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A {@link HttpURLConnection} served by a {@link LoopbackTransport}. The request is sent when the response is first
+ * accessed.
+ */
+class LoopbackURLConnection extends HttpURLConnection {
+
+    private final LoopbackTransport transport;
+    private final Map<String, List<String>> requestProperties;
+    private ByteArrayOutputStream requestBody;
+    private Response response;
+    private WireFormat responseBody;
+    private boolean bodyRead;
+    private List<String> headerKeys;
+    private List<String> headerValues;
+
+    LoopbackURLConnection(URL url, LoopbackTransport transport) {
+        super(url);
+        this.transport = transport;
+        this.requestProperties = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+    }
+
+    @Override
+    public void setRequestProperty(String key, String value) {
+        super.setRequestProperty(key, value);
+        List<String> values = new ArrayList<String>(1);
+        values.add(value);
+        requestProperties.put(key, values);
+    }
+
+    @Override
+    public void addRequestProperty(String key, String value) {
+        super.addRequestProperty(key, value);
+        List<String> values = requestProperties.get(key);
+        if (values == null) {
+            values = new ArrayList<String>(1);
+            requestProperties.put(key, values);
+        }
+        values.add(value);
+    }
+
+    @Override
+    public void connect() {
+        connected = true;
+    }
+
+    @Override
+    public void disconnect() {
+        connected = false;
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return false;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (response != null) {
+            throw new IllegalStateException("Request already sent");
+        }
+        if (requestBody == null) {
+            setDoOutput(true);
+            if ("GET".equals(method)) {
+                method = "POST";
+            }
+            requestBody = new ByteArrayOutputStream();
+        }
+        return requestBody;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        exchange();
+        if (responseCode >= HTTP_BAD_REQUEST) {
+            throw new FileNotFoundException(url.toString());
+        }
+        return body();
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        if (response == null || responseCode < HTTP_BAD_REQUEST) {
+            return null;
+        }
+        try {
+            return body();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        exchange();
+        return responseCode;
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        exchange();
+        return responseMessage;
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        if (!sent()) {
+            return null;
+        }
+        String value = null;
+        for (int i = 1; i < headerKeys.size(); i++) {
+            if (headerKeys.get(i).equalsIgnoreCase(name)) {
+                value = headerValues.get(i);
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+        if (!sent() || n >= headerKeys.size()) {
+            return null;
+        }
+        return headerKeys.get(n);
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+        if (!sent() || n >= headerValues.size()) {
+            return null;
+        }
+        return headerValues.get(n);
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        if (!sent()) {
+            return Collections.emptyMap();
+        }
+        Map<String, List<String>> fields = new LinkedHashMap<String, List<String>>();
+        for (int i = 0; i < headerKeys.size(); i++) {
+            List<String> values = fields.get(headerKeys.get(i));
+            if (values == null) {
+                values = new ArrayList<String>();
+                fields.put(headerKeys.get(i), values);
+            }
+            values.add(headerValues.get(i));
+        }
+        return Collections.unmodifiableMap(fields);
+    }
+
+    private boolean sent() {
+        try {
+            exchange();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void exchange() throws IOException {
+        if (response != null) {
+            return;
+        }
+        Request request = toRequest();
+        connected = true;
+        WireFormat received = transport.exchange(request);
+        if (received == null) {
+            throw new IOException("Unexpected end of file from server");
+        }
+        response = received.getResponse();
+        responseCode = response.getStatus().getStatusCode();
+        responseMessage = response.getStatus().getReason();
+        responseBody = received;
+
+        headerKeys = new ArrayList<String>();
+        headerValues = new ArrayList<String>();
+        headerKeys.add(null);
+        headerValues.add("HTTP/" + response.getHttpVersion() + " " + response.getStatus());
+        for (Map.Entry<String, List<String>> field : received.getFields().entrySet()) {
+            for (String value : field.getValue()) {
+                headerKeys.add(field.getKey());
+                headerValues.add(value);
+            }
+        }
+        if (responseBody.getContentLength() >= 0) {
+            headerKeys.add(Header.Fields.CONTENT_LENGTH);
+            headerValues.add(Long.toString(responseBody.getContentLength()));
+        }
+        if (!received.getFields().containsKey(Header.Fields.DATE)) {
+            headerKeys.add(Header.Fields.DATE);
+            headerValues.add(HttpDate.now());
+        }
+    }
+
+    private InputStream body() throws IOException {
+        InputStream body;
+        if (!responseBody.isStreamed()) {
+            body = new ByteBufferInputStream(responseBody.body());
+        } else if (bodyRead) {
+            throw new IOException("The streamed body has already been read");
+        } else {
+            bodyRead = true;
+            body = new ChunkSourceInputStream(responseBody.openBody());
+        }
+        if (responseBody.isMisframed()) {
+            return new DeclaredLengthInputStream(body, responseBody.getContentLength());
+        }
+        return body;
+    }
+
+    private Request toRequest() throws IOException {
+        Request request = new Request();
+        try {
+            request.setMethod(Method.valueOf(method));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unsupported method " + method);
+        }
+        try {
+            request.setRequestUri(new URI(url.getFile()));
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid url " + url);
+        }
+        // getRequestProperties() is not available once connected, so the properties are tracked separately
+        for (Map.Entry<String, List<String>> property : requestProperties.entrySet()) {
+            for (String value : property.getValue()) {
+                request.getHeader().addParameter(property.getKey(), value);
+            }
+        }
+        if (requestBody != null) {
+            request.getContent().setContent(requestBody.toByteArray());
+        }
+        return request;
+    }
+
+    /**
+     * Reads a misframed body the way a client trusting the declared length does: bytes beyond it are not part of the
+     * body and a body ending before it is an error.
+     */
+    private static final class DeclaredLengthInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        DeclaredLengthInputStream(InputStream in, long declaredLength) {
+            super(in);
+            this.remaining = declaredLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read < 0) {
+                throw new IOException("Premature EOF");
+            }
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,443 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.transport;
+
+import de.hanbei.httpserver.common.ChunkSource;
+import de.hanbei.httpserver.common.PacedChunkSource;
+import org.apache.commons.io.Charsets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A connection served by an {@link EventLoop}. Reads and parses requests, hands them to the {@link ExchangeHandler}
+ * and writes the responses with gathering writes. Requests on one connection are handled one after the other. All
+ * methods except {@link #write(ByteBuffer[])}, {@link #stream(ByteBuffer, ChunkSource, boolean, boolean)} and
+ * {@link #finish(boolean)} must be called on the event loop.
+ * <p/>
+ * Streamed bodies are pulled from their source on the event loop, one chunk whenever the previous one has been
+ * written to the socket. A connection writes at most {@link #WRITE_BUDGET} bytes each time it is ready, so a fast
+ * stream does not starve the other connections of the loop.
+ */
+final class NioConnection implements EventLoop.Handler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioConnection.class);
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+    private static final int MAX_BUFFER_SIZE = 65536;
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(Charsets.ISO_8859_1);
+    private static final int WRITE_BUDGET = 256 * 1024;
+    private static final ByteBuffer CRLF = ByteBuffer.wrap("\r\n".getBytes(Charsets.ISO_8859_1)).asReadOnlyBuffer();
+    private static final ByteBuffer LAST_CHUNK =
+            ByteBuffer.wrap("0\r\n\r\n".getBytes(Charsets.ISO_8859_1)).asReadOnlyBuffer();
+    private static final byte[] BAD_REQUEST =
+            "HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes(Charsets.ISO_8859_1);
+    private static final byte[] PAYLOAD_TOO_LARGE = ("HTTP/1.1 413 Request Entity Too Large\r\nContent-Length: 0\r\n"
+            + "Connection: close\r\n\r\n").getBytes(Charsets.ISO_8859_1);
+
+    private final EventLoop loop;
+    private final SocketChannel channel;
+    private final ExchangeHandler handler;
+    private final Executor executor;
+    private final HttpRequestParser parser;
+    private final Deque<ByteBuffer[]> outbound;
+    private SelectionKey key;
+    private ByteBuffer in;
+    private ChunkSource streaming;
+    private boolean streamChunked;
+    private boolean paused;
+    private boolean dispatched;
+    private boolean exchangeFinished;
+    private boolean responded;
+    private boolean keepAlive;
+    private boolean closed;
+
+    NioConnection(EventLoop loop, SocketChannel channel, ExchangeHandler handler, Executor executor,
+                  int maxBodySize) {
+        this.loop = loop;
+        this.channel = channel;
+        this.handler = handler;
+        this.executor = executor;
+        this.parser = new HttpRequestParser(maxBodySize);
+        this.outbound = new ArrayDeque<ByteBuffer[]>();
+        this.in = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    }
+
+    void register() throws IOException {
+        channel.configureBlocking(false);
+        key = channel.register(loop.selector(), SelectionKey.OP_READ, this);
+        loop.added(this);
+    }
+
+    @Override
+    public void ready(SelectionKey selectionKey) {
+        try {
+            if (selectionKey.isReadable()) {
+                read();
+            }
+            if (selectionKey.isValid() && selectionKey.isWritable()) {
+                flush();
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Closing connection after I/O error", e);
+            close();
+        }
+    }
+
+    private void read() throws IOException {
+        int read = channel.read(in);
+        if (read < 0) {
+            close();
+            return;
+        }
+        process();
+    }
+
+    private void process() throws IOException {
+        if (dispatched || closed) {
+            return;
+        }
+        boolean complete;
+        in.flip();
+        try {
+            complete = parser.parse(in);
+        } catch (HttpRequestParser.BodyTooLargeException e) {
+            LOGGER.debug("Rejecting request with a too large body", e);
+            in.compact();
+            reject(PAYLOAD_TOO_LARGE);
+            return;
+        } catch (IOException e) {
+            LOGGER.debug("Rejecting malformed request", e);
+            in.compact();
+            reject(BAD_REQUEST);
+            return;
+        }
+        in.compact();
+        if (parser.takeContinueRequest()) {
+            enqueue(new ByteBuffer[]{ByteBuffer.wrap(CONTINUE)});
+        }
+        if (complete) {
+            dispatch();
+        } else if (!in.hasRemaining()) {
+            growBuffer();
+        }
+    }
+
+    private void growBuffer() {
+        if (in.capacity() >= MAX_BUFFER_SIZE) {
+            LOGGER.debug("Rejecting request with a head larger than {} bytes", MAX_BUFFER_SIZE);
+            reject(BAD_REQUEST);
+            return;
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(in.capacity() * 2);
+        in.flip();
+        bigger.put(in);
+        in = bigger;
+    }
+
+    private void dispatch() {
+        URI uri;
+        try {
+            uri = new URI(parser.getTarget());
+        } catch (URISyntaxException e) {
+            LOGGER.debug("Rejecting request with malformed uri", e);
+            reject(BAD_REQUEST);
+            return;
+        }
+        dispatched = true;
+        keepAlive = parser.isKeepAlive();
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        final NioExchange exchange = new NioExchange(this, parser.getMethod(), uri, parser.getProtocol(),
+                parser.getHeaders(), parser.getBody(), keepAlive);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    handler.handle(exchange);
+                } catch (Exception e) {
+                    LOGGER.error("Error handling request", e);
+                    exchange.close();
+                }
+            }
+        };
+        if (executor == null) {
+            task.run();
+        } else {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                LOGGER.warn("Request rejected by executor", e);
+                close();
+            }
+        }
+    }
+
+    private void reject(byte[] response) {
+        dispatched = true;
+        keepAlive = false;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        enqueue(new ByteBuffer[]{ByteBuffer.wrap(response)});
+        finished(true);
+    }
+
+    /**
+     * Write buffers to the client. May be called from any thread.
+     *
+     * @param buffers The buffers to write.
+     */
+    void write(final ByteBuffer[] buffers) {
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                enqueue(buffers);
+            }
+        });
+    }
+
+    /**
+     * Write a head and stream a body after it. May be called from any thread.
+     *
+     * @param head       The buffers of the head of the response.
+     * @param source     The source of the body, closed once it is written or the connection is closed.
+     * @param chunked    true if the chunks have to be framed with the chunked transfer coding.
+     * @param closeAfter true if the connection has to be closed after the body as its end is not framed otherwise.
+     */
+    void stream(final ByteBuffer[] head, final ChunkSource source, final boolean chunked, final boolean closeAfter) {
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (closed) {
+                    closeQuietly(source);
+                    return;
+                }
+                if (closeAfter) {
+                    keepAlive = false;
+                }
+                streaming = source;
+                streamChunked = chunked;
+                enqueue(head);
+            }
+        });
+    }
+
+    /**
+     * Send bytes that are no response and close the connection after them, or reset it. May be called from any
+     * thread.
+     *
+     * @param garbage The bytes to send or <code>null</code> to reset the connection.
+     */
+    void abort(final ByteBuffer garbage) {
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (closed) {
+                    return;
+                }
+                if (garbage == null) {
+                    reset();
+                    return;
+                }
+                keepAlive = false;
+                enqueue(new ByteBuffer[]{garbage});
+            }
+        });
+    }
+
+    /**
+     * Close the connection with a RST instead of a FIN, as a crashed server would.
+     */
+    private void reset() {
+        try {
+            channel.socket().setSoLinger(true, 0);
+        } catch (IOException e) {
+            LOGGER.debug("Could not reset connection", e);
+        }
+        close();
+    }
+
+    /**
+     * Finish the current exchange. May be called from any thread.
+     *
+     * @param hasResponded Has a response been sent for the exchange.
+     */
+    void finish(final boolean hasResponded) {
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                finished(hasResponded);
+            }
+        });
+    }
+
+    private void enqueue(ByteBuffer[] buffers) {
+        if (closed) {
+            return;
+        }
+        outbound.add(buffers);
+        try {
+            flush();
+        } catch (IOException e) {
+            LOGGER.debug("Closing connection after I/O error", e);
+            close();
+        }
+    }
+
+    private void finished(boolean hasResponded) {
+        if (closed) {
+            return;
+        }
+        exchangeFinished = true;
+        responded = hasResponded;
+        try {
+            flush();
+        } catch (IOException e) {
+            LOGGER.debug("Closing connection after I/O error", e);
+            close();
+        }
+    }
+
+    private void flush() throws IOException {
+        long budget = WRITE_BUDGET;
+        while (!outbound.isEmpty() || pullChunk()) {
+            ByteBuffer[] buffers = outbound.peek();
+            budget -= channel.write(buffers);
+            if (buffers[buffers.length - 1].hasRemaining()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+            outbound.poll();
+            if (budget <= 0 && (streaming != null || !outbound.isEmpty())) {
+                // the socket is still writable, so the loop comes back after serving the others
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        if (exchangeFinished && streaming == null) {
+            completeExchange();
+        }
+    }
+
+    private boolean pullChunk() throws IOException {
+        if (streaming == null || paused) {
+            return false;
+        }
+        if (streaming instanceof PacedChunkSource) {
+            long pause = ((PacedChunkSource) streaming).nanosUntilNext();
+            if (pause > 0) {
+                pause(pause);
+                return false;
+            }
+        }
+        ByteBuffer chunk = streaming.next();
+        while (chunk != null && !chunk.hasRemaining()) {
+            chunk = streaming.next();
+        }
+        if (chunk == null) {
+            closeQuietly(streaming);
+            streaming = null;
+            if (streamChunked) {
+                outbound.add(new ByteBuffer[]{LAST_CHUNK.duplicate()});
+                return true;
+            }
+            return false;
+        }
+        if (streamChunked) {
+            byte[] size = (Integer.toHexString(chunk.remaining()) + "\r\n").getBytes(Charsets.ISO_8859_1);
+            outbound.add(new ByteBuffer[]{ByteBuffer.wrap(size), chunk, CRLF.duplicate()});
+        } else {
+            outbound.add(new ByteBuffer[]{chunk});
+        }
+        return true;
+    }
+
+    /**
+     * Stop writing a throttled body until the pause is over, without keeping the event loop busy.
+     */
+    private void pause(long nanos) {
+        paused = true;
+        Pacer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                loop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        paused = false;
+                        if (closed) {
+                            return;
+                        }
+                        try {
+                            flush();
+                        } catch (IOException e) {
+                            LOGGER.debug("Closing connection after I/O error", e);
+                            close();
+                        }
+                    }
+                });
+            }
+        }, nanos);
+    }
+
+    private static void closeQuietly(ChunkSource source) {
+        try {
+            source.close();
+        } catch (IOException e) {
+            LOGGER.debug("Could not close the source of a streamed body", e);
+        }
+    }
+
+    private void completeExchange() throws IOException {
+        if (!responded || !keepAlive) {
+            close();
+            return;
+        }
+        exchangeFinished = false;
+        responded = false;
+        dispatched = false;
+        parser.reset();
+        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        process();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        outbound.clear();
+        if (streaming != null) {
+            closeQuietly(streaming);
+            streaming = null;
+        }
+        loop.removed(this);
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.debug("Could not close connection", e);
+        }
+    }
+}
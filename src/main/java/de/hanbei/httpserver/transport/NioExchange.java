@@ -0,0 +1,127 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.transport;
+
+import de.hanbei.httpserver.response.WireFormat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An {@link Exchange} for a request received by the {@link NioTransport}.
+ */
+class NioExchange implements Exchange {
+
+    private final NioConnection connection;
+    private final String method;
+    private final URI requestUri;
+    private final String protocol;
+    private final Map<String, List<String>> headers;
+    private final byte[] body;
+    private final boolean keepAlive;
+    private boolean responded;
+    private boolean closed;
+
+    NioExchange(NioConnection connection, String method, URI requestUri, String protocol,
+                Map<String, List<String>> headers, byte[] body, boolean keepAlive) {
+        this.connection = connection;
+        this.method = method;
+        this.requestUri = requestUri;
+        this.protocol = protocol;
+        this.headers = headers;
+        this.body = body;
+        this.keepAlive = keepAlive;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return method;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return requestUri;
+    }
+
+    @Override
+    public String getProtocol() {
+        return protocol;
+    }
+
+    @Override
+    public Map<String, List<String>> getRequestHeaders() {
+        return headers;
+    }
+
+    @Override
+    public String getRequestHeader(String name) {
+        List<String> values = headers.get(name);
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        return values.get(0);
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return new ByteArrayInputStream(body);
+    }
+
+    @Override
+    public ByteBuffer getRequestBuffer() {
+        return ByteBuffer.wrap(body).asReadOnlyBuffer();
+    }
+
+    @Override
+    public void sendResponse(WireFormat wireFormat) throws IOException {
+        if (responded) {
+            throw new IllegalStateException("Response already sent");
+        }
+        responded = true;
+        boolean http10 = "HTTP/1.0".equals(protocol);
+        if (wireFormat.isMisframed()) {
+            // the client cannot find the end of the body, so nothing may follow it
+            connection.stream(wireFormat.datedHead(false, http10), wireFormat.openBody(), false, true);
+        } else if (wireFormat.isBodyAllowed() && wireFormat.isStreamed()) {
+            boolean chunked = wireFormat.isChunked() && !http10;
+            boolean closeAfter = !keepAlive || wireFormat.isChunked() && http10;
+            connection.stream(wireFormat.datedHead(keepAlive, http10), wireFormat.openBody(), chunked, closeAfter);
+        } else {
+            connection.write(ResponseEncoder.encode(wireFormat, keepAlive, http10));
+        }
+    }
+
+    @Override
+    public void abort(ByteBuffer garbage) {
+        if (responded) {
+            throw new IllegalStateException("Response already sent");
+        }
+        responded = true;
+        connection.abort(garbage);
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        connection.finish(responded);
+    }
+}
@@ -0,0 +1,219 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.transport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link Transport} built directly on <code>java.nio</code> selectors. Connections are accepted by dedicated
+ * acceptor threads and spread round robin over a number of event loops, each with its own selector and its own set of
+ * connections. Requests are parsed straight from the receive buffers of the connections and responses are written
+ * with gathering writes. By default requests are handled on the event loop thread of their connection, so request
+ * processors should not block unless an executor is given.
+ * <p/>
+ * Use {@link #builder()} to configure the number of event loops, the backlog, the socket options and the maximum size
+ * of request bodies.
+ */
+public class NioTransport implements Transport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioTransport.class);
+    private static final long STOP_TIMEOUT = 1000;
+
+    private final Executor executor;
+    private final int eventLoopCount;
+    private final int acceptorCount;
+    private final int backlog;
+    private final boolean tcpNoDelay;
+    private final int receiveBufferSize;
+    private final int sendBufferSize;
+    private final int maxBodySize;
+
+    private final List<EventLoop> loops;
+    private final List<Thread> acceptors;
+    private final AtomicInteger nextLoop;
+    private ServerSocketChannel serverChannel;
+    private ExchangeHandler handler;
+    private boolean started;
+
+    /**
+     * Create a transport with one event loop per available processor that handles requests on its event loops.
+     */
+    public NioTransport() {
+        this(new NioTransportBuilder());
+    }
+
+    /**
+     * Create a transport with one event loop per available processor that handles requests on an executor.
+     *
+     * @param executor The executor requests are handled on or <code>null</code> to handle them on the event loops.
+     */
+    public NioTransport(Executor executor) {
+        this(new NioTransportBuilder().executor(executor));
+    }
+
+    NioTransport(NioTransportBuilder builder) {
+        this.executor = builder.getExecutor();
+        this.eventLoopCount = builder.getEventLoops();
+        this.acceptorCount = builder.getAcceptors();
+        this.backlog = builder.getBacklog();
+        this.tcpNoDelay = builder.isTcpNoDelay();
+        this.receiveBufferSize = builder.getReceiveBufferSize();
+        this.sendBufferSize = builder.getSendBufferSize();
+        this.maxBodySize = builder.getMaxBodySize();
+        this.loops = new ArrayList<EventLoop>(eventLoopCount);
+        this.acceptors = new ArrayList<Thread>(acceptorCount);
+        this.nextLoop = new AtomicInteger();
+    }
+
+    /**
+     * Create a builder to configure a NioTransport.
+     *
+     * @return A builder initialized with the default configuration.
+     */
+    public static NioTransportBuilder builder() {
+        return new NioTransportBuilder();
+    }
+
+    @Override
+    public void bind(InetSocketAddress address, ExchangeHandler exchangeHandler) throws IOException {
+        this.handler = exchangeHandler;
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        if (receiveBufferSize > 0) {
+            // has to be set before binding to take effect for accepted sockets
+            serverChannel.socket().setReceiveBufferSize(receiveBufferSize);
+        }
+        serverChannel.socket().bind(address, backlog);
+        for (int i = 0; i < eventLoopCount; i++) {
+            loops.add(new EventLoop());
+        }
+    }
+
+    /**
+     * Start the event loops and acceptors. Like the JDK server a transport can only be started once, as stopping it
+     * closes its server socket and selectors.
+     *
+     * @throws IllegalStateException If the transport was started before.
+     */
+    @Override
+    public void start() {
+        if (started) {
+            throw new IllegalStateException("A NioTransport can only be started once");
+        }
+        started = true;
+        for (int i = 0; i < loops.size(); i++) {
+            loops.get(i).start("mock-httpserver-nio-" + i);
+        }
+        for (int i = 0; i < acceptorCount; i++) {
+            Thread acceptor = new Thread(new Acceptor(), "mock-httpserver-acceptor-" + i);
+            acceptor.setDaemon(true);
+            acceptor.start();
+            acceptors.add(acceptor);
+        }
+    }
+
+    @Override
+    public void stop() {
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            LOGGER.warn("Could not close server socket", e);
+        }
+        for (Thread acceptor : acceptors) {
+            try {
+                acceptor.join(STOP_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (EventLoop loop : loops) {
+            loop.stop();
+        }
+    }
+
+    @Override
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Get the number of event loops serving the connections.
+     *
+     * @return The number of event loops.
+     */
+    public int getEventLoopCount() {
+        return eventLoopCount;
+    }
+
+    private void register(final SocketChannel channel) throws IOException {
+        Socket socket = channel.socket();
+        socket.setTcpNoDelay(tcpNoDelay);
+        if (sendBufferSize > 0) {
+            socket.setSendBufferSize(sendBufferSize);
+        }
+        final EventLoop loop = loops.get((nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.size());
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    new NioConnection(loop, channel, handler, executor, maxBodySize).register();
+                } catch (IOException e) {
+                    LOGGER.warn("Could not register connection", e);
+                    closeQuietly(channel);
+                }
+            }
+        });
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.debug("Could not close connection", e);
+        }
+    }
+
+    private final class Acceptor implements Runnable {
+
+        @Override
+        public void run() {
+            while (serverChannel.isOpen()) {
+                SocketChannel channel = null;
+                try {
+                    channel = serverChannel.accept();
+                    register(channel);
+                } catch (ClosedChannelException e) {
+                    return;
+                } catch (IOException e) {
+                    LOGGER.warn("Could not accept connection", e);
+                    if (channel != null) {
+                        closeQuietly(channel);
+                    }
+                }
+            }
+        }
+    }
+}
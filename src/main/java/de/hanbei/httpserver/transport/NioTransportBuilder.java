@@ -0,0 +1,177 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.transport;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Builder Pattern implementation for configuring a {@link NioTransport}.
+ */
+public class NioTransportBuilder {
+
+    private static final int DEFAULT_BACKLOG = 1024;
+    private static final int DEFAULT_MAX_BODY_SIZE = 64 * 1024 * 1024;
+
+    private Executor executor;
+    private int eventLoops = Runtime.getRuntime().availableProcessors();
+    private int acceptors = 1;
+    private int backlog = DEFAULT_BACKLOG;
+    private boolean tcpNoDelay = true;
+    private int receiveBufferSize;
+    private int sendBufferSize;
+    private int maxBodySize = DEFAULT_MAX_BODY_SIZE;
+
+    NioTransportBuilder() {
+        // created by NioTransport.builder()
+    }
+
+    /**
+     * Actually build the transport.
+     *
+     * @return The configured transport.
+     */
+    public NioTransport build() {
+        return new NioTransport(this);
+    }
+
+    /**
+     * Set the executor requests are handled on. Defaults to handling requests on the event loops.
+     *
+     * @param executor The executor requests are handled on or <code>null</code> to handle them on the event loops.
+     * @return A NioTransportBuilder to add additional configuration.
+     */
+    public NioTransportBuilder executor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Set the number of event loops that serve the connections. Defaults to the number of available processors.
+     *
+     * @param eventLoops The number of event loops, at least 1.
+     * @return A NioTransportBuilder to add additional configuration.
+     */
+    public NioTransportBuilder eventLoops(int eventLoops) {
+        if (eventLoops < 1) {
+            throw new IllegalArgumentException("At least one event loop is needed");
+        }
+        this.eventLoops = eventLoops;
+        return this;
+    }
+
+    /**
+     * Set the number of threads accepting connections. Defaults to 1.
+     *
+     * @param acceptors The number of acceptor threads, at least 1.
+     * @return A NioTransportBuilder to add additional configuration.
+     */
+    public NioTransportBuilder acceptors(int acceptors) {
+        if (acceptors < 1) {
+            throw new IllegalArgumentException("At least one acceptor is needed");
+        }
+        this.acceptors = acceptors;
+        return this;
+    }
+
+    /**
+     * Set the maximum number of pending connections. Defaults to 1024, the operating system may use a lower limit.
+     *
+     * @param backlog The maximum number of pending connections.
+     * @return A NioTransportBuilder to add additional configuration.
+     */
+    public NioTransportBuilder backlog(int backlog) {
+        this.backlog = backlog;
+        return this;
+    }
+
+    /**
+     * Enable or disable <code>TCP_NODELAY</code> on accepted sockets. Enabled by default.
+     *
+     * @param tcpNoDelay true to disable Nagle's algorithm.
+     * @return A NioTransportBuilder to add additional configuration.
+     */
+    public NioTransportBuilder tcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+        return this;
+    }
+
+    /**
+     * Set <code>SO_RCVBUF</code> of accepted sockets. Defaults to the operating system default.
+     *
+     * @param receiveBufferSize The size of the receive buffer in bytes.
+     * @return A NioTransportBuilder to add additional configuration.
+     */
+    public NioTransportBuilder receiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+        return this;
+    }
+
+    /**
+     * Set <code>SO_SNDBUF</code> of accepted sockets. Defaults to the operating system default.
+     *
+     * @param sendBufferSize The size of the send buffer in bytes.
+     * @return A NioTransportBuilder to add additional configuration.
+     */
+    public NioTransportBuilder sendBufferSize(int sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+        return this;
+    }
+
+    /**
+     * Set the maximum size of a request body. Requests with a larger body are answered with
+     * <code>413 Request Entity Too Large</code> before the body is read. Defaults to 64 MB.
+     *
+     * @param maxBodySize The maximum size of a request body in bytes.
+     * @return A NioTransportBuilder to add additional configuration.
+     */
+    public NioTransportBuilder maxBodySize(int maxBodySize) {
+        if (maxBodySize < 0) {
+            throw new IllegalArgumentException("The maximum body size must not be negative");
+        }
+        this.maxBodySize = maxBodySize;
+        return this;
+    }
+
+    Executor getExecutor() {
+        return executor;
+    }
+
+    int getEventLoops() {
+        return eventLoops;
+    }
+
+    int getAcceptors() {
+        return acceptors;
+    }
+
+    int getBacklog() {
+        return backlog;
+    }
+
+    boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    int getMaxBodySize() {
+        return maxBodySize;
+    }
+}
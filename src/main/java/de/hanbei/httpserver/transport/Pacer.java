@@ -0,0 +1,77 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.transport;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The timer that resumes throttled bodies, see {@link de.hanbei.httpserver.common.PacedChunkSource}. One daemon
+ * thread is shared by all connections of all servers, so the tasks must not block for long. Tasks that write to a
+ * blocking stream run on a pool of writer threads instead, so a client that stops reading only stalls its own body.
+ */
+final class Pacer {
+
+    private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "mock-httpserver-pacer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final ExecutorService WRITERS = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "mock-httpserver-paced-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private Pacer() {
+        // static methods only
+    }
+
+    /**
+     * Run a task after a pause.
+     *
+     * @param task  The task.
+     * @param nanos The pause in nanoseconds.
+     */
+    static void schedule(Runnable task, long nanos) {
+        TIMER.schedule(task, nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Run a task that may block on a socket after a pause. The timer only hands the task to a writer thread.
+     *
+     * @param task  The task.
+     * @param nanos The pause in nanoseconds.
+     */
+    static void scheduleBlocking(final Runnable task, long nanos) {
+        TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                WRITERS.execute(task);
+            }
+        }, nanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,41 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.transport;
+
+import de.hanbei.httpserver.response.Response;
+import de.hanbei.httpserver.response.WireFormat;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Gets the buffers that are written to the socket for a {@link Response} from its {@link WireFormat}: the head with
+ * status line and header fields, completed with the current date, and the body.
+ */
+final class ResponseEncoder {
+
+    private ResponseEncoder() {
+        // no construction
+    }
+
+    static ByteBuffer[] encode(WireFormat wireFormat, boolean keepAlive, boolean http10) {
+        ByteBuffer[] head = wireFormat.datedHead(keepAlive, http10);
+        if (!wireFormat.isBodyAllowed() || wireFormat.getContentLength() == 0) {
+            return head;
+        }
+        ByteBuffer[] buffers = Arrays.copyOf(head, head.length + 1);
+        buffers[head.length] = wireFormat.body();
+        return buffers;
+    }
+}
@@ -0,0 +1,248 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.transport;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import de.hanbei.httpserver.common.ChunkSource;
+import de.hanbei.httpserver.common.Header;
+import de.hanbei.httpserver.common.PacedChunkSource;
+import de.hanbei.httpserver.response.WireFormat;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.Math.max;
+
+/**
+ * An {@link Exchange} backed by a {@link HttpExchange} of the JDK http server. A throttled body is written chunk by
+ * chunk from the {@link Pacer}, the exchange is closed once it is written.
+ */
+class SunExchange implements Exchange {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SunExchange.class);
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    private final HttpExchange httpExchange;
+    private ByteBuffer requestBody;
+    private boolean pacing;
+    private boolean closeRequested;
+
+    SunExchange(HttpExchange httpExchange) {
+        this.httpExchange = httpExchange;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return httpExchange.getRequestMethod();
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return httpExchange.getRequestURI();
+    }
+
+    @Override
+    public String getProtocol() {
+        return httpExchange.getProtocol();
+    }
+
+    @Override
+    public Map<String, List<String>> getRequestHeaders() {
+        return httpExchange.getRequestHeaders();
+    }
+
+    @Override
+    public String getRequestHeader(String name) {
+        return httpExchange.getRequestHeaders().getFirst(name);
+    }
+
+    @Override
+    public synchronized InputStream getRequestBody() {
+        if (requestBody != null) {
+            return new ByteBufferInputStream(requestBody.duplicate());
+        }
+        return httpExchange.getRequestBody();
+    }
+
+    @Override
+    public synchronized ByteBuffer getRequestBuffer() throws IOException {
+        if (requestBody == null) {
+            Headers headers = httpExchange.getRequestHeaders();
+            if (headers.containsKey(Header.Fields.CONTENT_LENGTH)
+                    || headers.containsKey(Header.Fields.TRANSFER_ENCODING)) {
+                requestBody = ByteBuffer.wrap(IOUtils.toByteArray(httpExchange.getRequestBody())).asReadOnlyBuffer();
+            } else {
+                // a request without length and transfer encoding has no body
+                requestBody = EMPTY;
+            }
+        }
+        return requestBody.duplicate();
+    }
+
+    @Override
+    public void sendResponse(WireFormat wireFormat) throws IOException {
+        Headers responseHeaders = httpExchange.getResponseHeaders();
+        for (Map.Entry<String, List<String>> field : wireFormat.getFields().entrySet()) {
+            for (String value : field.getValue()) {
+                responseHeaders.add(field.getKey(), value);
+            }
+        }
+        if (!wireFormat.isBodyAllowed() || wireFormat.getContentLength() == 0) {
+            httpExchange.sendResponseHeaders(wireFormat.getStatusCode(), -1);
+            return;
+        }
+        // a length of 0 makes the JDK server send the body chunked
+        httpExchange.sendResponseHeaders(wireFormat.getStatusCode(), max(0, wireFormat.getContentLength()));
+        OutputStream out = httpExchange.getResponseBody();
+        if (wireFormat.isMisframed()) {
+            // the JDK server refuses to write more than declared and closes the connection if less is written
+            out = new DeclaredLengthOutputStream(out, wireFormat.getContentLength());
+        }
+        if (!wireFormat.isStreamed()) {
+            wireFormat.writeBody(out);
+            return;
+        }
+        ChunkSource source = wireFormat.openBody();
+        if (source instanceof PacedChunkSource) {
+            synchronized (this) {
+                pacing = true;
+            }
+            new PacedWriter((PacedChunkSource) source, out).run();
+            return;
+        }
+        try {
+            WritableByteChannel channel = Channels.newChannel(out);
+            ByteBuffer chunk;
+            while ((chunk = source.next()) != null) {
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk);
+                }
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    @Override
+    public void abort(ByteBuffer garbage) {
+        // the JDK server can neither send raw bytes nor reset a connection, but closing the exchange without a
+        // response closes the connection
+    }
+
+    @Override
+    public synchronized void close() {
+        if (pacing) {
+            closeRequested = true;
+        } else {
+            httpExchange.close();
+        }
+    }
+
+    private synchronized void paced() {
+        pacing = false;
+        if (closeRequested) {
+            httpExchange.close();
+        }
+    }
+
+    /**
+     * Writes the chunks of a throttled body as their time comes and schedules itself for the next one.
+     */
+    private final class PacedWriter implements Runnable {
+
+        private final PacedChunkSource source;
+        private final OutputStream out;
+        private final WritableByteChannel channel;
+
+        PacedWriter(PacedChunkSource source, OutputStream out) {
+            this.source = source;
+            this.out = out;
+            this.channel = Channels.newChannel(out);
+        }
+
+        @Override
+        public void run() {
+            try {
+                long pause;
+                while ((pause = source.nanosUntilNext()) == 0) {
+                    ByteBuffer chunk = source.next();
+                    if (chunk == null) {
+                        finish();
+                        return;
+                    }
+                    while (chunk.hasRemaining()) {
+                        channel.write(chunk);
+                    }
+                    out.flush();
+                }
+                Pacer.scheduleBlocking(this, pause);
+            } catch (IOException e) {
+                LOGGER.debug("Could not write a throttled body", e);
+                finish();
+            }
+        }
+
+        private void finish() {
+            try {
+                source.close();
+            } catch (IOException e) {
+                LOGGER.debug("Could not close the source of a throttled body", e);
+            }
+            paced();
+        }
+    }
+
+    /**
+     * Drops the bytes of a misframed body beyond its declared length.
+     */
+    private static final class DeclaredLengthOutputStream extends FilterOutputStream {
+
+        private long remaining;
+
+        DeclaredLengthOutputStream(OutputStream out, long declaredLength) {
+            super(out);
+            this.remaining = declaredLength;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (remaining > 0) {
+                remaining--;
+                out.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int written = (int) Math.min(len, remaining);
+            if (written > 0) {
+                remaining -= written;
+                out.write(b, off, written);
+            }
+        }
+    }
+}
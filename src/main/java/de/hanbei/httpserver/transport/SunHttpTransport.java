@@ -0,0 +1,90 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.transport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link Transport} based on the http server shipped with the JDK (<code>com.sun.net.httpserver</code>).
+ */
+public class SunHttpTransport implements Transport {
+
+    private static final int DEFAULT_BACKLOG = 100;
+
+    private final Executor executor;
+    private final int backlog;
+    private HttpServer server;
+
+    /**
+     * Create a transport that handles all requests on a single dispatcher thread.
+     */
+    public SunHttpTransport() {
+        this(null);
+    }
+
+    /**
+     * Create a transport that handles requests on an executor.
+     *
+     * @param executor The executor requests are handled on or <code>null</code> to handle them on a single
+     *                 dispatcher thread.
+     */
+    public SunHttpTransport(Executor executor) {
+        this(executor, DEFAULT_BACKLOG);
+    }
+
+    /**
+     * Create a transport that handles requests on an executor and queues a number of pending connections.
+     *
+     * @param executor The executor requests are handled on or <code>null</code> to handle them on a single
+     *                 dispatcher thread.
+     * @param backlog  The maximum number of pending connections.
+     */
+    public SunHttpTransport(Executor executor, int backlog) {
+        this.executor = executor;
+        this.backlog = backlog;
+    }
+
+    @Override
+    public void bind(InetSocketAddress address, final ExchangeHandler handler) throws IOException {
+        server = HttpServer.create(address, backlog);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange httpExchange) throws IOException {
+                handler.handle(new SunExchange(httpExchange));
+            }
+        });
+        server.setExecutor(executor);
+    }
+
+    @Override
+    public void start() {
+        server.start();
+    }
+
+    @Override
+    public void stop() {
+        server.stop(1);
+    }
+
+    @Override
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+}
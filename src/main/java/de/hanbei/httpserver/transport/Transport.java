@@ -0,0 +1,53 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * The network engine the {@link de.hanbei.httpserver.MockHttpServer} receives requests with. A transport accepts
+ * connections, parses the requests and hands every request as {@link Exchange} to an {@link ExchangeHandler}. How the
+ * mock server maps requests to responses does not depend on the transport.
+ */
+public interface Transport {
+
+    /**
+     * Bind the transport to an address. Requests are not handled before {@link #start()} is called.
+     *
+     * @param address The address the transport should listen on. A port of 0 binds to any free port.
+     * @param handler The handler every request is passed to.
+     * @throws IOException If the transport could not be bound.
+     */
+    void bind(InetSocketAddress address, ExchangeHandler handler) throws IOException;
+
+    /**
+     * Start handling requests.
+     *
+     * @throws IllegalStateException If the transport was stopped and can not be started again.
+     */
+    void start();
+
+    /**
+     * Stop handling requests and release all resources of the transport.
+     */
+    void stop();
+
+    /**
+     * Get the port the transport is bound to.
+     *
+     * @return The port the transport is bound to.
+     */
+    int getPort();
+}
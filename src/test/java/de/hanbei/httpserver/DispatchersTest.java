@@ -0,0 +1,106 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver;
+
+import de.hanbei.httpserver.common.Method;
+import de.hanbei.httpserver.request.Request;
+import de.hanbei.httpserver.response.Response;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class DispatchersTest {
+
+    private MockHttpServer httpServer;
+
+    @Test(timeout = 10000)
+    public void testSlowProcessorDoesNotStallFixedThreadPool() throws Exception {
+        assertSlowRequestDoesNotStallOthers(Dispatchers.fixedThreadPool(4));
+    }
+
+    @Test(timeout = 10000)
+    public void testSlowProcessorDoesNotStallBoundedThreadPool() throws Exception {
+        assertSlowRequestDoesNotStallOthers(Dispatchers.boundedThreadPool(2, 10));
+    }
+
+    @Test(timeout = 10000)
+    public void testSlowProcessorDoesNotStallThreadPerRequest() throws Exception {
+        assertSlowRequestDoesNotStallOthers(Dispatchers.threadPerRequest());
+    }
+
+    private void assertSlowRequestDoesNotStallOthers(ExecutorService executor) throws Exception {
+        final CountDownLatch fastAnswered = new CountDownLatch(1);
+        httpServer = new MockHttpServer(7002, executor);
+        httpServer.addResponse(Method.GET, URI.create("fast"), Response.ok().build());
+        httpServer.addRequestProcessor(Method.GET, URI.create("slow"), new RequestProcessor() {
+            @Override
+            public Response process(Request request) {
+                try {
+                    fastAnswered.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return Response.ok().build();
+            }
+        });
+        httpServer.start();
+
+        final HttpClient httpclient = new DefaultHttpClient(new ThreadSafeClientConnManager());
+        ExecutorService client = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> slow = client.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    HttpResponse response = httpclient.execute(new HttpGet("http://localhost:7002/slow"));
+                    return response.getStatusLine().getStatusCode();
+                }
+            });
+            // give the slow request a head start so it occupies a worker
+            Thread.sleep(100);
+
+            long start = System.currentTimeMillis();
+            HttpResponse fast = httpclient.execute(new HttpGet("http://localhost:7002/fast"));
+            long elapsed = System.currentTimeMillis() - start;
+            fastAnswered.countDown();
+
+            assertEquals(200, fast.getStatusLine().getStatusCode());
+            assertEquals(200, slow.get().intValue());
+            assertEquals("fast request waited for the slow one", true, elapsed < 4000);
+        } finally {
+            client.shutdownNow();
+            executor.shutdownNow();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (httpServer != null) {
+            httpServer.stop();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MappingTest {
+
+    private Mapping<String> mapping;
+
+    @Before
+    public void setUp() {
+        mapping = new Mapping<String>();
+    }
+
+    @Test
+    public void testLiteral() {
+        mapping.add("/test", "test");
+        mapping.add("some/deeper/path/", "deeper");
+        assertEquals("test", mapping.get("/test", null).getValue());
+        assertEquals("test", mapping.get("test/", null).getValue());
+        assertEquals("deeper", mapping.get("/some/deeper/path", null).getValue());
+        assertNull(mapping.get("/some/deeper", null));
+        assertNull(mapping.get("/other", null));
+    }
+
+    @Test
+    public void testRoot() {
+        mapping.add("/", "root");
+        assertEquals("root", mapping.get("/", null).getValue());
+        assertEquals("root", mapping.get("", null).getValue());
+    }
+
+    @Test
+    public void testVariables() {
+        mapping.add("/users/{id}/orders/{order}", "order");
+        Mapping.Match<String> match = mapping.get("/users/42/orders/7", null);
+        assertEquals("order", match.getValue());
+        Map<String, String> variables = match.getVariables();
+        assertEquals(2, variables.size());
+        assertEquals("42", variables.get("id"));
+        assertEquals("7", variables.get("order"));
+        assertTrue(mapping.get("/users/42", null) == null);
+    }
+
+    @Test
+    public void testEncodedVariables() {
+        mapping.add("/users/{name}/files/{file}", "file");
+        Mapping.Match<String> match = mapping.get("/users/J%C3%BCrgen/files/a%2Fb+c%20d.txt", null);
+        assertEquals("J\u00fcrgen", match.getVariable("name"));
+        assertEquals("a/b+c d.txt", match.getVariable("file"));
+        assertEquals("J\u00fcrgen", match.getVariables().get("name"));
+        assertEquals("100%zz", mapping.get("/users/100%zz/files/x%4", null).getVariable("name"));
+        assertEquals("x%4", mapping.get("/users/100%zz/files/x%4", null).getVariable("file"));
+    }
+
+    @Test
+    public void testLiteralBeatsVariableBeatsWildcards() {
+        mapping.add("/users/**", "globstar");
+        mapping.add("/users/*", "wildcard");
+        mapping.add("/users/{id}", "variable");
+        mapping.add("/users/me", "literal");
+        assertEquals("literal", mapping.get("/users/me", null).getValue());
+        assertEquals("variable", mapping.get("/users/42", null).getValue());
+        assertEquals("globstar", mapping.get("/users/42/orders", null).getValue());
+        assertEquals("globstar", mapping.get("/users", null).getValue());
+    }
+
+    @Test
+    public void testBacktracksWhenLiteralBranchFails() {
+        mapping.add("/users/me/profile", "profile");
+        mapping.add("/users/{id}/orders", "orders");
+        assertEquals("orders", mapping.get("/users/me/orders", null).getValue());
+        assertEquals("me", mapping.get("/users/me/orders", null).getVariables().get("id"));
+    }
+
+    @Test
+    public void testGlobStarInTheMiddle() {
+        mapping.add("/files/**/{name}.txt", "never");
+        mapping.add("/files/**/meta", "meta");
+        assertEquals("meta", mapping.get("/files/a/b/c/meta", null).getValue());
+        assertEquals("meta", mapping.get("/files/meta", null).getValue());
+    }
+
+    @Test
+    public void testQuery() {
+        mapping.add("/search", "any");
+        mapping.add("/search?q=mock", "mock");
+        assertEquals("mock", mapping.get("/search", "q=mock").getValue());
+        assertEquals("any", mapping.get("/search", "q=other").getValue());
+        assertEquals("any", mapping.get("/search", null).getValue());
+    }
+
+    @Test
+    public void testLaterMappingReplacesEarlier() {
+        mapping.add("/test", "first");
+        mapping.add("test/", "second");
+        assertEquals("second", mapping.get("/test", null).getValue());
+    }
+
+    @Test
+    public void testWithLeavesOriginalUnchanged() {
+        mapping.add("/users/{id}", "user");
+        Mapping<String> changed = mapping.with("/users/{id}/orders", "orders").with("/users/me", "me");
+        assertEquals("orders", changed.get("/users/1/orders", null).getValue());
+        assertEquals("me", changed.get("/users/me", null).getValue());
+        assertEquals("user", changed.get("/users/1", null).getValue());
+        assertNull(mapping.get("/users/1/orders", null));
+        assertEquals("user", mapping.get("/users/me", null).getValue());
+    }
+
+    @Test
+    public void testGetMapped() {
+        mapping.add("/users/{id}", "user");
+        mapping.add("/search?q=mock", "mock");
+        assertEquals("user", mapping.getMapped("users/{id}/"));
+        assertEquals("mock", mapping.getMapped("/search?q=mock"));
+        assertNull(mapping.getMapped("/users/42"));
+        assertNull(mapping.getMapped("/search"));
+    }
+
+    @Test
+    public void testManySiblings() {
+        Mapping<String> siblings = mapping;
+        for (int i = 0; i < 100000; i++) {
+            siblings = siblings.with("/items/" + i, "item" + i);
+        }
+        // segments with the same hash code
+        siblings = siblings.with("/items/Aa", "Aa").with("/items/BB", "BB").with("/items/Aa", "Aa again");
+        for (int i = 0; i < 100000; i++) {
+            assertEquals("item" + i, siblings.get("/items/" + i, null).getValue());
+        }
+        assertEquals("Aa again", siblings.get("/items/Aa", null).getValue());
+        assertEquals("BB", siblings.get("/items/BB", null).getValue());
+        assertNull(siblings.get("/items/100000", null));
+        assertNull(mapping.get("/items/1", null));
+    }
+
+    @Test
+    public void testReusedMatch() {
+        mapping.add("/users/{id}/orders/{order}", "order");
+        mapping.add("/users/{id}", "user");
+        Mapping.Match<String> match = new Mapping.Match<String>();
+        assertTrue(mapping.lookup("/users/42/orders/7", null, match));
+        assertEquals("7", match.getVariable("order"));
+        assertTrue(mapping.lookup("/users/43", null, match));
+        assertEquals("user", match.getValue());
+        assertEquals("43", match.getVariable("id"));
+        assertNull(match.getVariable("order"));
+        assertFalse(mapping.lookup("/orders", null, match));
+    }
+
+    @Test
+    public void testLookupDoesNotAllocate() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        for (int i = 0; i < 100; i++) {
+            mapping.add("/static/path/" + i, "static" + i);
+            mapping.add("/users/{id}/items/" + i, "item" + i);
+        }
+        mapping.add("/files/**/meta", "meta");
+        String[] paths = {"/static/path/57", "/users/42/items/99", "/files/a/b/c/meta", "/not/mapped"};
+        Mapping.Match<String> match = new Mapping.Match<String>();
+        int found = 0;
+        for (int i = 0; i < 100000; i++) {
+            found += lookup(paths[i % paths.length], match);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100000; i++) {
+            found += lookup(paths[i % paths.length], match);
+        }
+        long allocated = allocations.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(150000, found);
+        assertTrue("lookups allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private int lookup(String path, Mapping.Match<String> match) {
+        return mapping.lookup(path, null, match) ? 1 : 0;
+    }
+}
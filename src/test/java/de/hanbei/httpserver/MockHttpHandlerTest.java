@@ -0,0 +1,299 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver;
+
+import de.hanbei.httpserver.common.Content;
+import de.hanbei.httpserver.common.Delay;
+import de.hanbei.httpserver.common.Hang;
+import de.hanbei.httpserver.common.Method;
+import de.hanbei.httpserver.common.Status;
+import de.hanbei.httpserver.request.BodyPredicate;
+import de.hanbei.httpserver.request.Request;
+import de.hanbei.httpserver.request.RequestMatcher;
+import de.hanbei.httpserver.response.Response;
+import de.hanbei.httpserver.transport.LoopbackTransport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MockHttpHandlerTest {
+
+    private LoopbackTransport loopback;
+    private MockHttpServer httpServer;
+
+    @Before
+    public void setUp() {
+        loopback = new LoopbackTransport();
+        httpServer = new MockHttpServer(7001, loopback);
+        httpServer.addResponse(Method.GET, "/stable", Response.ok().content("stable").build());
+        httpServer.start();
+    }
+
+    @Test
+    public void testRestubWhileServing() throws Exception {
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch readersDone = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!stop.get()) {
+                            Response stable = loopback.send(request("/stable"));
+                            assertEquals("stable", stable.getContent().getContentAsString());
+                            Status status = loopback.send(request("/changing/7")).getStatus();
+                            assertTrue(status == Status.OK || status == Status.NOT_FOUND);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        readersDone.countDown();
+                    }
+                }
+            });
+            reader.start();
+        }
+
+        for (int round = 0; round < 200; round++) {
+            Map<String, Response> responses = new HashMap<String, Response>();
+            for (int i = 0; i < 20; i++) {
+                responses.put("/changing/" + (round + i) % 40, Response.ok().content("round " + round).build());
+            }
+            httpServer.addResponses(Method.GET, responses);
+            httpServer.addResponse(Method.GET, "/other/" + round, Response.ok().build());
+            httpServer.setDefaultResponse(Response.notFound().build());
+        }
+        stop.set(true);
+        readersDone.await();
+
+        assertNull(failure.get());
+        assertEquals("round 199", loopback.send(request("/changing/7")).getContent().getContentAsString());
+    }
+
+    @Test(timeout = 30000)
+    public void testRegisterManyRoutesOneByOne() {
+        for (int i = 0; i < 200000; i++) {
+            httpServer.addResponse(Method.GET, "/items/" + i, Response.ok().build());
+        }
+        httpServer.addRequestProcessor(Method.GET, "/items/7", new RequestProcessor() {
+            @Override
+            public Response process(Request request) {
+                return Response.ok().content("seven").build();
+            }
+        });
+        assertEquals(Status.OK, loopback.send(request("/items/199999")).getStatus());
+        assertEquals("seven", loopback.send(request("/items/7")).getContent().getContentAsString());
+        assertEquals("stable", loopback.send(request("/stable")).getContent().getContentAsString());
+    }
+
+    @Test
+    public void testNoDelayWhileStopping() {
+        final AtomicReference<Response> late = new AtomicReference<Response>();
+        LoopbackTransport racing = new LoopbackTransport() {
+            @Override
+            public void stop() {
+                // a request that arrives after the handler stopped but before the transport did
+                late.set(send(request("/slow")));
+                super.stop();
+            }
+        };
+        MockHttpServer server = new MockHttpServer(7002, racing);
+        server.addResponse(Method.GET, "/slow", Response.ok().content("slow").build());
+        server.setDelay(Delay.fixed(1, TimeUnit.SECONDS));
+        server.start();
+        long start = System.nanoTime();
+        server.stop();
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(800));
+        assertEquals("slow", late.get().getContent().getContentAsString());
+
+        server.start();
+        start = System.nanoTime();
+        assertEquals("slow", racing.send(request("/slow")).getContent().getContentAsString());
+        assertTrue(System.nanoTime() - start >= TimeUnit.SECONDS.toNanos(1));
+        server.setDelay(Delay.none());
+        server.stop();
+    }
+
+    @Test(timeout = 10000)
+    public void testNoHangWhileStopping() throws Exception {
+        final AtomicBoolean answered = new AtomicBoolean();
+        final LoopbackTransport racing = new LoopbackTransport() {
+            @Override
+            public void stop() {
+                // returns only once the hang of a request after the handler stopped has ended
+                answered.set(send(request("/stuck")) != null);
+                super.stop();
+            }
+        };
+        final MockHttpServer server = new MockHttpServer(7002, racing);
+        server.addResponse(Method.GET, "/stuck", Response.ok().build());
+        server.setHang(Hang.forever());
+        server.start();
+        server.stop();
+        assertFalse(answered.get());
+        assertEquals(0, server.getHangingCount());
+
+        server.start();
+        Thread client = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                racing.send(request("/stuck"));
+            }
+        });
+        client.start();
+        while (server.getHangingCount() == 0) {
+            Thread.sleep(10);
+        }
+        server.setHang(null);
+        server.releaseHanging();
+        client.join();
+        server.stop();
+    }
+
+    @Test
+    public void testProcessorAndResponseOnSamePattern() {
+        httpServer.addResponse(Method.GET, "/both", Response.ok().content("response").build());
+        httpServer.addRequestProcessor(Method.GET, "both/", new RequestProcessor() {
+            @Override
+            public Response process(Request request) {
+                return Response.ok().content("processor").build();
+            }
+        });
+        assertEquals("processor", loopback.send(request("/both")).getContent().getContentAsString());
+        assertEquals("stable", loopback.send(request("/stable")).getContent().getContentAsString());
+    }
+
+    @Test
+    public void testMatchers() {
+        httpServer.addResponse(Method.GET, "/tenants", Response.notFound().content("no tenant").build());
+        for (int i = 0; i < 1000; i++) {
+            httpServer.addResponse(Method.GET, "/tenants", RequestMatcher.header("X-Tenant", "tenant" + i).build(),
+                    Response.ok().content("tenant " + i).build());
+        }
+        httpServer.addResponse(Method.GET, "/tenants",
+                RequestMatcher.header("X-Tenant", "tenant7").query("page", "2").build(),
+                Response.ok().content("tenant 7 page 2").build());
+        httpServer.addRequestProcessor(Method.GET, "/tenants", RequestMatcher.cookie("debug", "on").build(),
+                new RequestProcessor() {
+                    @Override
+                    public Response process(Request request) {
+                        return Response.ok().content("debug " + request.getQueryParameter()).build();
+                    }
+                });
+
+        assertEquals("tenant 512", send("/tenants", "X-Tenant", "tenant512"));
+        assertEquals("tenant 7", send("/tenants?page=1", "X-Tenant", "tenant7"));
+        assertEquals("tenant 7 page 2", send("/tenants?page=2", "x-tenant", "tenant7"));
+        assertEquals("no tenant", send("/tenants", "X-Tenant", "unknown"));
+        assertEquals("debug [page=1]", send("/tenants?page=1", "Cookie", "debug=on"));
+    }
+
+    @Test(timeout = 30000)
+    public void testRegisterManyMatchersOneByOne() {
+        for (int i = 0; i < 100000; i++) {
+            httpServer.addResponse(Method.GET, "/tenants", RequestMatcher.header("X-Tenant", "tenant" + i).build(),
+                    Response.ok().content("tenant " + i).build());
+        }
+        assertEquals("tenant 99999", send("/tenants", "X-Tenant", "tenant99999"));
+        assertEquals("tenant 0", send("/tenants", "X-Tenant", "tenant0"));
+    }
+
+    @Test
+    public void testReplaceMatcher() {
+        RequestMatcher admin = RequestMatcher.header("X-Role", "admin").build();
+        RequestMatcher secret = RequestMatcher.body(new BodyPredicate() {
+            @Override
+            public boolean matches(Content content) {
+                return "secret".equals(content.getContentAsString());
+            }
+        }).build();
+        httpServer.addResponse(Method.GET, "/role", RequestMatcher.header("X-Role", "user").build(),
+                Response.ok().content("user").build());
+        httpServer.addResponse(Method.GET, "/role", admin, Response.ok().content("first").build());
+        httpServer.addResponse(Method.GET, "/role", secret, Response.ok().content("body").build());
+        httpServer.addResponse(Method.GET, "/role", RequestMatcher.header("X-Role", "admin").build(),
+                Response.ok().content("second").build());
+        httpServer.addResponse(Method.GET, "/role", secret, Response.ok().content("body again").build());
+
+        assertEquals("second", send("/role", "X-Role", "admin"));
+        assertEquals("user", send("/role", "X-Role", "user"));
+        Request request = request("/role");
+        request.getContent().setContent("secret".getBytes());
+        assertEquals("body again", loopback.send(request).getContent().getContentAsString());
+    }
+
+    @Test
+    public void testUnreadBodyFailureKeepsResponse() {
+        httpServer.addRequestProcessor(Method.POST, "/ignore", new RequestProcessor() {
+            @Override
+            public Response process(Request request) {
+                return Response.ok().content("ignored").build();
+            }
+        });
+        Request request = new Request(Method.POST, URI.create("/ignore"), new Request.Source() {
+            @Override
+            public String getProtocol() {
+                return "HTTP/1.1";
+            }
+
+            @Override
+            public Map<String, List<String>> getHeaders() {
+                return new HashMap<String, List<String>>();
+            }
+
+            @Override
+            public ByteBuffer getBody() throws IOException {
+                throw new IOException("connection reset");
+            }
+        });
+        Response response = loopback.send(request);
+        assertEquals(Status.OK, response.getStatus());
+        assertEquals("ignored", response.getContent().getContentAsString());
+    }
+
+    private String send(String uri, String header, String value) {
+        Request request = request(uri);
+        request.getHeader().addParameter(header, value);
+        return loopback.send(request).getContent().getContentAsString();
+    }
+
+    private static Request request(String uri) {
+        Request request = new Request();
+        request.setMethod(Method.GET);
+        request.setRequestUri(URI.create(uri));
+        return request;
+    }
+
+    @After
+    public void tearDown() {
+        httpServer.stop();
+    }
+}
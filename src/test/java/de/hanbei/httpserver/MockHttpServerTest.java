@@ -13,10 +13,21 @@ See the License for the specific language governing permissions and
 limitations under the License. */
 package de.hanbei.httpserver;
 
+import de.hanbei.httpserver.common.Body;
+import de.hanbei.httpserver.common.ChunkSource;
+import de.hanbei.httpserver.common.Compression;
+import de.hanbei.httpserver.common.Delay;
+import de.hanbei.httpserver.common.FaultPolicy;
+import de.hanbei.httpserver.common.Hang;
+import de.hanbei.httpserver.common.HttpDate;
 import de.hanbei.httpserver.common.Method;
 import de.hanbei.httpserver.common.Status;
+import de.hanbei.httpserver.common.Throttle;
 import de.hanbei.httpserver.request.Request;
 import de.hanbei.httpserver.response.Response;
+import de.hanbei.httpserver.transport.NioTransport;
+import de.hanbei.httpserver.transport.SunHttpTransport;
+import de.hanbei.httpserver.transport.Transport;
 import org.apache.commons.io.Charsets;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpEntity;
@@ -31,29 +42,58 @@ import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.util.EntityUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+@RunWith(Parameterized.class)
 public class MockHttpServerTest {
 
+    private final Class<? extends Transport> transportClass;
     private MockHttpServer httpServer;
     private HttpClient httpclient;
 
+    public MockHttpServerTest(Class<? extends Transport> transportClass) {
+        this.transportClass = transportClass;
+    }
+
+    @Parameterized.Parameters
+    public static Collection<Object[]> transports() {
+        return Arrays.asList(new Object[][]{{SunHttpTransport.class}, {NioTransport.class}});
+    }
+
     @Before
     public void setUp() throws Exception {
-        this.httpServer = new MockHttpServer(7001);
+        this.httpServer = new MockHttpServer(7001, transportClass.newInstance());
         this.httpServer.start();
         httpServer.addResponse(Method.GET, new URI("/test"), Response.ok().build());
         httpServer.addResponse(Method.GET, new URI("/test3"), Response.ok().content("TestContent").build());
@@ -75,6 +115,12 @@ public class MockHttpServerTest {
                 }
             }
         });
+        httpServer.addRequestProcessor(Method.GET, "/users/{id}/**", new RequestProcessor() {
+            @Override
+            public Response process(Request request) {
+                return Response.ok().content("user " + request.getPathVariable("id")).build();
+            }
+        });
         assertTrue(this.httpServer.isRunning());
 
         httpclient = new DefaultHttpClient(new ThreadSafeClientConnManager());
@@ -121,6 +167,31 @@ public class MockHttpServerTest {
         httpclient.execute(httpget);
     }
 
+    @Test
+    public void testHang() throws IOException {
+        httpServer.setHang(Hang.forever());
+        HttpClient client = new DefaultHttpClient();
+        HttpConnectionParams.setSoTimeout(client.getParams(), 300);
+        try {
+            client.execute(new HttpGet("http://localhost:7001/test"));
+            fail("The server should not have answered");
+        } catch (SocketTimeoutException e) {
+            assertEquals(1, httpServer.getHangingCount());
+        }
+        httpServer.releaseHanging();
+        assertEquals(0, httpServer.getHangingCount());
+
+        httpServer.setHang(null);
+        httpServer.addResponse(Method.GET, "/stuck", Response.ok().hang(Hang.of(5, TimeUnit.SECONDS)).build());
+        try {
+            client.execute(new HttpGet("http://localhost:7001/stuck"));
+            fail("The server should not have answered");
+        } catch (SocketTimeoutException e) {
+            assertEquals(1, httpServer.getHangingCount());
+        }
+        assertEquals(200, httpclient.execute(new HttpGet("http://localhost:7001/test")).getStatusLine().getStatusCode());
+    }
+
     @Test
     public void getContentUTF8Encoding() throws IOException {
         HttpGet httpget = new HttpGet("http://localhost:7001/testUtf8");
@@ -188,6 +259,300 @@ public class MockHttpServerTest {
         assertEquals(401, response3.getStatusLine().getStatusCode());
     }
 
+    @Test
+    public void testPathVariables() throws IOException {
+        HttpGet httpget = new HttpGet("http://localhost:7001/users/42/orders?page=2");
+        HttpResponse response = httpclient.execute(httpget);
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        assertEquals("user 42", EntityUtils.toString(response.getEntity()));
+    }
+
+    @Test
+    public void testAddResponses() throws IOException {
+        Map<String, Response> responses = new HashMap<String, Response>();
+        for (int i = 0; i < 100; i++) {
+            responses.put("/bulk/" + i, Response.ok().content("bulk " + i).build());
+        }
+        httpServer.addResponses(Method.GET, responses);
+
+        HttpResponse response = httpclient.execute(new HttpGet("http://localhost:7001/bulk/57"));
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        assertEquals("bulk 57", EntityUtils.toString(response.getEntity()));
+        HttpResponse stillMapped = httpclient.execute(new HttpGet("http://localhost:7001/test"));
+        assertEquals(200, stillMapped.getStatusLine().getStatusCode());
+    }
+
+    @Test
+    public void testResourceContent() throws IOException {
+        httpServer.addResponse(Method.GET, "/fixture", Response.ok().type("application/json")
+                .resource("fixtures/fixture.json").build());
+        HttpResponse response = httpclient.execute(new HttpGet("http://localhost:7001/fixture"));
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        assertEquals("32", response.getFirstHeader("Content-Length").getValue());
+        assertEquals("{\"fixture\":\"from the classpath\"}", EntityUtils.toString(response.getEntity()));
+    }
+
+    @Test
+    public void testCompressedVariant() throws IOException {
+        String text = "{\"compressed\":\"once\",\"sent\":\"often\"}";
+        httpServer.addResponse(Method.GET, "/compressed", Response.ok().type("application/json").content(text)
+                .compress(Compression.GZIP).build());
+        HttpGet get = new HttpGet("http://localhost:7001/compressed");
+        get.addHeader("Accept-Encoding", "gzip;q=1.0, identity;q=0.5");
+        HttpResponse response = httpclient.execute(get);
+        assertEquals("gzip", response.getFirstHeader("Content-Encoding").getValue());
+        assertEquals("Accept-Encoding", response.getFirstHeader("Vary").getValue());
+        InputStream in = new GZIPInputStream(response.getEntity().getContent());
+        assertEquals(text, IOUtils.toString(in, "UTF-8"));
+        in.close();
+
+        response = httpclient.execute(new HttpGet("http://localhost:7001/compressed"));
+        assertEquals(null, response.getFirstHeader("Content-Encoding"));
+        assertEquals(text, EntityUtils.toString(response.getEntity()));
+    }
+
+    @Test
+    public void testConditionalGet() throws IOException {
+        httpServer.addResponse(Method.GET, "/cached", Response.ok().content("cache me").etag().build());
+        HttpResponse response = httpclient.execute(new HttpGet("http://localhost:7001/cached"));
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        String etag = response.getFirstHeader("ETag").getValue();
+        EntityUtils.consume(response.getEntity());
+
+        HttpGet conditional = new HttpGet("http://localhost:7001/cached");
+        conditional.addHeader("If-None-Match", etag);
+        response = httpclient.execute(conditional);
+        assertEquals(304, response.getStatusLine().getStatusCode());
+        assertEquals(etag, response.getFirstHeader("ETag").getValue());
+        assertEquals(null, response.getEntity());
+    }
+
+    @Test
+    public void testDateHeader() throws IOException {
+        httpServer.addResponse(Method.GET, "/dated", Response.ok().content("now").build());
+        httpServer.addResponse(Method.GET, "/fixed", Response.ok().content("then")
+                .header("Date", "Sun, 06 Nov 1994 08:49:37 GMT").build());
+
+        HttpResponse response = httpclient.execute(new HttpGet("http://localhost:7001/dated"));
+        long date = HttpDate.parse(response.getFirstHeader("Date").getValue());
+        assertTrue(Math.abs(System.currentTimeMillis() - date) < 5000);
+        assertEquals(1, response.getHeaders("Date").length);
+        assertEquals("now", EntityUtils.toString(response.getEntity()));
+
+        response = httpclient.execute(new HttpGet("http://localhost:7001/fixed"));
+        assertEquals(1, response.getHeaders("Date").length);
+        assertEquals("then", EntityUtils.toString(response.getEntity()));
+    }
+
+    @Test
+    public void testDelay() throws IOException {
+        httpServer.addResponse(Method.GET, "/slow", Response.ok().content("slow")
+                .delay(300, TimeUnit.MILLISECONDS).build());
+        long start = System.nanoTime();
+        HttpResponse response = httpclient.execute(new HttpGet("http://localhost:7001/slow"));
+        assertEquals("slow", EntityUtils.toString(response.getEntity()));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(300));
+
+        httpServer.setDelay(Delay.fixed(200, TimeUnit.MILLISECONDS));
+        start = System.nanoTime();
+        response = httpclient.execute(new HttpGet("http://localhost:7001/test3"));
+        assertEquals("TestContent", EntityUtils.toString(response.getEntity()));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+        httpServer.setDelay(Delay.none());
+    }
+
+    @Test
+    public void testThrottle() throws IOException {
+        byte[] content = new byte[4000];
+        new Random(3).nextBytes(content);
+        httpServer.addResponse(Method.GET, "/slowlink", Response.ok().content(content)
+                .throttle(Throttle.bytesPerSecond(8000).chunkSize(500)).build());
+        long start = System.nanoTime();
+        HttpResponse response = httpclient.execute(new HttpGet("http://localhost:7001/slowlink"));
+        assertEquals("4000", response.getFirstHeader("Content-Length").getValue());
+        assertArrayEquals(content, EntityUtils.toByteArray(response.getEntity()));
+        // eight chunks with a pause of 62.5 ms after each but the last
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(430));
+    }
+
+    @Test
+    public void testStalledThrottledDownloadDoesNotStallOthers() throws Exception {
+        httpServer.addResponse(Method.GET, "/huge", Response.ok().random(7, 256L * 1024 * 1024)
+                .throttle(Throttle.bytesPerSecond(64L * 1024 * 1024).chunkSize(64 * 1024)).build());
+        byte[] content = new byte[4000];
+        new Random(5).nextBytes(content);
+        httpServer.addResponse(Method.GET, "/slowlink", Response.ok().content(content)
+                .throttle(Throttle.bytesPerSecond(8000).chunkSize(500)).build());
+
+        Socket stalled = new Socket();
+        stalled.setReceiveBufferSize(4096);
+        stalled.connect(new InetSocketAddress("localhost", 7001));
+        try {
+            stalled.getOutputStream().write("GET /huge HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes("US-ASCII"));
+            // never read, so the send buffer of the server fills up
+            Thread.sleep(1000);
+
+            HttpConnectionParams.setSoTimeout(httpclient.getParams(), 5000);
+            HttpResponse response = httpclient.execute(new HttpGet("http://localhost:7001/slowlink"));
+            assertArrayEquals(content, EntityUtils.toByteArray(response.getEntity()));
+        } finally {
+            stalled.close();
+        }
+    }
+
+    @Test
+    public void testStalledDelayedResponseDoesNotStallOthers() throws Exception {
+        httpServer.addResponse(Method.GET, "/huge", Response.ok().random(11, 256L * 1024 * 1024)
+                .delay(50, TimeUnit.MILLISECONDS).build());
+        httpServer.addResponse(Method.GET, "/later", Response.ok().content("later")
+                .delay(200, TimeUnit.MILLISECONDS).build());
+
+        Socket stalled = new Socket();
+        stalled.setReceiveBufferSize(4096);
+        stalled.connect(new InetSocketAddress("localhost", 7001));
+        try {
+            stalled.getOutputStream().write("GET /huge HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes("US-ASCII"));
+            // never read, so sending the delayed body blocks once the send buffer of the server is full
+            Thread.sleep(500);
+
+            HttpConnectionParams.setSoTimeout(httpclient.getParams(), 5000);
+            long start = System.nanoTime();
+            HttpResponse response = httpclient.execute(new HttpGet("http://localhost:7001/later"));
+            assertEquals("later", EntityUtils.toString(response.getEntity()));
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        } finally {
+            stalled.close();
+        }
+    }
+
+    @Test
+    public void testInjectedServerErrors() throws IOException {
+        httpServer.setFaults(FaultPolicy.none().serverErrors(50, Status.SERVICE_UNAVAILABLE).seed(1));
+        int unavailable = 0;
+        for (int i = 0; i < 40; i++) {
+            HttpResponse response = httpclient.execute(new HttpGet("http://localhost:7001/test"));
+            EntityUtils.consume(response.getEntity());
+            if (response.getStatusLine().getStatusCode() == 503) {
+                unavailable++;
+            } else {
+                assertEquals(200, response.getStatusLine().getStatusCode());
+            }
+        }
+        assertTrue(unavailable > 5 && unavailable < 35);
+
+        httpServer.addResponse(Method.GET, "/reliable", Response.ok().content("ok")
+                .faults(FaultPolicy.none()).build());
+        for (int i = 0; i < 10; i++) {
+            HttpResponse response = httpclient.execute(new HttpGet("http://localhost:7001/reliable"));
+            assertEquals("ok", EntityUtils.toString(response.getEntity()));
+        }
+        httpServer.setFaults(null);
+        assertNull(httpServer.getFaults());
+    }
+
+    @Test
+    public void testTemplate() throws IOException {
+        httpServer.addResponse(Method.GET, "/accounts/{id}", Response.ok()
+                .template("{\"id\":\"{{path.id}}\",\"page\":\"{{query.page}}\",\"tenant\":\"{{header.X-Tenant}}\"}")
+                .type("application/json").build());
+        HttpGet get = new HttpGet("http://localhost:7001/accounts/42?page=3");
+        get.addHeader("X-Tenant", "acme");
+        HttpResponse response = httpclient.execute(get);
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        assertEquals("{\"id\":\"42\",\"page\":\"3\",\"tenant\":\"acme\"}", EntityUtils.toString(response.getEntity()));
+
+        response = httpclient.execute(new HttpGet("http://localhost:7001/accounts/7"));
+        assertEquals("{\"id\":\"7\",\"page\":\"\",\"tenant\":\"\"}", EntityUtils.toString(response.getEntity()));
+
+        response = httpclient.execute(new HttpGet("http://localhost:7001/accounts/8?page=a%26b%3Dc+d&b=x"));
+        assertEquals("{\"id\":\"8\",\"page\":\"a&b=c d\",\"tenant\":\"\"}",
+                EntityUtils.toString(response.getEntity()));
+    }
+
+    @Test
+    public void testRangeRequest() throws IOException {
+        httpServer.addResponse(Method.GET, "/ranges", Response.ok().content("0123456789").build());
+        HttpGet get = new HttpGet("http://localhost:7001/ranges");
+        get.addHeader("Range", "bytes=3-5");
+        HttpResponse response = httpclient.execute(get);
+        assertEquals(206, response.getStatusLine().getStatusCode());
+        assertEquals("bytes 3-5/10", response.getFirstHeader("Content-Range").getValue());
+        assertEquals("345", EntityUtils.toString(response.getEntity()));
+
+        get = new HttpGet("http://localhost:7001/ranges");
+        get.addHeader("Range", "bytes=20-");
+        response = httpclient.execute(get);
+        assertEquals(416, response.getStatusLine().getStatusCode());
+        EntityUtils.consume(response.getEntity());
+
+        response = httpclient.execute(new HttpGet("http://localhost:7001/ranges"));
+        assertEquals("bytes", response.getFirstHeader("Accept-Ranges").getValue());
+        assertEquals("0123456789", EntityUtils.toString(response.getEntity()));
+    }
+
+    @Test
+    public void testChunkedStream() throws IOException {
+        httpServer.addResponse(Method.GET, "/stream", Response.ok().content(Body.stream(new Callable<ChunkSource>() {
+            public ChunkSource call() {
+                return new ChunkSource() {
+                    private final ByteBuffer chunk = ByteBuffer.allocate(64 * 1024);
+                    private int chunks = 256;
+
+                    public ByteBuffer next() {
+                        if (chunks-- == 0) {
+                            return null;
+                        }
+                        chunk.clear();
+                        return chunk;
+                    }
+
+                    public void close() {
+                    }
+                };
+            }
+        })).build());
+        for (int i = 0; i < 2; i++) {
+            HttpResponse response = httpclient.execute(new HttpGet("http://localhost:7001/stream"));
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            assertEquals("chunked", response.getFirstHeader("Transfer-Encoding").getValue());
+            assertEquals(null, response.getFirstHeader("Content-Length"));
+            InputStream in = response.getEntity().getContent();
+            long length = 0;
+            byte[] bytes = new byte[8192];
+            for (int read = in.read(bytes); read >= 0; read = in.read(bytes)) {
+                length += read;
+            }
+            in.close();
+            assertEquals(256L * 64 * 1024, length);
+        }
+    }
+
+    @Test
+    public void testRecordedRequestIsReadableAfterResponse() throws IOException {
+        final Request[] recorded = new Request[1];
+        httpServer.addRequestProcessor(Method.POST, "/record", new RequestProcessor() {
+            @Override
+            public Response process(Request request) {
+                recorded[0] = request;
+                return Response.ok().build();
+            }
+        });
+        HttpPost httpPost = new HttpPost("http://localhost:7001/record?source=test");
+        httpPost.setEntity(new StringEntity("Recorded", "text/plain", "UTF-8"));
+        httpPost.setHeader("Cookie", "session=abc; theme=dark");
+        HttpResponse response = httpclient.execute(httpPost);
+        EntityUtils.consume(response.getEntity());
+        assertEquals(200, response.getStatusLine().getStatusCode());
+
+        Request request = recorded[0];
+        assertEquals(Method.POST, request.getMethod());
+        assertEquals("/record", request.getRequestUri().getPath());
+        assertEquals("test", request.getQueryParameter().get(0).getValue());
+        assertEquals("Recorded", request.getContent().getContentAsString());
+        assertEquals("text/plain", request.getContent().getMimetype());
+        assertEquals("dark", request.getHeader().getCookies().get(1).getValue());
+    }
+
     @Test
     public void testIsRunning() {
         assertTrue(this.httpServer.isRunning());
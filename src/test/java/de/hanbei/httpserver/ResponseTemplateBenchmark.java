@@ -0,0 +1,104 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver;
+
+import de.hanbei.httpserver.common.Method;
+import de.hanbei.httpserver.request.QueryParameter;
+import de.hanbei.httpserver.request.Request;
+import de.hanbei.httpserver.response.Response;
+import de.hanbei.httpserver.transport.LoopbackTransport;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * Compares a templated response with the equivalent hand-written {@link RequestProcessor}. Both are served through
+ * the loopback transport, so the numbers show the cost of the handler without any socket. Run it with
+ * <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=de.hanbei.httpserver.ResponseTemplateBenchmark</code> or from the IDE.
+ */
+public final class ResponseTemplateBenchmark {
+
+    private static final int WARMUP = 50000;
+    private static final int ITERATIONS = 200000;
+
+    private ResponseTemplateBenchmark() {
+        // run main
+    }
+
+    public static void main(String[] args) throws IOException {
+        LoopbackTransport loopback = new LoopbackTransport();
+        MockHttpServer server = new MockHttpServer(7001, loopback);
+        server.addResponse(Method.GET, "/template/{id}", Response.ok()
+                .template("{\"id\":\"{{path.id}}\",\"page\":\"{{query.page}}\",\"agent\":\"{{header.User-Agent}}\"}")
+                .type("application/json").build());
+        server.addRequestProcessor(Method.GET, "/processor/{id}", new RequestProcessor() {
+            @Override
+            public Response process(Request request) {
+                String page = "";
+                for (QueryParameter parameter : request.getQueryParameter()) {
+                    if ("page".equals(parameter.getName())) {
+                        page = parameter.getValue();
+                    }
+                }
+                String agent = request.getHeader().getHeaderValues("User-Agent").isEmpty()
+                        ? "" : request.getHeader().getHeaderValues("User-Agent").get(0);
+                return Response.ok().content("{\"id\":\"" + request.getPathVariable("id") + "\",\"page\":\"" + page
+                        + "\",\"agent\":\"" + agent + "\"}").type("application/json").build();
+            }
+        });
+        server.start();
+        try {
+            URL template = loopback.url("/template/42?page=3");
+            URL processor = loopback.url("/processor/42?page=3");
+            if (!fetch(template).equals(fetch(processor))) {
+                throw new IllegalStateException("The template and the processor render different bodies");
+            }
+            for (int round = 0; round < 3; round++) {
+                report("template ", template);
+                report("processor", processor);
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static void report(String name, URL url) throws IOException {
+        run(url, WARMUP);
+        long start = System.nanoTime();
+        run(url, ITERATIONS);
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%s %8.1f ns/request%n", name, (double) elapsed / ITERATIONS);
+    }
+
+    private static void run(URL url, int iterations) throws IOException {
+        for (int i = 0; i < iterations; i++) {
+            fetch(url);
+        }
+    }
+
+    private static String fetch(URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setRequestProperty("User-Agent", "benchmark");
+        InputStream in = connection.getInputStream();
+        try {
+            return IOUtils.toString(in, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.common;
+
+import de.hanbei.httpserver.exceptions.ContentException;
+import org.apache.commons.io.Charsets;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BodyTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFile() throws Exception {
+        File file = folder.newFile("body.txt");
+        FileUtils.writeStringToFile(file, "from a file", Charsets.UTF_8);
+        Body body = Body.of(file);
+        assertEquals(11, body.length());
+
+        ByteBuffer buffer = body.buffer();
+        assertTrue(buffer.isDirect());
+        assertTrue(buffer.isReadOnly());
+        assertEquals("from a file", Charsets.UTF_8.decode(buffer).toString());
+        assertEquals(11, body.buffer().remaining());
+    }
+
+    @Test
+    public void testSliceAndSequence() throws Exception {
+        File file = folder.newFile("slice.txt");
+        FileUtils.writeStringToFile(file, "from a file", Charsets.UTF_8);
+        Body slice = Body.of(file).slice(7, 4);
+        assertEquals(4, slice.length());
+        assertTrue(slice.buffer().isDirect());
+        assertEquals("file", Charsets.UTF_8.decode(slice.buffer()).toString());
+
+        Body sequence = Body.sequence(Arrays.asList(Body.of(ByteBuffer.wrap("a ".getBytes(Charsets.UTF_8))), slice));
+        assertEquals(6, sequence.length());
+        assertFalse(sequence.isSliceable());
+        ChunkSource chunks = sequence.open();
+        StringBuilder text = new StringBuilder();
+        for (ByteBuffer chunk = chunks.next(); chunk != null; chunk = chunks.next()) {
+            text.append(Charsets.UTF_8.decode(chunk));
+        }
+        chunks.close();
+        assertEquals("a file", text.toString());
+    }
+
+    @Test(expected = ContentException.class)
+    public void testSliceOutsideOfBody() {
+        Body.of(ByteBuffer.wrap(new byte[4])).slice(2, 3);
+    }
+
+    @Test(expected = ContentException.class)
+    public void testMissingFile() {
+        Body.of(new File(folder.getRoot(), "missing"));
+    }
+
+    @Test
+    public void testResource() {
+        URL resource = getClass().getClassLoader().getResource("fixtures/fixture.json");
+        Body body = Body.of(resource);
+        assertEquals(32, body.length());
+        assertEquals("{\"fixture\":\"from the classpath\"}", Charsets.UTF_8.decode(body.buffer()).toString());
+    }
+}
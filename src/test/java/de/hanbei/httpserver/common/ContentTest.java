@@ -4,8 +4,10 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class ContentTest {
 
@@ -34,4 +36,27 @@ public class ContentTest {
 				+ "Content-Length: 8\n\nTestData\n", content.toString());
 	}
 
+	@Test
+	public void testBufferIsSharedNotCopied() {
+		ByteBuffer direct = ByteBuffer.allocateDirect(16);
+		direct.put("0123456789abcdef".getBytes());
+		direct.position(4);
+		direct.limit(10);
+		content.setContent(direct);
+		assertEquals(6, content.getLength());
+		assertEquals("456789", content.getContentAsString());
+
+		direct.put(4, (byte) 'X');
+		assertEquals('X', content.getBuffer().get(0));
+		assertTrue(content.getBuffer().isReadOnly());
+	}
+
+	@Test
+	public void testViewsHaveTheirOwnPosition() {
+		ByteBuffer first = content.getBuffer();
+		first.get(new byte[8]);
+		assertEquals(8, content.getBuffer().remaining());
+		assertEquals("TestData", new String(content.getContent()));
+	}
+
 }
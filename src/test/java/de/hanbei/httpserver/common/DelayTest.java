@@ -0,0 +1,98 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.common;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DelayTest {
+
+    private static final int DRAWS = 10001;
+
+    @Test
+    public void testNoneAndFixed() {
+        assertEquals(0, Delay.none().nanos());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(25), Delay.fixed(25, TimeUnit.MILLISECONDS).nanos());
+    }
+
+    @Test
+    public void testUniform() {
+        long[] draws = draw(Delay.uniform(10, 20, TimeUnit.MILLISECONDS));
+        assertTrue(draws[0] >= TimeUnit.MILLISECONDS.toNanos(10));
+        assertTrue(draws[DRAWS - 1] < TimeUnit.MILLISECONDS.toNanos(20));
+        assertMedian(15, draws);
+    }
+
+    @Test
+    public void testNormalIsNeverNegative() {
+        long[] draws = draw(Delay.normal(10, 20, TimeUnit.MILLISECONDS));
+        assertEquals(0, draws[0]);
+        assertMedian(10, draws);
+    }
+
+    @Test
+    public void testLogNormal() {
+        long[] draws = draw(Delay.logNormal(50, 0.5, TimeUnit.MILLISECONDS));
+        assertTrue(draws[0] > 0);
+        assertMedian(50, draws);
+        // the tail: the 99th percentile is exp(2.326 * 0.5) = 3.2 times the median
+        long p99 = TimeUnit.NANOSECONDS.toMillis(draws[DRAWS * 99 / 100]);
+        assertTrue("p99 " + p99, p99 > 130 && p99 < 190);
+    }
+
+    @Test
+    public void testPareto() {
+        long[] draws = draw(Delay.pareto(10, 2, TimeUnit.MILLISECONDS));
+        assertTrue(draws[0] >= TimeUnit.MILLISECONDS.toNanos(10));
+        // the median is min * 2^(1/shape)
+        assertMedian(14, draws);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeDelay() {
+        Delay.fixed(-1, TimeUnit.MILLISECONDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUniformMaxLessThanMin() {
+        Delay.uniform(20, 10, TimeUnit.MILLISECONDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParetoWithoutShape() {
+        Delay.pareto(10, 0, TimeUnit.MILLISECONDS);
+    }
+
+    private static long[] draw(Delay delay) {
+        Random random = new Random(7);
+        long[] draws = new long[DRAWS];
+        for (int i = 0; i < DRAWS; i++) {
+            draws[i] = delay.nanos(random);
+            assertTrue(draws[i] >= 0);
+        }
+        Arrays.sort(draws);
+        return draws;
+    }
+
+    private static void assertMedian(long millis, long[] sorted) {
+        long median = TimeUnit.NANOSECONDS.toMillis(sorted[sorted.length / 2]);
+        assertTrue("median " + median, Math.abs(median - millis) <= 1);
+    }
+}
@@ -0,0 +1,115 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.common;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FaultPolicyTest {
+
+    @Test
+    public void testNoFaults() {
+        FaultPolicy policy = FaultPolicy.none();
+        for (int i = 0; i < 1000; i++) {
+            assertNull(policy.next());
+        }
+    }
+
+    @Test
+    public void testFaultsHitTheirPercentage() {
+        FaultPolicy policy = FaultPolicy.none().reset(10).truncate(5, 100).wrongContentLength(5, 10)
+                .garbageStatus(5).serverErrors(20, Status.INTERNAL_SERVER_ERROR, Status.SERVICE_UNAVAILABLE).seed(7);
+        Map<Fault.Kind, Integer> counts = new EnumMap<Fault.Kind, Integer>(Fault.Kind.class);
+        int errors500 = 0;
+        int none = 0;
+        for (int i = 0; i < 100000; i++) {
+            Fault fault = policy.next();
+            if (fault == null) {
+                none++;
+                continue;
+            }
+            Integer count = counts.get(fault.getKind());
+            counts.put(fault.getKind(), count == null ? 1 : count + 1);
+            if (fault.getKind() == Fault.Kind.SERVER_ERROR && fault.getStatus() == Status.INTERNAL_SERVER_ERROR) {
+                errors500++;
+            }
+        }
+        assertAbout(10000, counts.get(Fault.Kind.RESET));
+        assertAbout(5000, counts.get(Fault.Kind.TRUNCATE));
+        assertAbout(5000, counts.get(Fault.Kind.WRONG_CONTENT_LENGTH));
+        assertAbout(5000, counts.get(Fault.Kind.GARBAGE_STATUS));
+        assertAbout(20000, counts.get(Fault.Kind.SERVER_ERROR));
+        assertAbout(10000, errors500);
+        assertAbout(55000, none);
+    }
+
+    @Test
+    public void testSeedReplaysTheFaults() {
+        FaultPolicy policy = FaultPolicy.none().reset(30).truncate(30, 5).seed(42);
+        List<String> first = draw(policy);
+        assertEquals(first, draw(FaultPolicy.none().reset(30).truncate(30, 5).seed(42)));
+        assertTrue(!first.equals(draw(FaultPolicy.none().reset(30).truncate(30, 5).seed(43))));
+        assertEquals(42, policy.getSeed());
+    }
+
+    @Test
+    public void testFaultParameters() {
+        Fault truncate = FaultPolicy.none().truncate(100, 12).next();
+        assertEquals(Fault.Kind.TRUNCATE, truncate.getKind());
+        assertEquals(12, truncate.getBytes());
+        assertEquals(-3, FaultPolicy.none().wrongContentLength(100, -3).next().getBytes());
+        assertEquals(Status.BAD_GATEWAY, FaultPolicy.none().serverErrors(100, Status.BAD_GATEWAY).next().getStatus());
+
+        ByteBuffer garbage = FaultPolicy.none().garbageStatus(100).next().getGarbage();
+        assertEquals(0, garbage.get(0));
+        assertEquals('\n', garbage.get(garbage.limit() - 1));
+        assertTrue(garbage.isReadOnly());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMoreThanAllRequests() {
+        FaultPolicy.none().reset(60).garbageStatus(50);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativePercentage() {
+        FaultPolicy.none().reset(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testServerErrorsMustBeServerErrors() {
+        FaultPolicy.none().serverErrors(5, Status.NOT_FOUND);
+    }
+
+    private static List<String> draw(FaultPolicy policy) {
+        List<String> faults = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            faults.add(String.valueOf(policy.next()));
+        }
+        return faults;
+    }
+
+    private static void assertAbout(int expected, int actual) {
+        assertTrue(actual + " is not about " + expected, Math.abs(expected - actual) < expected / 10);
+    }
+}
@@ -0,0 +1,84 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.common;
+
+import org.apache.commons.io.Charsets;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HttpDateTest {
+
+    @Test
+    public void testFormat() {
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", HttpDate.format(784111777000L));
+        assertEquals("Thu, 01 Jan 1970 00:00:00 GMT", HttpDate.format(new Date(999)));
+        assertEquals("Wed, 31 Dec 1969 23:59:59 GMT", HttpDate.format(-1000));
+        assertEquals("Tue, 29 Feb 2000 12:00:00 GMT", HttpDate.format(951825600000L));
+    }
+
+    @Test
+    public void testFormatLikeSimpleDateFormat() {
+        SimpleDateFormat reference = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        reference.setTimeZone(TimeZone.getTimeZone("GMT"));
+        Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            long millis = (long) (random.nextDouble() * 200 * 365 * 86400000L);
+            assertEquals(reference.format(new Date(millis)), HttpDate.format(millis));
+            assertEquals(millis / 1000 * 1000, HttpDate.parse(HttpDate.format(millis)));
+        }
+    }
+
+    @Test
+    public void testParse() {
+        assertEquals(784111777000L, HttpDate.parse("Sun, 06 Nov 1994 08:49:37 GMT"));
+        assertEquals(784111777000L, HttpDate.parse("Sunday, 06-Nov-94 08:49:37 GMT"));
+        assertEquals(784111777000L, HttpDate.parse("Sun Nov  6 08:49:37 1994"));
+        assertEquals(-1, HttpDate.parse("yesterday"));
+        assertEquals(-1, HttpDate.parse("Sun, 06 Foo 1994 08:49:37 GMT"));
+    }
+
+    @Test
+    public void testNowIsSharedWithinASecond() {
+        String now = HttpDate.now();
+        String again = HttpDate.now();
+        assertTrue(Math.abs(System.currentTimeMillis() - HttpDate.parse(now)) < 2000);
+        if (again.equals(now)) {
+            assertSame(now, again);
+        }
+    }
+
+    @Test
+    public void testDateFieldAndEnd() {
+        ByteBuffer field = HttpDate.dateFieldAndEnd();
+        assertTrue(field.isReadOnly());
+        byte[] bytes = new byte[field.remaining()];
+        field.get(bytes);
+        String text = new String(bytes, Charsets.ISO_8859_1);
+        assertTrue(text.startsWith("Date: "));
+        assertTrue(text.endsWith(" GMT\r\n\r\n"));
+        assertFalse(HttpDate.parse(text.substring(6, text.length() - 4)) < 0);
+        assertEquals(bytes.length, HttpDate.dateFieldAndEnd().remaining());
+    }
+}
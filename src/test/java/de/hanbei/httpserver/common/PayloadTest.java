@@ -0,0 +1,91 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.common;
+
+import org.apache.commons.io.Charsets;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PayloadTest {
+
+    @Test
+    public void testRepeat() throws IOException {
+        byte[] pattern = "abc".getBytes(Charsets.US_ASCII);
+        Body body = Payload.repeat(pattern, 3 * Payload.CHUNK_SIZE + 1);
+        byte[] bytes = read(body);
+        assertEquals(body.length(), bytes.length);
+        for (int i = 0; i < bytes.length; i++) {
+            assertEquals(pattern[i % pattern.length], bytes[i]);
+        }
+    }
+
+    @Test
+    public void testRandomIsSplitMix64() throws IOException {
+        byte[] bytes = read(Payload.random(0, 16));
+        assertEquals(0xe220a8397b1dcdafL, ByteBuffer.wrap(bytes).getLong(0));
+        assertEquals(0x6e789e6aa1b965f4L, ByteBuffer.wrap(bytes).getLong(8));
+    }
+
+    @Test
+    public void testRandomIsReproducible() throws IOException {
+        Body body = Payload.random(42, 2 * Payload.CHUNK_SIZE + 5);
+        byte[] first = read(body);
+        assertEquals(body.length(), first.length);
+        assertTrue(Arrays.equals(first, read(body)));
+        assertTrue(Arrays.equals(Arrays.copyOf(first, 100), read(Payload.random(42, 100))));
+        assertFalse(Arrays.equals(first, read(Payload.random(43, body.length()))));
+    }
+
+    @Test
+    public void testJsonArray() throws IOException {
+        assertEquals("[]", new String(read(Payload.jsonArray(0, 0)), Charsets.US_ASCII));
+        String json = new String(read(Payload.jsonArray(2, 0)), Charsets.US_ASCII);
+        assertEquals("[{\"id\":0,\"value\":\"e220a8397b1dcdaf\"},{\"id\":1,\"value\":\"6e789e6aa1b965f4\"}]", json);
+    }
+
+    @Test
+    public void testJsonArrayLength() throws IOException {
+        for (long records : new long[]{1, 9, 10, 11, 100, 12345}) {
+            Body body = Payload.jsonArray(records, 7);
+            byte[] bytes = read(body);
+            assertEquals(body.length(), bytes.length);
+            assertEquals('[', bytes[0]);
+            assertEquals(']', bytes[bytes.length - 1]);
+        }
+        assertTrue(Payload.jsonArray(100000000L, 0).length() > Integer.MAX_VALUE);
+    }
+
+    private static byte[] read(Body body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ChunkSource source = body.open();
+        try {
+            for (ByteBuffer chunk = source.next(); chunk != null; chunk = source.next()) {
+                byte[] bytes = new byte[chunk.remaining()];
+                chunk.get(bytes);
+                out.write(bytes);
+            }
+        } finally {
+            source.close();
+        }
+        return out.toByteArray();
+    }
+}
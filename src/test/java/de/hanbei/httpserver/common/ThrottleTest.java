@@ -0,0 +1,76 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.common;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ThrottleTest {
+
+    @Test
+    public void testDefaults() {
+        Throttle throttle = Throttle.kilobitsPerSecond(64);
+        assertEquals(8000, throttle.getBytesPerSecond());
+        assertEquals(800, throttle.getChunkSize());
+        assertEquals(0, throttle.getJitter().nanos());
+        assertEquals(1, Throttle.bytesPerSecond(5).getChunkSize());
+        assertEquals(64 * 1024, Throttle.bytesPerSecond(100L * 1024 * 1024).getChunkSize());
+    }
+
+    @Test
+    public void testChunksArePaced() throws IOException {
+        Body body = Throttle.bytesPerSecond(1000).chunkSize(100).apply(Body.of(ByteBuffer.wrap(new byte[250])));
+        assertEquals(250, body.length());
+        assertTrue(body.isStreamed());
+
+        PacedChunkSource source = (PacedChunkSource) body.open();
+        assertEquals(0, source.nanosUntilNext());
+        assertEquals(100, source.next().remaining());
+        // 100 bytes at 1000 bytes per second take 100 ms
+        long pause = source.nanosUntilNext();
+        assertTrue(pause > TimeUnit.MILLISECONDS.toNanos(90) && pause <= TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(100, source.next().remaining());
+        assertTrue(source.nanosUntilNext() > TimeUnit.MILLISECONDS.toNanos(190));
+        assertEquals(50, source.next().remaining());
+        assertNull(source.next());
+        source.close();
+    }
+
+    @Test
+    public void testJitterAddsToThePause() throws IOException {
+        Throttle throttle = Throttle.bytesPerSecond(1000).chunkSize(10)
+                .jitter(Delay.fixed(50, TimeUnit.MILLISECONDS));
+        PacedChunkSource source = (PacedChunkSource) throttle.apply(Body.of(ByteBuffer.wrap(new byte[20]))).open();
+        source.next();
+        assertTrue(source.nanosUntilNext() > TimeUnit.MILLISECONDS.toNanos(50));
+        source.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBandwidthHasToBePositive() {
+        Throttle.bytesPerSecond(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testChunkSizeHasToBePositive() {
+        Throttle.bytesPerSecond(10).chunkSize(0);
+    }
+}
@@ -0,0 +1,119 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.request;
+
+import de.hanbei.httpserver.common.Content;
+import de.hanbei.httpserver.common.Cookie;
+import de.hanbei.httpserver.common.Method;
+import org.apache.commons.io.Charsets;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RequestMatcherTest {
+
+    private Request request;
+
+    @Before
+    public void setUp() throws Exception {
+        request = new Request();
+        request.setRequestUri(new URI("http://localhost:8080/search?query=mock%20server&flag&page=2"));
+        request.getHeader().addParameter("x-tenant", "acme");
+        request.getHeader().addParameter("Cookie", "theme=dark; session=abc");
+        request.getHeader().addCookie(new Cookie("locale", "de"));
+        request.getContent().setContent("{\"name\":\"mock\"}".getBytes(Charsets.UTF_8));
+    }
+
+    @Test
+    public void testHeaderIgnoresCaseOfName() {
+        assertTrue(RequestMatcher.header("X-Tenant", "acme").build().matches(request));
+        assertFalse(RequestMatcher.header("X-Tenant", "other").build().matches(request));
+    }
+
+    @Test
+    public void testQuery() {
+        assertTrue(RequestMatcher.query("query", "mock server").query("page", "2").build().matches(request));
+        assertTrue(RequestMatcher.query("flag", "").build().matches(request));
+        assertFalse(RequestMatcher.query("page", "3").build().matches(request));
+    }
+
+    @Test
+    public void testQueryIsDecodedAfterSplitting() throws Exception {
+        request.setRequestUri(new URI("/search?q=a%26b%3Dc&tag=mock+server"));
+        assertTrue(RequestMatcher.query("q", "a&b=c").query("tag", "mock server").build().matches(request));
+        assertFalse(RequestMatcher.query("q", "a").build().matches(request));
+        assertFalse(RequestMatcher.query("b", "c").build().matches(request));
+    }
+
+    @Test
+    public void testCookie() {
+        assertTrue(RequestMatcher.cookie("session", "abc").cookie("locale", "de").build().matches(request));
+        assertFalse(RequestMatcher.cookie("theme", "light").build().matches(request));
+    }
+
+    @Test
+    public void testCookiesOfPortedRequestAreNotCountedTwice() throws Exception {
+        final Map<String, List<String>> fields = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        fields.put("Cookie", Arrays.asList("theme=dark; session=abc"));
+        Request ported = new Request(Method.GET, new URI("/"), new Request.Source() {
+            @Override
+            public String getProtocol() {
+                return "HTTP/1.1";
+            }
+
+            @Override
+            public Map<String, List<String>> getHeaders() {
+                return fields;
+            }
+
+            @Override
+            public ByteBuffer getBody() {
+                return ByteBuffer.allocate(0);
+            }
+        });
+        RequestMatcher.Condition session = RequestMatcher.cookie("session", "abc").build().getConditions().get(0);
+        assertEquals(Collections.singletonList("abc"), session.values(ported));
+        assertEquals(Collections.singletonList("abc"), session.values(request));
+    }
+
+    @Test
+    public void testBody() {
+        assertTrue(new RequestMatcherBuilder().body("{\"name\":\"mock\"}").build().matches(request));
+        assertTrue(RequestMatcher.body(new BodyPredicate() {
+            @Override
+            public boolean matches(Content content) {
+                return content.getContentAsString().contains("mock");
+            }
+        }).build().matches(request));
+        assertFalse(new RequestMatcherBuilder().body("{}").build().matches(request));
+    }
+
+    @Test
+    public void testEquality() {
+        assertEquals(RequestMatcher.header("a", "1").query("b", "2").build(),
+                RequestMatcher.header("a", "1").query("b", "2").build());
+        assertFalse(RequestMatcher.header("a", "1").build().equals(RequestMatcher.query("a", "1").build()));
+    }
+}
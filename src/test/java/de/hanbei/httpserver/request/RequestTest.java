@@ -1,12 +1,20 @@
 package de.hanbei.httpserver.request;
 
+import de.hanbei.httpserver.common.Cookie;
+import de.hanbei.httpserver.common.HTTPVersion;
+import de.hanbei.httpserver.common.Method;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class RequestTest {
 
@@ -34,4 +42,77 @@ public class RequestTest {
         assertEquals(0, queryParameters.size());
     }
 
+    @Test
+    public void testGetEncodedQueryParameter() throws Exception {
+        request.setRequestUri(new URI("/search?q=a%26b%3Dc&flag&tag=mock+server&"));
+
+        List<QueryParameter> queryParameters = request.getQueryParameter();
+        assertEquals(Arrays.asList(new QueryParameter("q", "a&b=c"), new QueryParameter("flag", ""),
+                new QueryParameter("tag", "mock server")), queryParameters);
+        assertEquals(Arrays.asList(new QueryParameter("bad", "%zz")), Request.parseQuery("bad=%zz"));
+    }
+
+    @Test
+    public void testReadsSourceOnlyWhenAsked() throws Exception {
+        CountingSource source = new CountingSource();
+        source.headers.put("Content-Type", Arrays.asList("text/plain; charset=iso-8859-1"));
+        source.headers.put("Cookie", Arrays.asList("session=abc; theme=dark"));
+        Request lazy = new Request(Method.PUT, new URI("/items/1?force=true"), source);
+
+        assertEquals(Method.PUT, lazy.getMethod());
+        assertEquals("/items/1", lazy.getRequestUri().getPath());
+        assertEquals(new QueryParameter("force", "true"), lazy.getQueryParameter().get(0));
+        assertEquals(0, source.headerReads);
+        assertEquals(0, source.bodyReads);
+
+        assertEquals(HTTPVersion.VERSION1_0, lazy.getVersion());
+        assertEquals("text/plain; charset=iso-8859-1", lazy.getHeader().getHeaderValues("Content-Type").get(0));
+        assertEquals(Arrays.asList(new Cookie("session", "abc"), new Cookie("theme", "dark")),
+                lazy.getHeader().getCookies());
+        assertEquals(0, source.bodyReads);
+
+        assertEquals("text/plain", lazy.getContent().getMimetype());
+        assertEquals("iso-8859-1", lazy.getContent().getCharset());
+        assertEquals("body", lazy.getContent().getContentAsString());
+        lazy.getContent();
+        assertEquals(1, source.bodyReads);
+    }
+
+    @Test
+    public void testWithoutSource() throws Exception {
+        request.setHeader(null);
+        request.setContent(null);
+        assertEquals(0, request.getHeader().getHeaderFields().size());
+        assertEquals(0, request.getContent().getBuffer().remaining());
+
+        Request withoutSource = new Request(Method.GET, new URI("/"), null);
+        assertEquals(0, withoutSource.getHeader().getCookies().size());
+        assertEquals(0, withoutSource.getContent().getBuffer().remaining());
+        assertNull(withoutSource.getVersion());
+    }
+
+    private static final class CountingSource implements Request.Source {
+
+        private final Map<String, List<String>> headers =
+                new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        private int headerReads;
+        private int bodyReads;
+
+        @Override
+        public String getProtocol() {
+            return "HTTP/1.0";
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaders() {
+            headerReads++;
+            return headers;
+        }
+
+        @Override
+        public ByteBuffer getBody() {
+            bodyReads++;
+            return ByteBuffer.wrap("body".getBytes());
+        }
+    }
 }
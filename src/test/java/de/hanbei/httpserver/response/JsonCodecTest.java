@@ -0,0 +1,152 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.response;
+
+import de.hanbei.httpserver.common.Method;
+import de.hanbei.httpserver.exceptions.ContentException;
+import org.apache.commons.io.Charsets;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JsonCodecTest {
+
+    @Test
+    public void testSupportedTypes() {
+        JsonCodec codec = new JsonCodec();
+        assertTrue(codec.supports("application/json"));
+        assertTrue(codec.supports("application/vnd.api+json"));
+        assertFalse(codec.supports("text/plain"));
+        assertFalse(codec.supports(null));
+        assertTrue(BodyCodecs.find("Application/JSON; charset=utf-8") instanceof JsonCodec);
+    }
+
+    @Test
+    public void testValues() throws IOException {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("name", "Zoë \"quoted\"\n");
+        map.put("count", 3);
+        map.put("ratio", 0.5);
+        map.put("active", true);
+        map.put("missing", null);
+        map.put("tags", Arrays.asList("a", "b"));
+        map.put("ids", new int[]{1, 2});
+        map.put("method", Method.GET);
+        map.put("at", new Date(1000));
+        assertEquals("{\"name\":\"Zoë \\\"quoted\\\"\\n\",\"count\":3,\"ratio\":0.5,\"active\":true,\"missing\":null,"
+                + "\"tags\":[\"a\",\"b\"],\"ids\":[1,2],\"method\":\"GET\",\"at\":1000}", encode(map));
+        assertEquals("\"\\u0001 \uD83D\uDE00\"", encode("\u0001 \uD83D\uDE00"));
+    }
+
+    @Test
+    public void testBeans() throws IOException {
+        assertEquals("{\"id\":7,\"name\":\"seven\",\"code\":\"x\"}", encode(new Account(7, "seven")));
+        assertEquals("[{\"id\":1,\"name\":null,\"code\":\"x\"}]", encode(new Account[]{new Account(1, null)}));
+    }
+
+    @Test(expected = ContentException.class)
+    public void testNaNIsNoJson() throws IOException {
+        encode(Double.NaN);
+    }
+
+    @Test(expected = ContentException.class)
+    public void testCyclesAreDetected() throws IOException {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("self", map);
+        encode(map);
+    }
+
+    @Test
+    public void testContentIsEncodedOnBuild() throws Exception {
+        Map<String, Integer> content = new LinkedHashMap<String, Integer>();
+        content.put("a", 1);
+        // the type may be set after the content
+        Response response = Response.ok().content((Object) content).type("application/json").build();
+        assertEquals("{\"a\":1}", new String(response.getContent().getContent(), Charsets.UTF_8));
+        assertEquals(7, response.getWireFormat().getContentLength());
+
+        Response serialized = Response.ok().content((Object) "text").build();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized.getContent().getContent()));
+        assertEquals("text", in.readObject());
+
+        Response replaced = Response.ok().type("application/json").content((Object) content).content("plain").build();
+        assertEquals("plain", new String(replaced.getContent().getContent(), Charsets.UTF_8));
+    }
+
+    @Test
+    public void testSerializationWithoutCodecForType() throws Exception {
+        Response response = Response.ok().type("application/octet-stream").content((Object) "a,b").build();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(response.getContent().getContent()));
+        assertEquals("a,b", in.readObject());
+        assertEquals("application/octet-stream", response.getContent().getMimetype());
+    }
+
+    @Test
+    public void testRegisteredCodecComesFirst() {
+        BodyCodec csv = new BodyCodec() {
+            public boolean supports(String mimetype) {
+                return "text/x-test-csv".equals(mimetype);
+            }
+
+            public void encode(Object content, OutputStream out) throws IOException {
+                out.write(Arrays.toString((Object[]) content).getBytes(Charsets.US_ASCII));
+            }
+        };
+        BodyCodecs.register(csv);
+        assertSame(csv, BodyCodecs.find("text/x-test-csv"));
+        assertNull(BodyCodecs.find("text/x-unknown"));
+        Response response = Response.ok().type("text/x-test-csv").content((Object) new String[]{"a", "b"}).build();
+        assertEquals("[a, b]", new String(response.getContent().getContent(), Charsets.US_ASCII));
+    }
+
+    private static String encode(Object value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JsonCodec().encode(value, out);
+        return new String(out.toByteArray(), Charsets.UTF_8);
+    }
+
+    public static class Account {
+
+        public final String code = "x";
+        private final int id;
+        private final String name;
+
+        Account(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.response;
+
+import org.apache.commons.io.Charsets;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ResponseTemplateTest {
+
+    @Test
+    public void testRender() {
+        ResponseTemplate template = ResponseTemplate.compile(
+                "{\"id\":\"{{path.id}}\",\"page\":\"{{ query.page }}\",\"agent\":\"{{header.User-Agent}}\"}",
+                Charsets.UTF_8);
+        assertEquals(3, template.getPlaceholderCount());
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("PATH id", "42");
+        values.put("QUERY page", "2");
+        assertEquals("{\"id\":\"42\",\"page\":\"2\",\"agent\":\"\"}", render(template, values, Charsets.UTF_8));
+    }
+
+    @Test
+    public void testRenderEncodesValues() {
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("PATH name", "Zoë");
+        assertEquals("Hello Zoë!", render(ResponseTemplate.compile("Hello {{path.name}}!", Charsets.UTF_8), values,
+                Charsets.UTF_8));
+        Charset utf16 = Charset.forName("UTF-16BE");
+        assertEquals("Hello Zoë!", render(ResponseTemplate.compile("Hello {{path.name}}!", utf16), values, utf16));
+    }
+
+    @Test
+    public void testWithoutPlaceholders() {
+        ResponseTemplate template = ResponseTemplate.compile("{ plain }", Charsets.UTF_8);
+        assertEquals(0, template.getPlaceholderCount());
+        assertEquals("{ plain }", render(template, new HashMap<String, String>(), Charsets.UTF_8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnclosedPlaceholder() {
+        ResponseTemplate.compile("{{path.id}", Charsets.UTF_8);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownSource() {
+        ResponseTemplate.compile("{{cookie.id}}", Charsets.UTF_8);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPlaceholderWithoutName() {
+        ResponseTemplate.compile("{{path}}", Charsets.UTF_8);
+    }
+
+    @Test
+    public void testWireFormat() {
+        Response response = Response.ok().template("id={{path.id}}").type("text/plain").etag().build();
+        WireFormat wireFormat = response.getWireFormat();
+        assertNull(wireFormat.getEntityTag());
+        assertFalse(wireFormat.getFields().containsKey("Accept-Ranges"));
+
+        WireFormat rendered = wireFormat.render(new ResponseTemplate.Values() {
+            @Override
+            public String get(ResponseTemplate.Source source, String name) {
+                return "1234";
+            }
+        });
+        assertEquals(7, rendered.getContentLength());
+        assertEquals("id=1234", string(rendered.body()));
+        assertTrue(string(rendered.head(true, false)).contains("Content-Length: 7\r\n"));
+        assertTrue(string(rendered.head(true, false)).contains("Content-Type: text/plain; charset=utf-8\r\n"));
+
+        WireFormat plain = Response.ok().content("id={{path.id}}").build().getWireFormat();
+        assertSame(plain, plain.render(null));
+    }
+
+    private static String render(ResponseTemplate template, final Map<String, String> values, Charset charset) {
+        ByteBuffer rendered = template.render(new ResponseTemplate.Values() {
+            @Override
+            public String get(ResponseTemplate.Source source, String name) {
+                return values.get(source + " " + name);
+            }
+        });
+        byte[] bytes = new byte[rendered.remaining()];
+        rendered.get(bytes);
+        return new String(bytes, charset);
+    }
+
+    private static String string(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+}
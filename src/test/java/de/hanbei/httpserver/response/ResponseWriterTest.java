@@ -0,0 +1,70 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.response;
+
+import de.hanbei.httpserver.request.Request;
+import org.apache.commons.io.Charsets;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ResponseWriterTest {
+
+    @Test
+    public void testTranscodesToAcceptedCharset() throws IOException {
+        Response response = Response.ok().content("Cæelo").type("text/plain").build();
+        String written = write(response, "iso-8859-1;q=0.9, x-unknown, utf-16;q=0.1");
+        String head = written.substring(0, written.indexOf("\r\n\r\n") + 4);
+        assertTrue(head.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertTrue(head.contains("Content-Type: text/plain; charset=ISO-8859-1\r\n"));
+        assertTrue(head.contains("Content-Length: 5\r\n"));
+        assertArrayEquals("Cæelo".getBytes(Charsets.ISO_8859_1),
+                written.substring(head.length()).getBytes(Charsets.ISO_8859_1));
+
+        WireFormat wireFormat = response.getWireFormat();
+        assertSame(wireFormat.forCharset(Charsets.ISO_8859_1), wireFormat.forCharset(Charsets.ISO_8859_1));
+        assertSame(wireFormat, wireFormat.forCharset(Charsets.UTF_8));
+    }
+
+    @Test
+    public void testBytesAreNotTranscoded() throws IOException {
+        Response response = Response.ok().content(new byte[]{(byte) 0xe6, 1, 2}).build();
+        String written = write(response, "utf-16");
+        assertTrue(written.contains("Content-Length: 3\r\nDate: "));
+        assertTrue(written.endsWith(" GMT\r\n\r\næ\u0001\u0002"));
+    }
+
+    @Test
+    public void testHeadIsLatin1() {
+        WireFormat wireFormat = Response.ok().header("X-Name", "Zoë ☃").build().getWireFormat();
+        byte[] head = new byte[wireFormat.head(true, false).remaining()];
+        wireFormat.head(true, false).get(head);
+        assertTrue(new String(head, Charsets.ISO_8859_1).contains("X-Name: Zoë ?\r\n"));
+    }
+
+    private static String write(Response response, String acceptCharset) throws IOException {
+        Request request = new Request();
+        request.getHeader().addParameter("Accept-Charset", acceptCharset);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResponseWriter writer = new ResponseWriter(out, request);
+        writer.write(response);
+        writer.close();
+        return new String(out.toByteArray(), Charsets.ISO_8859_1);
+    }
+}
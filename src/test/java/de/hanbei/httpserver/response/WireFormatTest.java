@@ -0,0 +1,338 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.response;
+
+import de.hanbei.httpserver.common.Body;
+import de.hanbei.httpserver.common.ChunkSource;
+import de.hanbei.httpserver.common.Compression;
+import de.hanbei.httpserver.common.Status;
+import org.apache.commons.io.Charsets;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WireFormatTest {
+
+    @Test
+    public void testHead() {
+        Response response = Response.ok().header("X-Test", "yes").content("body").build();
+        WireFormat wireFormat = response.getWireFormat();
+        assertEquals("HTTP/1.1 200 OK\r\nX-Test: yes\r\nAccept-Ranges: bytes\r\nContent-Length: 4\r\n\r\n",
+                string(wireFormat.head(true, false)));
+        assertTrue(string(wireFormat.head(false, false)).endsWith("Content-Length: 4\r\nConnection: close\r\n\r\n"));
+        assertTrue(string(wireFormat.head(true, true)).endsWith("Connection: keep-alive\r\n\r\n"));
+        assertEquals("body", string(wireFormat.body()));
+    }
+
+    @Test
+    public void testDatedHead() {
+        WireFormat wireFormat = Response.ok().content("body").build().getWireFormat();
+        ByteBuffer[] head = wireFormat.datedHead(true, false);
+        assertEquals(2, head.length);
+        assertEquals("HTTP/1.1 200 OK\r\nAccept-Ranges: bytes\r\nContent-Length: 4\r\n", string(head[0]));
+        assertTrue(string(head[1]).matches("Date: \\w{3}, \\d{2} \\w{3} \\d{4} \\d{2}:\\d{2}:\\d{2} GMT\r\n\r\n"));
+
+        WireFormat dated = Response.ok().header("Date", "Sun, 06 Nov 1994 08:49:37 GMT").build().getWireFormat();
+        assertEquals(1, dated.datedHead(true, false).length);
+        assertEquals(string(dated.head(true, false)), string(dated.datedHead(true, false)[0]));
+    }
+
+    @Test
+    public void testEncodedOnceAndShared() {
+        Response response = Response.ok().content("body").build();
+        WireFormat wireFormat = response.getWireFormat();
+        assertSame(wireFormat, response.getWireFormat());
+        ByteBuffer first = wireFormat.body();
+        first.get(new byte[4]);
+        assertEquals(4, wireFormat.body().remaining());
+    }
+
+    @Test(expected = ReadOnlyBufferException.class)
+    public void testBuffersAreReadOnly() {
+        Response.ok().content("body").build().getWireFormat().body().put((byte) 0);
+    }
+
+    @Test
+    public void testNoContentLengthWithoutBody() {
+        WireFormat wireFormat = Response.status(Status.NO_CONTENT).build().getWireFormat();
+        assertEquals("HTTP/1.1 204 No Content\r\n\r\n", string(wireFormat.head(true, false)));
+    }
+
+    @Test
+    public void testBuildAgainAfterChange() {
+        ResponseBuilder builder = Response.ok().content("first");
+        Response response = builder.build();
+        builder.content("second");
+        assertEquals("first", string(response.getWireFormat().body()));
+        builder.build();
+        assertEquals("second", string(response.getWireFormat().body()));
+    }
+
+    @Test
+    public void testStreamedHeads() {
+        Callable<ChunkSource> sources = new Callable<ChunkSource>() {
+            public ChunkSource call() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        WireFormat chunked = Response.ok().content(Body.stream(sources)).build().getWireFormat();
+        assertTrue(chunked.isChunked());
+        assertEquals(-1, chunked.getContentLength());
+        assertEquals("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n", string(chunked.head(true, false)));
+        assertEquals("HTTP/1.1 200 OK\r\nConnection: close\r\n\r\n", string(chunked.head(true, true)));
+
+        long length = 5L * 1024 * 1024 * 1024;
+        WireFormat large = Response.ok().content(Body.stream(sources, length)).build().getWireFormat();
+        assertFalse(large.isChunked());
+        assertEquals(length, large.getContentLength());
+        assertEquals("HTTP/1.1 200 OK\r\nContent-Length: 5368709120\r\n\r\n", string(large.head(true, false)));
+    }
+
+    @Test
+    public void testNegotiateCompressedVariant() throws IOException {
+        String text = "compress me, compress me, compress me, compress me";
+        WireFormat identity = Response.ok().content(text).compress(Compression.GZIP, Compression.DEFLATE).build()
+                .getWireFormat();
+        assertSame(identity, identity.negotiate(null));
+        assertEquals(Arrays.asList("Accept-Encoding"), identity.getFields().get("Vary"));
+
+        WireFormat gzip = identity.negotiate("deflate, gzip");
+        assertEquals(Compression.GZIP, gzip.getCompression());
+        assertSame(gzip, identity.negotiate("gzip;q=0.8, deflate;q=0.8, identity;q=0.5"));
+        assertEquals(Arrays.asList("gzip"), gzip.getFields().get("Content-Encoding"));
+        assertEquals(Arrays.asList("Accept-Encoding"), gzip.getFields().get("Vary"));
+        assertTrue(string(gzip.head(true, false)).contains("Content-Length: " + gzip.getContentLength() + "\r\n"));
+        assertEquals(text, IOUtils.toString(new GZIPInputStream(stream(gzip.body())), "UTF-8"));
+
+        WireFormat deflate = identity.negotiate("gzip;q=0.5, deflate");
+        assertEquals(Compression.DEFLATE, deflate.getCompression());
+        assertEquals(text, IOUtils.toString(new InflaterInputStream(stream(deflate.body())), "UTF-8"));
+        assertSame(deflate, identity.negotiate("*;q=0.1, gzip;q=0"));
+
+        assertSame(identity, identity.negotiate("br"));
+        assertSame(identity, identity.negotiate("gzip;q=0.5, identity"));
+        assertSame(identity, identity.negotiate("gzip;q=0, deflate;q=0"));
+    }
+
+    @Test
+    public void testNoVariantsForStreamedOrEncodedContent() {
+        Response encoded = Response.ok().content("already encoded").compress(Compression.GZIP).build();
+        encoded.getContent().setEncoding("br");
+        WireFormat wireFormat = encoded.freeze();
+        assertSame(wireFormat, wireFormat.negotiate("gzip"));
+        assertEquals(Arrays.asList("br"), wireFormat.getFields().get("Content-Encoding"));
+
+        Callable<ChunkSource> sources = new Callable<ChunkSource>() {
+            public ChunkSource call() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        WireFormat streamed = Response.ok().content(Body.stream(sources)).compress(Compression.GZIP).build()
+                .getWireFormat();
+        assertSame(streamed, streamed.negotiate("gzip"));
+        assertEquals(null, streamed.getFields().get("Vary"));
+    }
+
+    @Test
+    public void testNotModifiedForMatchingEntityTag() {
+        WireFormat wireFormat = Response.ok().content("tagged").etag().header("Cache-Control", "max-age=60")
+                .build().getWireFormat();
+        String etag = wireFormat.getEntityTag();
+        assertTrue(etag.matches("\"[0-9a-f]{32}\""));
+        assertEquals(Arrays.asList(etag), wireFormat.getFields().get("ETag"));
+
+        WireFormat notModified = wireFormat.conditional(etag, null);
+        assertFalse(notModified.isBodyAllowed());
+        assertEquals("HTTP/1.1 304 Not Modified\r\nCache-Control: max-age=60\r\nETag: " + etag + "\r\n\r\n",
+                string(notModified.head(true, false)));
+        assertSame(notModified, wireFormat.conditional("\"other\", W/" + etag, null));
+        assertSame(notModified, wireFormat.conditional("*", null));
+        assertSame(wireFormat, wireFormat.conditional("\"other\"", null));
+        assertSame(wireFormat, wireFormat.conditional(null, null));
+    }
+
+    @Test
+    public void testVariantsHaveTheirOwnEntityTag() {
+        WireFormat identity = Response.ok().content("tagged and compressed").etag().compress(Compression.GZIP)
+                .build().getWireFormat();
+        WireFormat gzip = identity.negotiate("gzip");
+        String etag = identity.getEntityTag();
+        assertEquals(etag.substring(0, etag.length() - 1) + "-gzip\"", gzip.getEntityTag());
+        assertSame(identity, identity.conditional(gzip.getEntityTag(), null));
+        assertFalse(gzip.conditional(gzip.getEntityTag(), null).isBodyAllowed());
+    }
+
+    @Test
+    public void testNotModifiedSince() {
+        Date lastModified = new Date(1300000000000L);
+        WireFormat wireFormat = Response.ok().content("dated").lastModified(lastModified).build().getWireFormat();
+        String date = wireFormat.getFields().get("Last-Modified").get(0);
+        assertFalse(wireFormat.conditional(null, date).isBodyAllowed());
+        assertFalse(wireFormat.conditional(null, "Sun, 13 Mar 2011 07:06:40 GMT").isBodyAllowed());
+        assertFalse(wireFormat.conditional(null, "Mon, 14 Mar 2011 00:00:00 GMT").isBodyAllowed());
+        assertSame(wireFormat, wireFormat.conditional(null, "Sun, 13 Mar 2011 07:06:39 GMT"));
+        assertSame(wireFormat, wireFormat.conditional(null, "not a date"));
+        // without an entity tag If-None-Match never matches and If-Modified-Since is ignored
+        assertSame(wireFormat, wireFormat.conditional("\"any\"", date));
+    }
+
+    @Test
+    public void testNoValidatorsNoConditionalResponse() {
+        WireFormat wireFormat = Response.ok().content("plain").build().getWireFormat();
+        assertSame(wireFormat, wireFormat.conditional("*", "Sun, 13 Mar 2011 07:06:40 GMT"));
+        WireFormat notFound = Response.notFound().etag().build().getWireFormat();
+        assertSame(notFound, notFound.conditional("*", null));
+    }
+
+    @Test
+    public void testSingleRange() {
+        WireFormat wireFormat = Response.ok().content("0123456789").etag().build().getWireFormat();
+        WireFormat partial = wireFormat.range("bytes=2-4", null);
+        assertEquals(206, partial.getStatusCode());
+        assertEquals(Arrays.asList("bytes 2-4/10"), partial.getFields().get("Content-Range"));
+        assertEquals("234", string(partial.body()));
+        assertTrue(string(partial.head(true, false)).endsWith("Content-Length: 3\r\n\r\n"));
+
+        assertEquals("789", string(wireFormat.range("bytes=-3", null).body()));
+        assertEquals("89", string(wireFormat.range("bytes=8-", null).body()));
+        assertEquals("56789", string(wireFormat.range("bytes=5-100", null).body()));
+        assertEquals("0", string(wireFormat.range("bytes=0-0", wireFormat.getEntityTag()).body()));
+    }
+
+    @Test
+    public void testIgnoredRanges() {
+        WireFormat wireFormat = Response.ok().content("0123456789").etag().build().getWireFormat();
+        assertSame(wireFormat, wireFormat.range(null, null));
+        assertSame(wireFormat, wireFormat.range("items=0-1", null));
+        assertSame(wireFormat, wireFormat.range("bytes=4-2", null));
+        assertSame(wireFormat, wireFormat.range("bytes=a-b", null));
+        assertSame(wireFormat, wireFormat.range("bytes=0-1", "\"outdated\""));
+        WireFormat notFound = Response.notFound().content("missing").build().getWireFormat();
+        assertSame(notFound, notFound.range("bytes=0-1", null));
+        assertEquals(null, notFound.getFields().get("Accept-Ranges"));
+    }
+
+    @Test
+    public void testUnsatisfiableRange() {
+        WireFormat wireFormat = Response.ok().content("0123456789").build().getWireFormat();
+        WireFormat unsatisfiable = wireFormat.range("bytes=10-20, -0", null);
+        assertEquals(416, unsatisfiable.getStatusCode());
+        assertEquals(Arrays.asList("bytes */10"), unsatisfiable.getFields().get("Content-Range"));
+        assertEquals(0, unsatisfiable.getContentLength());
+    }
+
+    @Test
+    public void testMultipleRanges() throws IOException {
+        WireFormat wireFormat = Response.ok().type("text/plain").content("0123456789").build().getWireFormat();
+        WireFormat partial = wireFormat.range("bytes=0-1, 10-11, 7-", null);
+        assertEquals(206, partial.getStatusCode());
+        String type = partial.getFields().get("Content-Type").get(0);
+        assertTrue(type.startsWith("multipart/byteranges; boundary="));
+        String boundary = type.substring(type.indexOf('=') + 1);
+        String partType = "Content-Type: " + wireFormat.getFields().get("Content-Type").get(0) + "\r\n";
+        String expected = "--" + boundary + "\r\n" + partType + "Content-Range: bytes 0-1/10\r\n\r\n01"
+                + "\r\n--" + boundary + "\r\n" + partType + "Content-Range: bytes 7-9/10\r\n\r\n789"
+                + "\r\n--" + boundary + "--\r\n";
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        partial.writeBody(body);
+        assertEquals(expected, new String(body.toByteArray(), Charsets.ISO_8859_1));
+        assertEquals(expected.length(), partial.getContentLength());
+    }
+
+    @Test
+    public void testTruncateKeepsTheDeclaredLength() {
+        WireFormat full = Response.ok().content("0123456789").build().getWireFormat();
+        WireFormat truncated = full.truncate(3);
+        assertTrue(truncated.isMisframed());
+        assertEquals(10, truncated.getContentLength());
+        assertTrue(string(truncated.head(false, false)).contains("Content-Length: 10\r\n"));
+        assertEquals("012", string(truncated.body()));
+        assertFalse(full.isMisframed());
+        assertSame(full, full.truncate(10));
+        WireFormat noContent = Response.status(Status.NO_CONTENT).build().getWireFormat();
+        assertSame(noContent, noContent.truncate(0));
+    }
+
+    @Test
+    public void testTruncateStreamedBody() throws IOException {
+        Body stream = Body.stream(new ByteArrayInputStream("0123456789".getBytes(Charsets.US_ASCII)));
+        WireFormat chunked = Response.ok().content(stream).build().getWireFormat();
+        // without a length there is no length to fall short of
+        assertSame(chunked, chunked.truncate(3));
+
+        Body sized = Body.stream(new Callable<ChunkSource>() {
+            public ChunkSource call() {
+                return new ChunkSource() {
+                    private boolean sent;
+
+                    public ByteBuffer next() {
+                        if (sent) {
+                            return null;
+                        }
+                        sent = true;
+                        return ByteBuffer.wrap("0123456789".getBytes(Charsets.US_ASCII));
+                    }
+
+                    public void close() {
+                    }
+                };
+            }
+        }, 10);
+        WireFormat truncated = Response.ok().content(sized).build().getWireFormat().truncate(4);
+        assertEquals(10, truncated.getContentLength());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        truncated.writeBody(out);
+        assertEquals("0123", new String(out.toByteArray(), Charsets.US_ASCII));
+    }
+
+    @Test
+    public void testMisstateLength() {
+        WireFormat full = Response.ok().content("0123456789").build().getWireFormat();
+        WireFormat tooLong = full.misstateLength(5);
+        assertTrue(tooLong.isMisframed());
+        assertEquals(15, tooLong.getContentLength());
+        assertTrue(string(tooLong.head(true, false)).contains("Content-Length: 15\r\n"));
+        assertEquals("0123456789", string(tooLong.body()));
+        assertEquals(0, full.misstateLength(-20).getContentLength());
+        assertEquals(10, full.misstateLength(-20).body().remaining());
+    }
+
+    private static InputStream stream(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new ByteArrayInputStream(bytes);
+    }
+
+    private static String string(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, Charsets.ISO_8859_1);
+    }
+}
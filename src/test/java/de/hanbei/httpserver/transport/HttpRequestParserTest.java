@@ -0,0 +1,150 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.transport;
+
+import org.apache.commons.io.Charsets;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpRequestParserTest {
+
+    private HttpRequestParser parser;
+
+    @Before
+    public void setUp() {
+        parser = new HttpRequestParser(16);
+    }
+
+    @Test
+    public void testParseGet() throws IOException {
+        assertTrue(parser.parse(buffer("GET /test?a=b HTTP/1.1\r\nHost: localhost\r\nX-Test: 1\r\nx-test: 2\r\n\r\n")));
+        assertEquals("GET", parser.getMethod());
+        assertEquals("/test?a=b", parser.getTarget());
+        assertEquals("HTTP/1.1", parser.getProtocol());
+        assertEquals("localhost", parser.getHeader("host"));
+        assertEquals(2, parser.getHeaders().get("X-TEST").size());
+        assertEquals(0, parser.getBody().length);
+        assertTrue(parser.isKeepAlive());
+    }
+
+    @Test
+    public void testParseRequestInPieces() throws IOException {
+        ByteBuffer in = ByteBuffer.allocate(128);
+        in.put(bytes("POST /post HTTP/1.1\r\nContent-Le"));
+        in.flip();
+        assertFalse(parser.parse(in));
+        in.compact();
+        in.put(bytes("ngth: 4\r\n\r\nTe"));
+        in.flip();
+        assertFalse(parser.parse(in));
+        in.compact();
+        in.put(bytes("stGET"));
+        in.flip();
+        assertTrue(parser.parse(in));
+        assertArrayEquals(bytes("Test"), parser.getBody());
+        assertEquals("pipelined bytes must stay in the buffer", 3, in.remaining());
+    }
+
+    @Test
+    public void testParseChunkedBody() throws IOException {
+        assertTrue(parser.parse(buffer("POST /post HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "4;ext=1\r\nTest\r\nA\r\n0123456789\r\n0\r\nTrailer: x\r\n\r\n")));
+        assertArrayEquals(bytes("Test0123456789"), parser.getBody());
+    }
+
+    @Test
+    public void testKeepAlive() throws IOException {
+        assertTrue(parser.parse(buffer("GET / HTTP/1.1\r\nConnection: close\r\n\r\n")));
+        assertFalse(parser.isKeepAlive());
+        parser.reset();
+        assertTrue(parser.parse(buffer("GET / HTTP/1.0\r\n\r\n")));
+        assertFalse(parser.isKeepAlive());
+        parser.reset();
+        assertTrue(parser.parse(buffer("GET / HTTP/1.0\r\nConnection: Keep-Alive\r\n\r\n")));
+        assertTrue(parser.isKeepAlive());
+    }
+
+    @Test
+    public void testExpectContinue() throws IOException {
+        assertFalse(parser.parse(buffer("PUT /put HTTP/1.1\r\nExpect: 100-continue\r\nContent-Length: 4\r\n\r\n")));
+        assertTrue(parser.takeContinueRequest());
+        assertFalse(parser.takeContinueRequest());
+    }
+
+    @Test(expected = IOException.class)
+    public void testMalformedRequestLine() throws IOException {
+        parser.parse(buffer("GARBAGE\r\n\r\n"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidContentLength() throws IOException {
+        parser.parse(buffer("POST / HTTP/1.1\r\nContent-Length: abc\r\n\r\n"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testNegativeContentLength() throws IOException {
+        parser.parse(buffer("POST / HTTP/1.1\r\nContent-Length: -1\r\n\r\n"));
+    }
+
+    @Test
+    public void testMalformedContentLengthIsNotTooLarge() throws IOException {
+        try {
+            parser.parse(buffer("POST / HTTP/1.1\r\nContent-Length: 1e9\r\n\r\n"));
+            fail("Malformed Content-Length was accepted");
+        } catch (HttpRequestParser.BodyTooLargeException e) {
+            fail("Malformed Content-Length was reported as too large");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBodyOfMaximumSize() throws IOException {
+        assertTrue(parser.parse(buffer("POST / HTTP/1.1\r\nContent-Length: 16\r\n\r\n0123456789abcdef")));
+        assertEquals(16, parser.getBody().length);
+    }
+
+    @Test(expected = HttpRequestParser.BodyTooLargeException.class)
+    public void testContentLengthTooLarge() throws IOException {
+        parser.parse(buffer("POST / HTTP/1.1\r\nContent-Length: 17\r\n\r\n"));
+    }
+
+    @Test(expected = HttpRequestParser.BodyTooLargeException.class)
+    public void testContentLengthBeyondIntegerRange() throws IOException {
+        parser.parse(buffer("POST / HTTP/1.1\r\nContent-Length: 99999999999\r\n\r\n"));
+    }
+
+    @Test(expected = HttpRequestParser.BodyTooLargeException.class)
+    public void testChunkedBodyTooLarge() throws IOException {
+        parser.parse(buffer("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "A\r\n0123456789\r\n7\r\n"));
+    }
+
+    private static ByteBuffer buffer(String request) {
+        return ByteBuffer.wrap(bytes(request));
+    }
+
+    private static byte[] bytes(String string) {
+        return string.getBytes(Charsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,175 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.transport;
+
+import de.hanbei.httpserver.MockHttpServer;
+import de.hanbei.httpserver.RequestProcessor;
+import de.hanbei.httpserver.common.FaultPolicy;
+import de.hanbei.httpserver.common.Method;
+import de.hanbei.httpserver.common.Status;
+import de.hanbei.httpserver.common.Throttle;
+import de.hanbei.httpserver.exceptions.ServerErrorException;
+import de.hanbei.httpserver.request.Request;
+import de.hanbei.httpserver.response.Response;
+import org.apache.commons.io.Charsets;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LoopbackTransportTest {
+
+    private LoopbackTransport loopback;
+    private MockHttpServer httpServer;
+
+    @Before
+    public void setUp() {
+        loopback = new LoopbackTransport();
+        httpServer = new MockHttpServer(7001, loopback);
+        httpServer.addResponse(Method.GET, URI.create("test"), Response.ok().content("TestContent").build());
+        httpServer.addRequestProcessor(Method.POST, URI.create("post"), new RequestProcessor() {
+            @Override
+            public Response process(Request request) {
+                if ("Test".equals(request.getContent().getContentAsString())
+                        && request.getHeader().getHeaderValues("X-Test").contains("yes")) {
+                    return Response.ok().content("accepted").build();
+                }
+                return Response.status(Status.UNAUTHORIZED).build();
+            }
+        });
+        httpServer.start();
+    }
+
+    @Test
+    public void testSendRequest() {
+        Response response = loopback.send(request(Method.GET, "/test"));
+        assertEquals(Status.OK, response.getStatus());
+        assertEquals("TestContent", response.getContent().getContentAsString());
+    }
+
+    @Test
+    public void testSendAbsoluteRequestUri() {
+        Response response = loopback.send(request(Method.GET, "http://localhost:7001/test/"));
+        assertEquals(Status.OK, response.getStatus());
+    }
+
+    @Test
+    public void testSendToRequestProcessor() {
+        Request request = request(Method.POST, "/post");
+        request.getHeader().addParameter("X-Test", "yes");
+        request.getContent().setContent("Test".getBytes(Charsets.UTF_8));
+        assertEquals(Status.OK, loopback.send(request).getStatus());
+    }
+
+    @Test
+    public void testTimeout() {
+        httpServer.setTimeout(true);
+        assertNull(loopback.send(request(Method.GET, "/test")));
+    }
+
+    @Test(expected = ServerErrorException.class)
+    public void testSendToStoppedServer() {
+        httpServer.stop();
+        loopback.send(request(Method.GET, "/test"));
+    }
+
+    @Test
+    public void testUrlConnection() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) loopback.url("/test").openConnection();
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("11", connection.getHeaderField("content-length"));
+        assertEquals("TestContent", IOUtils.toString(connection.getInputStream(), Charsets.UTF_8));
+    }
+
+    @Test
+    public void testUrlConnectionPost() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) loopback.url("post").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("X-Test", "yes");
+        connection.setDoOutput(true);
+        OutputStream out = connection.getOutputStream();
+        out.write("Test".getBytes(Charsets.UTF_8));
+        out.close();
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("accepted", IOUtils.toString(connection.getInputStream(), Charsets.UTF_8));
+    }
+
+    @Test
+    public void testUrlConnectionReadsThrottledBody() throws IOException {
+        httpServer.addResponse(Method.GET, "/slow", Response.ok().content("0123456789")
+                .throttle(Throttle.bytesPerSecond(20).chunkSize(5)).build());
+        HttpURLConnection connection = (HttpURLConnection) loopback.url("/slow").openConnection();
+        long start = System.nanoTime();
+        assertEquals("10", connection.getHeaderField("content-length"));
+        assertEquals("0123456789", IOUtils.toString(connection.getInputStream(), Charsets.UTF_8));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(240));
+    }
+
+    @Test
+    public void testUrlConnectionSeesInjectedFaults() throws IOException {
+        httpServer.addResponse(Method.GET, "/truncated", Response.ok().content("0123456789")
+                .faults(FaultPolicy.none().truncate(100, 4)).build());
+        HttpURLConnection connection = (HttpURLConnection) loopback.url("/truncated").openConnection();
+        assertEquals("10", connection.getHeaderField("content-length"));
+        InputStream in = connection.getInputStream();
+        byte[] read = new byte[10];
+        assertEquals(4, in.read(read));
+        try {
+            in.read(read);
+            fail("The body should end before its declared length");
+        } catch (IOException e) {
+            assertEquals("Premature EOF", e.getMessage());
+        }
+
+        httpServer.addResponse(Method.GET, "/reset", Response.ok().faults(FaultPolicy.none().reset(100)).build());
+        try {
+            ((HttpURLConnection) loopback.url("/reset").openConnection()).getResponseCode();
+            fail("The connection should have been closed without a response");
+        } catch (IOException e) {
+            assertEquals("Unexpected end of file from server", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testUrlConnectionErrorStream() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) loopback.url("/missing").openConnection();
+        assertEquals(404, connection.getResponseCode());
+        assertEquals("Not Found", connection.getResponseMessage());
+        assertEquals(0, IOUtils.toByteArray(connection.getErrorStream()).length);
+    }
+
+    private static Request request(Method method, String uri) {
+        Request request = new Request();
+        request.setMethod(method);
+        request.setRequestUri(URI.create(uri));
+        return request;
+    }
+
+    @After
+    public void tearDown() {
+        httpServer.stop();
+    }
+}
@@ -0,0 +1,378 @@
+/* Copyright 2011 Florian Schulz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. */
+package de.hanbei.httpserver.transport;
+
+import de.hanbei.httpserver.MockHttpServer;
+import de.hanbei.httpserver.common.Body;
+import de.hanbei.httpserver.common.ChunkSource;
+import de.hanbei.httpserver.common.FaultPolicy;
+import de.hanbei.httpserver.common.Hang;
+import de.hanbei.httpserver.common.Method;
+import de.hanbei.httpserver.common.Throttle;
+import de.hanbei.httpserver.response.Response;
+import org.apache.commons.io.Charsets;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NioTransportTest {
+
+    private MockHttpServer httpServer;
+
+    @Test(timeout = 30000)
+    public void testManyConcurrentConnections() throws IOException {
+        NioTransport transport = NioTransport.builder().eventLoops(4).acceptors(2).backlog(2048).build();
+        startServer(transport);
+        assertEquals(4, transport.getEventLoopCount());
+
+        List<Socket> sockets = new ArrayList<Socket>();
+        try {
+            for (int i = 0; i < 500; i++) {
+                sockets.add(new Socket("localhost", httpServer.getPort()));
+            }
+            for (Socket socket : sockets) {
+                send(socket, "GET /test HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            }
+            for (Socket socket : sockets) {
+                assertEquals("HTTP/1.1 200 OK", readStatusLine(socket));
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testDelayedResponsesDoNotBlockTheEventLoop() throws IOException {
+        startServer(NioTransport.builder().eventLoops(1).backlog(2048).build());
+        httpServer.addResponse(Method.GET, URI.create("slow"),
+                Response.ok().content("slow").delay(1, TimeUnit.SECONDS).build());
+
+        List<Socket> sockets = new ArrayList<Socket>();
+        try {
+            for (int i = 0; i < 1000; i++) {
+                sockets.add(new Socket("localhost", httpServer.getPort()));
+            }
+            long start = System.nanoTime();
+            for (Socket socket : sockets) {
+                send(socket, "GET /slow HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            }
+            for (Socket socket : sockets) {
+                assertEquals("HTTP/1.1 200 OK", readStatusLine(socket));
+            }
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            // one event loop handles all requests, so waiting one after the other would take 1000 seconds
+            assertTrue("took " + elapsed + "ms", elapsed >= 1000 && elapsed < 10000);
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testThrottledDownloadsRunConcurrently() throws IOException {
+        startServer(NioTransport.builder().eventLoops(1).backlog(1024).build());
+        httpServer.addResponse(Method.GET, URI.create("trickle"), Response.ok().content(new byte[1000])
+                .throttle(Throttle.bytesPerSecond(1000).chunkSize(100)).build());
+
+        List<Socket> sockets = new ArrayList<Socket>();
+        try {
+            for (int i = 0; i < 300; i++) {
+                sockets.add(new Socket("localhost", httpServer.getPort()));
+            }
+            long start = System.nanoTime();
+            for (Socket socket : sockets) {
+                send(socket, "GET /trickle HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+            }
+            for (Socket socket : sockets) {
+                InputStream in = socket.getInputStream();
+                int read = 0;
+                while (in.read() >= 0) {
+                    read++;
+                }
+                assertTrue(read > 1000);
+            }
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            // each download takes 0.9 seconds, one after the other they would take 270 seconds
+            assertTrue("took " + elapsed + "ms", elapsed >= 900 && elapsed < 10000);
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testPipelinedRequestsOnOneConnection() throws IOException {
+        startServer(NioTransport.builder().eventLoops(1).build());
+        Socket socket = new Socket("localhost", httpServer.getPort());
+        try {
+            send(socket, "GET /test HTTP/1.1\r\n\r\nGET /missing HTTP/1.1\r\n\r\nGET /test HTTP/1.1\r\n"
+                    + "Connection: close\r\n\r\n");
+            BufferedReader reader = reader(socket);
+            List<String> statusLines = new ArrayList<String>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // the body of a response has no line break, so the next status line follows it directly
+                int statusLine = line.indexOf("HTTP/1.1 ");
+                if (statusLine >= 0) {
+                    statusLines.add(line.substring(statusLine));
+                }
+            }
+            assertEquals(3, statusLines.size());
+            assertEquals("HTTP/1.1 200 OK", statusLines.get(0));
+            assertEquals("HTTP/1.1 404 Not Found", statusLines.get(1));
+            assertEquals("HTTP/1.1 200 OK", statusLines.get(2));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testMalformedRequestIsRejected() throws IOException {
+        startServer(NioTransport.builder().eventLoops(1).build());
+        Socket socket = new Socket("localhost", httpServer.getPort());
+        try {
+            send(socket, "NONSENSE\r\n\r\n");
+            assertTrue(readStatusLine(socket).startsWith("HTTP/1.1 400"));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testBodyLargerThanMaximumIsRejected() throws IOException {
+        startServer(NioTransport.builder().eventLoops(1).maxBodySize(1024).build());
+        Socket socket = new Socket("localhost", httpServer.getPort());
+        try {
+            send(socket, "POST /test HTTP/1.1\r\nHost: localhost\r\nContent-Length: 2147483647\r\n\r\n");
+            assertTrue(readStatusLine(socket).startsWith("HTTP/1.1 413"));
+        } finally {
+            socket.close();
+        }
+        socket = new Socket("localhost", httpServer.getPort());
+        try {
+            send(socket, "POST /test HTTP/1.1\r\nHost: localhost\r\nContent-Length: -5\r\n\r\n");
+            assertTrue(readStatusLine(socket).startsWith("HTTP/1.1 400"));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testStreamIsPulledOnlyAsFastAsTheClientReads() throws Exception {
+        final AtomicLong produced = new AtomicLong();
+        final CountDownLatch closed = new CountDownLatch(1);
+        startServer(NioTransport.builder().eventLoops(1).build());
+        httpServer.addResponse(Method.GET, "/endless", Response.ok().content(Body.stream(new Callable<ChunkSource>() {
+            public ChunkSource call() {
+                return new ChunkSource() {
+                    private final ByteBuffer chunk = ByteBuffer.allocate(64 * 1024);
+
+                    public ByteBuffer next() {
+                        chunk.clear();
+                        produced.addAndGet(chunk.remaining());
+                        return chunk;
+                    }
+
+                    public void close() {
+                        closed.countDown();
+                    }
+                };
+            }
+        })).build());
+        Socket socket = new Socket("localhost", httpServer.getPort());
+        socket.setReceiveBufferSize(64 * 1024);
+        try {
+            send(socket, "GET /endless HTTP/1.1\r\n\r\n");
+            assertEquals("HTTP/1.1 200 OK", readStatusLine(socket));
+            Thread.sleep(500);
+            long stalled = produced.get();
+            Thread.sleep(200);
+            // the event loop stops pulling chunks once the socket buffers are full
+            assertEquals(stalled, produced.get());
+            assertTrue(stalled < 64L * 1024 * 1024);
+        } finally {
+            socket.close();
+        }
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 10000)
+    public void testInjectedFaultsBreakTheFraming() throws IOException {
+        startServer(NioTransport.builder().eventLoops(1).build());
+        httpServer.addResponse(Method.GET, "/truncated", Response.ok().content("0123456789")
+                .faults(FaultPolicy.none().truncate(100, 3)).build());
+        httpServer.addResponse(Method.GET, "/short", Response.ok().content("0123456789")
+                .faults(FaultPolicy.none().wrongContentLength(100, -4)).build());
+
+        String truncated = readAll("GET /truncated HTTP/1.1\r\n\r\n");
+        assertTrue(truncated.contains("Content-Length: 10\r\n"));
+        assertTrue(truncated.contains("Connection: close\r\n"));
+        assertTrue(truncated.endsWith("\r\n\r\n012"));
+
+        String tooShort = readAll("GET /short HTTP/1.1\r\n\r\nGET /test HTTP/1.1\r\n\r\n");
+        assertTrue(tooShort.contains("Content-Length: 6\r\n"));
+        // the whole body is sent and the connection closed, the pipelined request is not answered
+        assertTrue(tooShort.endsWith("\r\n\r\n0123456789"));
+    }
+
+    @Test(timeout = 10000)
+    public void testInjectedFaultsAbortTheConnection() throws IOException {
+        startServer(NioTransport.builder().eventLoops(1).build());
+        httpServer.addResponse(Method.GET, "/garbage", Response.ok().content("ok")
+                .faults(FaultPolicy.none().garbageStatus(100)).build());
+        httpServer.addResponse(Method.GET, "/reset", Response.ok().content("ok")
+                .faults(FaultPolicy.none().reset(100)).build());
+
+        String garbage = readAll("GET /garbage HTTP/1.1\r\n\r\n");
+        assertEquals(0, garbage.charAt(0));
+        assertTrue(garbage.endsWith("\r\n\r\n"));
+
+        Socket socket = new Socket("localhost", httpServer.getPort());
+        try {
+            send(socket, "GET /reset HTTP/1.1\r\n\r\n");
+            socket.getInputStream().read();
+            fail("The connection should have been reset");
+        } catch (SocketException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("reset"));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testHangingConnectionsDoNotOccupyThreads() throws Exception {
+        startServer(NioTransport.builder().eventLoops(1).backlog(2048).build());
+        httpServer.setHang(Hang.of(1, TimeUnit.SECONDS));
+        int threads = Thread.activeCount();
+
+        List<Socket> sockets = new ArrayList<Socket>();
+        try {
+            for (int i = 0; i < 2000; i++) {
+                Socket socket = new Socket("localhost", httpServer.getPort());
+                sockets.add(socket);
+                send(socket, "GET /test HTTP/1.1\r\n\r\n");
+            }
+            while (httpServer.getHangingCount() < sockets.size()) {
+                Thread.sleep(10);
+            }
+            assertTrue(Thread.activeCount() - threads < 10);
+            for (Socket socket : sockets) {
+                // nothing is sent before the connection is closed
+                assertEquals(-1, socket.getInputStream().read());
+            }
+            assertEquals(0, httpServer.getHangingCount());
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testHangEndsWithReset() throws IOException {
+        startServer(NioTransport.builder().eventLoops(1).build());
+        httpServer.setHang(Hang.of(100, TimeUnit.MILLISECONDS).thenReset());
+        Socket socket = new Socket("localhost", httpServer.getPort());
+        try {
+            send(socket, "GET /test HTTP/1.1\r\n\r\n");
+            socket.getInputStream().read();
+            fail("The connection should have been reset");
+        } catch (SocketException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("reset"));
+        } finally {
+            socket.close();
+        }
+    }
+
+    private String readAll(String requests) throws IOException {
+        Socket socket = new Socket("localhost", httpServer.getPort());
+        try {
+            send(socket, requests);
+            return IOUtils.toString(socket.getInputStream(), Charsets.ISO_8859_1);
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testStartAfterStopIsRejected() throws IOException {
+        startServer(NioTransport.builder().eventLoops(2).build());
+        int port = httpServer.getPort();
+        httpServer.stop();
+        try {
+            httpServer.start();
+            fail("A stopped transport must not start again");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            new Socket("localhost", port).close();
+            fail("The stopped transport still accepts connections");
+        } catch (ConnectException e) {
+            // expected
+        }
+    }
+
+    private void startServer(NioTransport transport) {
+        httpServer = new MockHttpServer(0, transport);
+        httpServer.addResponse(Method.GET, URI.create("test"), Response.ok().content("ok").build());
+        httpServer.start();
+    }
+
+    private static void send(Socket socket, String request) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(request.getBytes(Charsets.ISO_8859_1));
+        out.flush();
+    }
+
+    private static String readStatusLine(Socket socket) throws IOException {
+        return reader(socket).readLine();
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), Charsets.ISO_8859_1));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (httpServer != null) {
+            httpServer.stop();
+        }
+    }
+}